@@ -39,32 +39,21 @@
      * @returns {Array}
      */
     function getTop5(iniName) {
-        var keys = $.inidb.GetKeysByNumberOrderValue(iniName, '', 'DESC', (iniName.equals('points') ? amountPoints + 2: amountTime + 2), 0),
+        var amount = (iniName.equals('points') ? amountPoints : amountTime),
+            keyValues = $.inidb.GetKeyValuesByNumberOrderValue(iniName, '', 'DESC', amount + 2, 0),
             list = [],
-            i,
-            ctr = 0;
-
-        for (i in keys) {
-            if (!$.isBot(keys[i]) && !$.isOwner(keys[i])) {
-                if (ctr++ == (iniName.equals('points') ? amountPoints : amountTime)) {
-                    break;
-                }
+            i;
+
+        for (i = 0; i < keyValues.length && list.length < amount; i++) {
+            if (!$.isBot(keyValues[i].getKey()) && !$.isOwner(keyValues[i].getKey())) {
                 list.push({
-                    username: keys[i],
-                    value: $.inidb.get(iniName, keys[i])
+                    username: keyValues[i].getKey(),
+                    value: keyValues[i].getValue()
                 });
             }
         }
 
-        list.sort(function(a, b) {
-            return (b.value - a.value);
-        });
-
-        if (iniName.equals('points')) {
-            return list.slice(0, amountPoints);
-        } else {
-            return list.slice(0, amountTime);
-        }
+        return list;
     }
 
     /*
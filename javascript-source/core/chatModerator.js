@@ -19,7 +19,8 @@
     var permitList = [],
         timeouts = [],
         whiteList = [],
-        blackList = [],
+        blackList = {},
+        blackListMatcher = new Packages.tv.phantombot.scripts.core.PhraseMatcher(),
         spamTracker = {},
 
         linksToggle = $.getSetIniDbBoolean('chatModerator', 'linksToggle', false),
@@ -303,25 +304,24 @@
      */
     function loadBlackList() {
         var keys = $.inidb.GetKeyList('blackList', '');
-        blackList = [];
+        blackList = {};
+        blackListMatcher.clear();
 
         for (i = 0; i < keys.length; i++) {
             var json = JSON.parse($.inidb.get('blackList', keys[i]));
 
             if (json != null) {
                 if (json.isRegex) {
-                    try {
-                        json.phrase = new RegExp(json.phrase.replace('regex:', ''));
-                    } catch (ex) {
-                        // Failed to create regex, ignore this and don't make it a blacklist.
+                    // Failed to create regex, ignore this and don't make it a blacklist.
+                    if (!blackListMatcher.add(keys[i], json.phrase.replace('regex:', ''), true, true, 'substring')) {
                         continue;
                     }
                 } else {
-                    json.phrase = json.phrase.toLowerCase();
+                    blackListMatcher.add(keys[i], json.phrase.toLowerCase(), false, true, 'substring');
                 }
                 json.isBan = parseInt(json.timeout) === -1;
 
-                blackList.push(json);
+                blackList[keys[i]] = json;
             }
         }
     }
@@ -458,44 +458,28 @@
      * @param {map} tags
      */
     function checkBlackList(sender, event, message, tags) {
-        for (i in blackList) {
-            if (blackList[i].isRegex) {
-                if ($.test(message, blackList[i].phrase)) {
-                    if (blackList[i].excludeRegulars && $.isReg(sender) || blackList[i].excludeSubscribers && $.isSubv3(sender, event.getTags())) {
-                        return false;
-                    }
-
-                    if (blackList[i].isBan) {
-                        banUser(sender, blackList[i].banReason);
-                        warning = $.lang.get('chatmoderator.ban');
-                        sendMessage(sender, blackList[i].message, blackList[i].isSilent);
-                    } else {
-                        timeoutUserFor(sender, blackList[i].timeout, blackList[i].banReason, tags);
-                        warning = $.lang.get('chatmoderator.timeout');
-                        sendMessage(sender, blackList[i].message, blackList[i].isSilent);
-                    }
-                    return true;
-                }
-            } else {
-                if (message.indexOf(blackList[i].phrase) !== -1) {
-                    if (blackList[i].excludeRegulars && $.isReg(sender) || blackList[i].excludeSubscribers && $.isSubv3(sender, event.getTags())) {
-                        return false;
-                    }
+        var id = blackListMatcher.first(message),
+            entry;
 
-                    if (blackList[i].isBan) {
-                        banUser(sender, blackList[i].banReason);
-                        warning = $.lang.get('chatmoderator.ban');
-                        sendMessage(sender, blackList[i].message, blackList[i].isSilent);
-                    } else {
-                        timeoutUserFor(sender, blackList[i].timeout, blackList[i].banReason, tags);
-                        warning = $.lang.get('chatmoderator.timeout');
-                        sendMessage(sender, blackList[i].message, blackList[i].isSilent);
-                    }
-                    return true;
-                }
-            }
+        if (id === null) {
+            return false;
         }
-        return false;
+
+        entry = blackList[id];
+
+        if (entry.excludeRegulars && $.isReg(sender) || entry.excludeSubscribers && $.isSubv3(sender, event.getTags())) {
+            return false;
+        }
+
+        if (entry.isBan) {
+            banUser(sender, entry.banReason);
+            warning = $.lang.get('chatmoderator.ban');
+        } else {
+            timeoutUserFor(sender, entry.timeout, entry.banReason, tags);
+            warning = $.lang.get('chatmoderator.timeout');
+        }
+        sendMessage(sender, entry.message, entry.isSilent);
+        return true;
     }
 
     /**
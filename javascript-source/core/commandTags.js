@@ -23,7 +23,7 @@
      * @returns {string}
      */
     function getCustomAPIValue(url) {
-        return $.customAPI.get(url).content;
+        return $.customAPI.getCached(url).content;
     }
 
     /*
@@ -386,13 +386,13 @@
          * Bot: Weather for Boulder, CO : Sunny Temps: 75 F 24 C
          */
         var reCustomAPITextTag = new RegExp(/{([\w\W]+)}/);
-        var JSONObject = Packages.org.json.JSONObject;
         function customapijson(args, event) {
             var customJSONStringTag,
                     jsonCheckList,
+                    jsonError,
                     jsonItems,
                     jsonObject,
-                    response,
+                    jsonResponse,
                     responsePart,
                     result = '';
             if ((match = args.match(/^ (\S+) (.+)$/))) {
@@ -415,7 +415,12 @@
                 }
 
                 result = '';
-                response = getCustomAPIValue(encodeURI(match[1]));
+                try {
+                    jsonResponse = $.customAPI.getCachedJSON(encodeURI(match[1]));
+                } catch (ex) {
+                    jsonResponse = null;
+                    jsonError = ex.message;
+                }
                 jsonItems = match[2].split(' ');
                 for (j = 0; j < jsonItems.length; j++) {
                     if (jsonItems[j].startsWith('{') && jsonItems[j].endsWith('}')) {
@@ -428,10 +433,14 @@
                         customJSONStringTag += jsonItems[j];
                         result += " " + customJSONStringTag.match(reCustomAPITextTag)[1];
                     } else {
+                        if (jsonResponse === null) {
+                            $.log.error('Failed to get data from API: ' + jsonError);
+                            return {result: $.lang.get('customcommands.customapijson.err', cmd)};
+                        }
                         jsonCheckList = jsonItems[j].split('.');
                         if (jsonCheckList.length === 1) {
                             try {
-                                responsePart = new JSONObject(response).get(jsonCheckList[0]);
+                                responsePart = jsonResponse.get(jsonCheckList[0]);
                             } catch (ex) {
                                 $.log.error('Failed to get data from API: ' + ex.message);
                                 return {result: $.lang.get('customcommands.customapijson.err', cmd)};
@@ -441,7 +450,7 @@
                             for (i = 0; i < jsonCheckList.length - 1; i++) {
                                 if (i === 0) {
                                     try {
-                                        jsonObject = new JSONObject(response).get(jsonCheckList[i]);
+                                        jsonObject = jsonResponse.get(jsonCheckList[i]);
                                     } catch (ex) {
                                         $.log.error('Failed to get data from API: ' + ex.message);
                                         return {result: $.lang.get('customcommands.customapijson.err', cmd)};
@@ -27,8 +27,7 @@ var setTimeout,
     clearInterval;
 
 (function() {
-    var counter = 1,
-        registry = {};
+    var scheduler = Packages.tv.phantombot.script.ScriptTimers.instance();
 
     /**
      * @function setTimeout
@@ -39,21 +38,7 @@ var setTimeout,
      * @returns {Number}
     */
     setTimeout = function(fn, delay, name) {
-        var id = counter++,
-            timer;
-
-        if (name !== undefined) {
-            timer = new java.util.Timer(name);
-        } else {
-            timer = new java.util.Timer();
-        }
-
-        registry[id] = new JavaAdapter(java.util.TimerTask, {
-            run: fn
-        });
-        timer.schedule(registry[id], delay);
-
-        return id;
+        return scheduler.setTimeout(fn, (delay === undefined ? 0 : delay), (name === undefined ? null : name));
     };
 
     /**
@@ -65,21 +50,7 @@ var setTimeout,
      * @returns {Number}
      */
     setInterval = function(fn, interval, name) {
-        var id = counter++,
-            timer;
-
-        if (name !== undefined) {
-            timer = new java.util.Timer(name);
-        } else {
-            timer = new java.util.Timer();
-        }
-
-        registry[id] = new JavaAdapter(java.util.TimerTask, {
-            run: fn
-        });
-        timer.schedule(registry[id], interval, interval);
-
-        return id;
+        return scheduler.setInterval(fn, (interval === undefined ? 0 : interval), (name === undefined ? null : name));
     };
 
     /**
@@ -91,16 +62,7 @@ var setTimeout,
             return;
         }
 
-        if (registry[id] != undefined) {
-            try {
-                registry[id].cancel();
-            } catch (ex) {
-                // Cannot cancel since timer is already over.
-                // Ignore this.
-            }
-        }
-
-        delete registry[id];
+        scheduler.clear(id);
     };
 
     /**
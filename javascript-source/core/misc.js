@@ -421,8 +421,10 @@
      * @returns {boolean}
      */
     function getIniDbBoolean(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return ($.inidb.get(fileName, key) == 'true');
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return (value == 'true');
         } else {
             return (defaultValue);
         }
@@ -437,8 +439,10 @@
      * @returns {boolean}
      */
     function getSetIniDbBoolean(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return ($.inidb.get(fileName, key) == 'true');
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return (value == 'true');
         } else {
             $.inidb.set(fileName, key, defaultValue.toString());
             return (defaultValue);
@@ -465,8 +469,10 @@
      * @param {string}
      */
     function getIniDbString(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return ($.inidb.get(fileName, key) + '');
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return (value + '');
         } else {
             return (defaultValue);
         }
@@ -480,8 +486,10 @@
      * @param {string}
      */
     function getSetIniDbString(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return ($.inidb.get(fileName, key) + '');
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return (value + '');
         } else {
             $.inidb.set(fileName, key, defaultValue);
             return (defaultValue);
@@ -507,8 +515,10 @@
      * @param {number}
      */
     function getIniDbNumber(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return parseInt($.inidb.get(fileName, key));
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return parseInt(value);
         } else {
             return defaultValue;
         }
@@ -522,8 +532,10 @@
      * @param {number}
      */
     function getSetIniDbNumber(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return parseInt($.inidb.get(fileName, key));
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return parseInt(value);
         } else {
             $.inidb.set(fileName, key, defaultValue.toString());
             return defaultValue;
@@ -549,8 +561,10 @@
      * @param {number}
      */
     function getIniDbFloat(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return parseFloat($.inidb.get(fileName, key));
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return parseFloat(value);
         } else {
             return defaultValue;
         }
@@ -564,8 +578,10 @@
      * @param {number}
      */
     function getSetIniDbFloat(fileName, key, defaultValue) {
-        if ($.inidb.exists(fileName, key) == true) {
-            return parseFloat($.inidb.get(fileName, key));
+        var value = $.inidb.get(fileName, key);
+
+        if (value !== null) {
+            return parseFloat(value);
         } else {
             $.inidb.set(fileName, key, defaultValue.toString());
             return defaultValue;
@@ -25,15 +25,9 @@
  */
 (function() {
     var userGroups = [],
-        modeOUsers = [],
-        subUsers = new java.util.concurrent.CopyOnWriteArrayList(),
-        vipUsers = [],
-        modListUsers = [],
-        users = [],
-        moderatorsCache = [],
+        userRegistry = Packages.tv.phantombot.scripts.core.UserRegistry.instance(),
         botList = [],
         lastJoinPart = $.systemTime(),
-        firstRun = true,
         isUpdatingUsers = false,
         _isSwappedSubscriberVIP = false;
 
@@ -99,66 +93,14 @@
         cleanTwitchBots();
     }
 
-    /**
-     * @function hasKey
-     * @param {Array} list
-     * @param {*} value
-     * @returns {boolean}
-     */
-    function hasKey(list, value) {
-        var exists = false;
-
-        for (var i = 0; i < list.length; i++) {
-            if (list[i] !== undefined && list[i].equalsIgnoreCase(value)) {
-                exists = true;
-                break;
-            }
-        }
-
-        return exists;
-    }
-
      /**
      * @function updateUsersObject
      * @param {Array} list
      *
-     * This function properly rebuilds the users list from a list of usernames.
-     * The $.users object cannot be modified and if the users object is replaced,
-     * then it disassociates from the original list causing issues.
-     *
-     *** This can take a very long time to complete and is very hard on your CPU when large array.
+     * This function replaces the users in the channel with a list of usernames.
      */
     function updateUsersObject(newUsers) {
-        for (var i in newUsers) {
-            if (!userExists(newUsers[i])) {
-                users.push(newUsers[i]);
-            }
-        }
-
-        for (var i = users.length - 1; i >= 0; i--) {
-            if (!hasKey(newUsers, users[i])) {
-                users.splice(i, 1);
-            }
-        }
-    }
-
-    /**
-     * @function getKeyIndex
-     * @param {Array} list
-     * @param {*} value
-     * @returns {boolean}
-     */
-    function getKeyIndex(list, value) {
-        var idx = -1;
-
-        for (var i = 0; i < list.length; i++) {
-            if (list[i] !== undefined && $.equalsIgnoreCase(list[i], value)) {
-                idx = i;
-                break;
-            }
-        }
-
-        return idx;
+        userRegistry.replace(newUsers);
     }
 
     /**
@@ -168,7 +110,7 @@
      * @returns {boolean}
      */
     function userExists(username) {
-        return hasKey(users, username);
+        return userRegistry.isPresent(username);
     }
 
     /**
@@ -239,7 +181,7 @@
      * @returns {boolean}
      */
     function isSub(username) {
-        return subUsers.contains(java.util.Objects.toString(username.toLowerCase()));
+        return userRegistry.hasRole(username, 'subscriber');
     }
 
     /**
@@ -313,7 +255,7 @@
      * @returns {boolean}
      */
     function hasModeO(username) {
-        return hasKey(modeOUsers, username);
+        return userRegistry.hasRole(username, 'mode_o');
     }
 
     /**
@@ -323,7 +265,7 @@
      * @returns {boolean}
      */
     function hasModList(username) {
-        return hasKey(modListUsers, username);
+        return userRegistry.hasRole(username, 'mod_list');
     }
 
     /**
@@ -441,7 +383,8 @@
      * @returns {Array}
      */
     function getUsernamesArrayByGroupId(filterId) {
-        var i, array = [];
+        var i, array = [],
+            users = userRegistry.getUsers();
         for (i in users) {
             if (filterId) {
                 if ($.getUserGroupId(users[i]) <= filterId) {
@@ -460,9 +403,7 @@
      * @param username
      */
     function addSubUsersList(username) {
-        if (!isSub(username)) {
-            subUsers.add(username);
-        }
+        userRegistry.addRole(username, 'subscriber');
     }
 
     /**
@@ -471,9 +412,7 @@
      * @param username
      */
     function delSubUsersList(username) {
-        if (subUsers.contains(username)) {
-            subUsers.remove(username);
-        }
+        userRegistry.removeRole(username, 'subscriber');
     }
 
     /**
@@ -482,7 +421,7 @@
      * @param username
      */
     function isModeratorCache(username) {
-        return (moderatorsCache[username] !== undefined);
+        return userRegistry.hasRole(username, 'moderator');
     }
 
     /**
@@ -491,7 +430,7 @@
      * @param username
      */
     function addModeratorToCache(username) {
-        moderatorsCache[username] = true;
+        userRegistry.addRole(username, 'moderator');
     }
 
     /**
@@ -500,9 +439,7 @@
      * @param username
      */
     function removeModeratorFromCache(username) {
-        if (moderatorsCache[username] !== undefined) {
-            delete moderatorsCache[username];
-        }
+        userRegistry.removeRole(username, 'moderator');
     }
 
     /**
@@ -693,11 +630,8 @@
             for (var i = 0; i < parts.length; i++) {
                 // Cast the user as a string, because Rhino.
                 parts[i] = (parts[i] + '');
-                // Remove the user from the users array.
-                var t = getKeyIndex($.users, parts[i]);
-                if (t >= 0) {
-                    $.users.splice(t, 1);
-                }
+                // Remove the user from the channel.
+                userRegistry.part(parts[i]);
 
                 $.restoreSubscriberStatus(parts[i]);
                 $.username.removeUser(parts[i]);
@@ -713,18 +647,12 @@
                     continue;
                 }
 
-                // Since the user's array gets so big, let's skip it on first run in case the bot ever gets shutdown and restarted mid stream.
-                if (!firstRun && !userExists(joins[i])) {
-                    $.users.push(joins[i]);
-                } else {
-                    $.users.push(joins[i]);
-                }
+                userRegistry.join(joins[i]);
             }
 
             $.inidb.SetBatchString('visited', '', joins, values);
 
             isUpdatingUsers = false;
-            firstRun = false;
         }, 0, 'core::permissions.js::ircChannelUsersUpdate');
     });
 
@@ -745,7 +673,7 @@
 
             lastJoinPart = $.systemTime();
 
-            users.push(username);
+            userRegistry.join(username);
         }
     });
 
@@ -764,7 +692,7 @@
                 $.setIniDbBoolean('visited', username, true);
             }
 
-            users.push(username);
+            userRegistry.join(username);
         }
     });
 
@@ -772,17 +700,11 @@
      * @event ircChannelLeave
      */
     $.bind('ircChannelLeave', function(event) {
-        var username = event.getUser().toLowerCase(),
-            i;
-
-        if (!isUpdatingUsers) {
-            i = getKeyIndex(users, username);
+        var username = event.getUser().toLowerCase();
 
-            if (i >= 0) {
-                users.splice(i, 1);
-                restoreSubscriberStatus(username.toLowerCase());
-                $.username.removeUser(username);
-            }
+        if (!isUpdatingUsers && userRegistry.part(username)) {
+            restoreSubscriberStatus(username.toLowerCase());
+            $.username.removeUser(username);
         }
     });
 
@@ -790,22 +712,21 @@
      * @event ircChannelUserMode
      */
     $.bind('ircChannelUserMode', function(event) {
-        var username = event.getUser().toLowerCase(),
-            i;
+        var username = event.getUser().toLowerCase();
 
         if (event.getMode().equalsIgnoreCase('o')) {
             if (event.getAdd().toString().equals('true')) {
                 if (!hasModeO(username)) {
                     addModeratorToCache(username.toLowerCase());
                     if (isOwner(username)) {
-                        modeOUsers.push(username);
+                        userRegistry.addRole(username, 'mode_o');
                         $.inidb.set('group', username, '0');
                     } else {
                         if (isAdmin(username)) {
-                            modeOUsers.push(username);
+                            userRegistry.addRole(username, 'mode_o');
                             $.inidb.set('group', username, '1');
                         } else {
-                            modeOUsers.push(username);
+                            userRegistry.addRole(username, 'mode_o');
                             $.inidb.set('group', username, '2');
                         }
                     }
@@ -813,12 +734,7 @@
             } else {
                 if (hasModeO(username)) {
                     removeModeratorFromCache(username);
-
-                    i = getKeyIndex(modeOUsers, username);
-
-                    if (i >= 0) {
-                        modeOUsers.splice(i, 1);
-                    }
+                    userRegistry.removeRole(username, 'mode_o');
 
                     if (isSub(username)) {
                         $.inidb.set('group', username, '3'); // Subscriber, return to that group.
@@ -854,14 +770,13 @@
             vipMessageStart = 'vips for this channel are: ',
             novipMessageStart = 'this channel does not have any vips',
             keys = $.inidb.GetKeyList('group', ''),
-            subsTxtList = [],
             spl,
             i;
 
         if (sender.equalsIgnoreCase('jtv')) {
             if (message.indexOf(modMessageStart) > -1) {
                 spl = message.replace(modMessageStart, '').split(', ');
-                modListUsers = [];
+                userRegistry.setRoleUsers('mod_list', spl);
 
                 for (i in keys) {
                     if ($.inidb.get('group', keys[i]).equalsIgnoreCase('2')) {
@@ -870,15 +785,14 @@
                 }
 
                 for (i in spl) {
-                    modListUsers.push(spl[i]);
                     if (!isAdmin(spl[i]) && !isBot(spl[i])) {
                         $.inidb.set('group', spl[i], '2');
                     }
                 }
-                $.saveArray(modListUsers, './addons/mods.txt', false);
+                $.saveArray(spl, './addons/mods.txt', false);
             } else if (message.indexOf(vipMessageStart) > -1) {
                 spl = message.replace(vipMessageStart, '').split(', ');
-                vipUsers = [];
+                userRegistry.setRoleUsers('vip', spl);
 
                 for (i in keys) {
                     if ($.inidb.get('group', keys[i]).equalsIgnoreCase('5')) {
@@ -887,13 +801,14 @@
                 }
 
                 for (i in spl) {
-                    vipUsers.push(spl[i]);
                     if (!isMod(spl[i]) && !isAdmin(spl[i]) && !isBot(spl[i])) {
                         $.inidb.set('group', spl[i], '5');
                     }
                 }
-                $.saveArray(vipUsers, './addons/vips.txt', false);
+                $.saveArray(spl, './addons/vips.txt', false);
             } else if (message.indexOf(novipMessageStart) > -1) {
+                userRegistry.setRoleUsers('vip', []);
+
                 for (i in keys) {
                     if ($.inidb.get('group', keys[i]).equalsIgnoreCase('5')) {
                         $.inidb.del('group', keys[i]);
@@ -903,14 +818,9 @@
             } else if (message.indexOf('specialuser') > -1) {
                 spl = message.split(' ');
                 if (spl[2].equalsIgnoreCase('subscriber')) {
-                    if (!subUsers.contains(spl[1].toLowerCase())) {
-                        subUsers.add(spl[1]);
-
+                    if (userRegistry.addRole(spl[1], 'subscriber')) {
                         restoreSubscriberStatus(spl[1].toLowerCase());
-                        for (var i = 0; i < subUsers.size(); i++) {
-                            subsTxtList.push(subUsers.get(i));
-                        }
-                        $.saveArray(subsTxtList, './addons/subs.txt', false);
+                        $.saveArray(userRegistry.getRoleUsers('subscriber'), './addons/subs.txt', false);
                     }
                 }
             }
@@ -940,8 +850,8 @@
          * @commandpath users - List users currently in the channel
          */
         if (command.equalsIgnoreCase('users')) {
-            if (users.length > 20) {
-                $.say($.whisperPrefix(sender) + $.lang.get('permissions.current.listtoolong', users.length));
+            if (userRegistry.size() > 20) {
+                $.say($.whisperPrefix(sender) + $.lang.get('permissions.current.listtoolong', userRegistry.size()));
             } else {
                 $.say($.whisperPrefix(sender) + $.lang.get('permissions.current.users', getUsernamesArrayByGroupId().join(', ')));
             }
@@ -1181,10 +1091,14 @@
     $.adminMsg = $.lang.get('cmd.adminonly');
     $.modMsg = $.lang.get('cmd.modonly');
     $.userGroups = userGroups;
-    $.modeOUsers = modeOUsers;
-    $.subUsers = subUsers;
-    $.modListUsers = modListUsers;
-    $.users = users;
+    $.userRegistry = userRegistry;
+    // A snapshot of the users in the channel, which stays the same until someone joins or leaves.
+    Object.defineProperty($, 'users', {
+        get: function() {
+            return userRegistry.getUsers();
+        },
+        configurable: true
+    });
     $.lastJoinPart = lastJoinPart;
 
     $.userExists = userExists;
@@ -28,8 +28,7 @@
         keepTimeWhenOffline = $.getSetIniDbBoolean('timeSettings', 'keepTimeWhenOffline', true),
         hoursForLevelUp = $.getSetIniDbNumber('timeSettings', 'timePromoteHours', 50),
         regularsGroupId = 6,
-        interval,
-        inter;
+        interval;
 
     /**
      * @function updateTimeSettings
@@ -482,40 +481,26 @@
         }
     });
 
-    // Set an interval for increasing all current users logged time
+    // Set an interval for increasing all current users logged time, this also promotes users to regular when auto level is on.
     interval = setInterval(function() {
-        var username,
+        var promoted,
             i;
 
         if ($.isOnline($.channelName) || keepTimeWhenOffline) {
-            $.inidb.IncreaseBatchString('time', '', $.users, '60');
-        }
-    }, 6e4, 'scripts::systems::timeSystem.js#1');
-
-    // Interval for auto level to regular
-    inter = setInterval(function() {
-        var username,
-            i;
-
-        if (levelWithTime) {
-            for (i in $.users) {
-                username = $.users[i].toLowerCase();
-                if (!$.isMod(username) && !$.isAdmin(username) && !$.isSub(username) && !$.isVIP(username) && $.inidb.exists('time', username) && Math.floor(parseInt($.inidb.get('time', username)) / 3600) >= hoursForLevelUp && parseInt($.getUserGroupId(username)) > regularsGroupId) {
-                    if (!$.hasModList(username)) { // Added a second check here to be 100% sure the user is not a mod.
-                        $.setUserGroupById(username, regularsGroupId);
-                        if (timeLevelWarning) {
-                            $.say($.lang.get(
-                                'timesystem.autolevel.promoted',
-                                $.username.resolve(username),
-                                $.getGroupNameById(regularsGroupId).toLowerCase(),
-                                hoursForLevelUp
-                            )); //No whisper mode needed here.
-                        }
-                    }
+            promoted = Packages.tv.phantombot.scripts.core.PayoutEngine.instance().payTime(60, levelWithTime, hoursForLevelUp, regularsGroupId, $.getVIPGroupID()).getPromoted();
+
+            if (timeLevelWarning) {
+                for (i = 0; i < promoted.length; i++) {
+                    $.say($.lang.get(
+                        'timesystem.autolevel.promoted',
+                        $.username.resolve(promoted[i]),
+                        $.getGroupNameById(regularsGroupId).toLowerCase(),
+                        hoursForLevelUp
+                    )); //No whisper mode needed here.
                 }
             }
         }
-    }, 9e5, 'scripts::systems::timeSystem.js#2');
+    }, 6e4, 'scripts::systems::timeSystem.js#1');
 
     /**
      * @event initReady
@@ -95,19 +95,21 @@
     /**
      * @function say
      *
+     * Queues the message and returns without waiting for it to be sent.
+     *
      * @export $.discord
      * @param {string} channel
      * @param {string} message
      */
     function say(channel, message) {
         if (embedReg.test(message)) {
-            return $.discordAPI.sendMessageEmbed(channel, message.match(embedReg)[1], message.match(embedReg)[2]);
+            $.discordAPI.sendMessageEmbedAsync(channel, message.match(embedReg)[1], message.match(embedReg)[2]);
         } else if (fileRegMsg.test(message)) {
-            return $.discordAPI.sendFile(channel, message.match(fileRegMsg)[2], message.match(fileRegMsg)[1]);
+            $.discordAPI.sendFileAsync(channel, message.match(fileRegMsg)[2], message.match(fileRegMsg)[1]);
         } else if (fileReg.test(message)) {
-            return $.discordAPI.sendFile(channel, message.match(fileReg)[1]);
+            $.discordAPI.sendFileAsync(channel, '', message.match(fileReg)[1]);
         } else {
-            return $.discordAPI.sendMessage(channel, message);
+            $.discordAPI.sendMessageAsync(channel, message);
         }
     }
 
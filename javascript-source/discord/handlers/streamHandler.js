@@ -71,7 +71,12 @@
             // Delete live messages if any.
             if (deleteMessageToggle && liveMessages.length > 0) {
                 while (liveMessages.length > 0) {
-                    $.discordAPI.deleteMessage(liveMessages.shift());
+                    var message = liveMessages.shift();
+
+                    // A failed send leaves null behind.
+                    if (message != null) {
+                        $.discordAPI.deleteMessage(message);
+                    }
                 }
             }
 
@@ -133,7 +138,7 @@
 
                 // Only say this when there is a mention.
                 if (s.indexOf('@') !== -1) {
-                    msg = $.discord.say(channelName, s);
+                    msg = $.discordAPI.sendMessage(channelName, s);
                     if (deleteMessageToggle) {
                         offlineMessages.push(msg)
                     }
@@ -187,7 +192,7 @@
 
                     // Only say this when there is a mention.
                     if (s.indexOf('@') !== -1) {
-                        msg = $.discord.say(channelName, s);
+                        msg = $.discordAPI.sendMessage(channelName, s);
                         if(deleteMessageToggle) {
                             liveMessages.push(msg);
                         }
@@ -234,7 +239,7 @@
 
         // Only say this when there is a mention.
         if (s.indexOf('@') !== -1) {
-            liveMessages.push($.discord.say(channelName, s));
+            liveMessages.push($.discordAPI.sendMessage(channelName, s));
         }
         liveMessages.push($.discordAPI.sendMessageEmbed(channelName, new Packages.tv.phantombot.discord.util.EmbedBuilder()
             .withColor(100, 65, 164)
@@ -16,7 +16,8 @@
  */
 
 (function() {
-    var keywords = [];
+    var keywords = {},
+        keywordMatcher = new Packages.tv.phantombot.scripts.core.PhraseMatcher();
 
     /*
      * @function loadKeywords
@@ -25,21 +26,19 @@
         var keys = $.inidb.GetKeyList('keywords', ''),
             i;
 
-        keywords = [];
+        keywords = {};
+        keywordMatcher.clear();
 
         for (i = 0; i < keys.length; i++) {
             var json = JSON.parse($.inidb.get('keywords', keys[i]));
 
-            if (json.isRegex) {
-                try {
-                    json.regexKey = new RegExp(json.keyword, json.isCaseSensitive ? '' : 'i');
-                } catch (ex) {
-                    $.log.error('Bad regex detected in keyword [' + keys[i] + ']: ' + ex.message);
-                    continue;
-                }
+            // Keywords with a space match anywhere in the message, others only match a whole word.
+            if (!keywordMatcher.add(keys[i], json.keyword, json.isRegex, json.isCaseSensitive, json.keyword.includes(' ') ? 'substring' : 'token')) {
+                $.log.error((json.isRegex ? 'Bad regex' : 'Empty keyword') + ' detected in keyword [' + keys[i] + ']');
+                continue;
             }
 
-            keywords.push(json);
+            keywords[keys[i]] = json;
         }
     }
 
@@ -65,8 +64,7 @@
 
         var message = event.getMessage(),
             sender = event.getSender(),
-            messagePartsLower = message.toLowerCase().split(' '),
-            messageParts = message.split(' '),
+            hits,
             json;
 
         // Don't say the keyword if someone tries to remove it.
@@ -74,29 +72,14 @@
             return;
         }
 
-        for (var i = 0; i < keywords.length; i++) {
-            json = keywords[i];
+        hits = keywordMatcher.match(message);
+
+        for (var i = 0; i < hits.length; i++) {
+            json = keywords[hits[i]];
+            executeKeyword(json, event);
 
             if (json.isRegex) {
-                if (json.regexKey.test(message)) {
-                    executeKeyword(json, event);
-                    break;
-                }
-            } else {
-                var str = '',
-                  caseAdjustedMessageParts = messageParts;
-                if (!json.isCaseSensitive) {
-                    caseAdjustedMessageParts = messagePartsLower;
-                }
-                for (var idx = 0; idx < caseAdjustedMessageParts.length; idx++) {
-                    // Create a string to match on the keyword.
-                    str += (caseAdjustedMessageParts[idx] + ' ');
-                    // Either match on the exact word or phrase if it contains it.
-                    if ((json.keyword.includes(' ') && str.includes(json.keyword)) || (caseAdjustedMessageParts[idx] + '') === (json.keyword + '')) {
-                        executeKeyword(json, event);
-                        break;
-                    }
-                }
+                break;
             }
         }
     });
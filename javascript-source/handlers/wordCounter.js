@@ -16,6 +16,21 @@
  */
 
 (function() {
+    var wordMatcher = new Packages.tv.phantombot.scripts.core.PhraseMatcher();
+
+    /**
+     * @function loadWords
+     */
+    function loadWords() {
+        var keys = $.inidb.GetKeyList('wordCounter', ''),
+            i;
+
+        wordMatcher.clear();
+
+        for (i = 0; i < keys.length; i++) {
+            wordMatcher.add(keys[i].toLowerCase(), keys[i], false, false, 'word');
+        }
+    }
 
     /**
      * @event command
@@ -47,6 +62,7 @@
 
                 subAction = subAction.replace(action, '').toLowerCase();
                 $.inidb.set('wordCounter', subAction, 0);
+                wordMatcher.add(subAction, subAction, false, false, 'word');
                 $.say(subAction + $.lang.get('wordcounter.added'));
                 $.log.event(sender + ' added "' + subAction + '" to the word counter list');
             }
@@ -65,6 +81,7 @@
 
                 subAction = subAction.replace(action, '').toLowerCase();
                 $.inidb.del('wordCounter', subAction);
+                wordMatcher.remove(subAction);
                 $.say(subAction + $.lang.get('wordcounter.removed'));
                 $.log.event(sender + ' removed "' + subAction + '" from the word counter list');
             }
@@ -88,19 +105,13 @@
      * @event ircChannelMessage
      */
     $.bind('ircChannelMessage', function(event) {
-        var message = event.getMessage().toLowerCase(),
-            keys = $.inidb.GetKeyList('wordCounter', ''),
-            word,
-            key;
+        var key;
 
         if ($.bot.isModuleEnabled('./handlers/wordCounter.js')) {
-            for (i in keys) {
-                key = keys[i].toLowerCase();
-                word = new RegExp('\\b' + key + '\\b', 'ig');
-                if (word.exec(message)) {
-                    $.inidb.incr('wordCounter', key, 1);
-                    break;
-                }
+            key = wordMatcher.first(event.getMessage());
+
+            if (key !== null) {
+                $.inidb.incr('wordCounter', key, 1);
             }
         }
     });
@@ -109,6 +120,7 @@
      * @event initReady
      */
     $.bind('initReady', function() {
+        loadWords();
         $.registerChatCommand('./handlers/wordCounter.js', 'wordcounter', 1);
         $.registerChatCommand('./handlers/wordCounter.js', 'count', 7);
     });
@@ -151,9 +151,9 @@
      */
     function runPointsPayout() {
         var now = $.systemTime(),
-            normalPayoutUsers = [], // users that get the normal online payout, nothing custom.
+            activeUsers = [],
+            penaltyUsers = [],
             isOnline = false,
-            username,
             amount,
             i;
 
@@ -175,69 +175,24 @@
             }
         }
 
-        
-        for (i in $.users) {
-            username = $.users[i].toLowerCase();
-            if (isOnline) {
-                if ($.isMod(username) && $.isSub(username) || $.isAdmin(username) && $.isSub(username)) {
-                    if (parseInt($.inidb.get('grouppoints', 'Subscriber')) > 0) {
-                        amount = parseInt($.inidb.get('grouppoints', 'Subscriber'));
-                    } else {
-                        amount = onlineGain;
-                    }
-                } else {
-                    if ($.inidb.exists('grouppoints', $.getUserGroupName(username))) {
-                        amount = (parseInt($.inidb.get('grouppoints', $.getUserGroupName(username))) < 0 ? onlineGain : parseInt($.inidb.get('grouppoints', $.getUserGroupName(username))));
-                    }
-                }
-            } else {
-                if ($.isMod(username) && $.isSub(username) || $.isAdmin(username) && $.isSub(username)) {
-                    if (parseInt($.inidb.get('grouppointsoffline', 'Subscriber')) > 0) {
-                        amount = parseInt($.inidb.get('grouppointsoffline', 'Subscriber'));
-                    } else {
-                        amount = offlineGain;
-                    }
-                } else {
-                    if ($.inidb.exists('grouppointsoffline', $.getUserGroupName(username))) {
-                        amount = (parseInt($.inidb.get('grouppointsoffline', $.getUserGroupName(username))) < 0 ? offlineGain : parseInt($.inidb.get('grouppointsoffline', $.getUserGroupName(username))));
-                    }
-                }
-            }
-
-            if (userCache[username] !== undefined) {
-                if (userCache[username] - lastPayout > 0) {
-                    delete userCache[username];
-                    amount += activeBonus;
-                } else {
-                    delete userCache[username];
-                }
-            }
-
-            if (getUserPenalty(username)) {
-                for (i in penaltys) {
-                    var time = penaltys[i].time - now;
-                    if (time <= 0) {
-                        penaltys.splice(i, 1);
-                    }
-                }
-            }
-
-            if (pointsBonus) {
-                amount = (amount + pointsBonusAmount);
+        for (i in userCache) {
+            if (userCache[i] - lastPayout > 0) {
+                activeUsers.push(i);
             }
+        }
+        userCache = {};
 
-            if (!getUserPenalty(username)) {
-                if (amount == onlineGain || amount == offlineGain) {
-                    normalPayoutUsers.push(username);
-                } else {
-                    $.inidb.incr('points', username, amount);
-                }
+        for (i = penaltys.length - 1; i >= 0; i--) {
+            if (penaltys[i].time - now <= 0) {
+                penaltys.splice(i, 1);
+            } else {
+                penaltyUsers.push(penaltys[i].user);
             }
         }
-        
 
-        // Update points for all users with the same amount of online/offline gain.
-        $.inidb.IncreaseBatchString('points', '', normalPayoutUsers, (isOnline ? onlineGain : offlineGain));
+        // Every user's amount is worked out in Java and written in one transaction.
+        Packages.tv.phantombot.scripts.core.PayoutEngine.instance().payPoints((isOnline ? 'grouppoints' : 'grouppointsoffline'), amount,
+                activeUsers, activeBonus, (pointsBonus ? pointsBonusAmount : 0), penaltyUsers);
 
         lastPayout = now;
     };
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001;
+
+import com.gmt2001.HttpRequest.RequestType;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared HTTP client for all of the API classes.
+ *
+ * Connections are kept alive and reused, HTTP/2 is used when the server supports it, and every request has a connect, read and total
+ * timeout. Requests to a host, or to a path prefix of it, can go through a {@link RateLimiter}, and the latency and errors of every endpoint
+ * are counted. Nothing here blocks the caller unless it asks for it with {@link CompletableFuture#join()}.
+ */
+public final class AsyncHttpClient {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration TOTAL_TIMEOUT = Duration.ofSeconds(30);
+    private static final String USER_AGENT = "PhantomBotJ/2020";
+    // Headers that the client sets itself and refuses to take from the caller.
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "date", "expect", "from", "host", "upgrade", "via", "warning");
+    private static final AsyncHttpClient INSTANCE = new AsyncHttpClient();
+    private final HttpClient client;
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * The order in which requests that wait on a {@link RateLimiter} are sent.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    /**
+     * Limits how fast requests are sent to one host or path prefix.
+     */
+    public interface RateLimiter {
+
+        /**
+         * Called before a request is sent.
+         *
+         * @param priority The priority the caller gave the request
+         * @return A future that completes when the request may be sent, or completes exceptionally if the request should not be sent
+         */
+        CompletableFuture<Void> acquire(Priority priority);
+
+        /**
+         * Called with every response, so the limiter can follow the limits the host reports.
+         *
+         * @param response
+         */
+        default void update(HttpResponse response) {
+        }
+    }
+
+    /**
+     * Method that returns this instance.
+     *
+     * @return
+     */
+    public static AsyncHttpClient instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Class constructor.
+     */
+    private AsyncHttpClient() {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * Method that sets the rate limiter used for all requests to a host, or only to the paths under a prefix of it.
+     *
+     * @param hostAndPath The host name with an optional path prefix, eg. api.twitch.tv/helix
+     * @param rateLimiter The limiter, or null to remove it
+     */
+    public void setRateLimiter(String hostAndPath, RateLimiter rateLimiter) {
+        if (rateLimiter == null) {
+            this.rateLimiters.remove(hostAndPath.toLowerCase());
+        } else {
+            this.rateLimiters.put(hostAndPath.toLowerCase(), rateLimiter);
+        }
+    }
+
+    /**
+     * Method that finds the rate limiter for a URI, preferring the one with the longest matching prefix.
+     *
+     * @param uri
+     * @return The limiter, or null if there is none
+     */
+    private RateLimiter rateLimiter(URI uri) {
+        if (this.rateLimiters.isEmpty() || uri.getHost() == null) {
+            return null;
+        }
+
+        String target = uri.getHost().toLowerCase() + (uri.getPath() == null ? "" : uri.getPath());
+        RateLimiter found = null;
+        int foundLength = -1;
+
+        for (Map.Entry<String, RateLimiter> e : this.rateLimiters.entrySet()) {
+            String key = e.getKey();
+
+            if (key.length() > foundLength && target.startsWith(key)
+                    && (target.length() == key.length() || key.endsWith("/") || target.charAt(key.length()) == '/')) {
+                found = e.getValue();
+                foundLength = key.length();
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Method that sends a request.
+     *
+     * @param type The request method
+     * @param url The full URL, user info in the URL is sent as basic authorization
+     * @param post The body to send, or an empty string
+     * @param headers The headers to send
+     * @return A future that always completes normally, errors are reported in the {@link HttpResponse}
+     */
+    public CompletableFuture<HttpResponse> request(RequestType type, String url, String post, Map<String, String> headers) {
+        return this.request(type, url, post, headers, TOTAL_TIMEOUT, Priority.NORMAL);
+    }
+
+    /**
+     * Method that sends a request.
+     *
+     * @param type The request method
+     * @param url The full URL, user info in the URL is sent as basic authorization
+     * @param post The body to send, or an empty string
+     * @param headers The headers to send
+     * @param priority The order in which the request is sent if it has to wait on a rate limiter
+     * @return A future that always completes normally, errors are reported in the {@link HttpResponse}
+     */
+    public CompletableFuture<HttpResponse> request(RequestType type, String url, String post, Map<String, String> headers, Priority priority) {
+        return this.request(type, url, post, headers, TOTAL_TIMEOUT, priority);
+    }
+
+    /**
+     * Method that sends a request.
+     *
+     * @param type The request method
+     * @param url The full URL, user info in the URL is sent as basic authorization
+     * @param post The body to send, or an empty string
+     * @param headers The headers to send
+     * @param timeout How long the request may take once it was sent, not counting the time spent waiting on the rate limiter
+     * @param priority The order in which the request is sent if it has to wait on a rate limiter
+     * @return A future that always completes normally, errors are reported in the {@link HttpResponse}
+     */
+    public CompletableFuture<HttpResponse> request(RequestType type, String url, String post, Map<String, String> headers, Duration timeout,
+            Priority priority) {
+        HttpResponse response = new HttpResponse();
+        response.type = type;
+        response.url = url;
+        response.post = post == null ? "" : post;
+        response.headers = headers == null ? new HashMap<>() : new HashMap<>(headers);
+
+        java.net.http.HttpRequest request;
+        URI uri;
+
+        try {
+            uri = new URI(url);
+            request = this.buildRequest(type, uri, response.post, response.headers);
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            fail(response, ex);
+            this.stats("INVALID").record(0, true);
+            return CompletableFuture.completedFuture(response);
+        }
+
+        RateLimiter rateLimiter = this.rateLimiter(uri);
+        CompletableFuture<Void> permit = rateLimiter == null ? CompletableFuture.completedFuture(null) : rateLimiter.acquire(priority);
+        EndpointStats endpoint = this.stats(type.name() + " " + endpoint(uri));
+        AtomicLong start = new AtomicLong();
+
+        return permit.thenCompose(v -> {
+            start.set(System.nanoTime());
+            return this.client.sendAsync(request, java.net.http.HttpResponse.BodyHandlers.ofString()).orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }).handle((httpResponse, ex) -> {
+            if (ex != null && start.get() == 0) {
+                // Never sent, the rate limiter gave up on it. Not reported as a SocketTimeoutException so callers don't back off the host.
+                response.success = false;
+                response.httpCode = 0;
+                response.exceptionType = "TimeoutException";
+                response.exception = "Timed out waiting for the rate limit";
+                com.gmt2001.Console.debug.println("HTTP request not sent: " + response.type + " " + response.url + " " + response.exception);
+                return response;
+            } else if (ex != null) {
+                fail(response, ex);
+            } else {
+                response.httpCode = httpResponse.statusCode();
+                response.content = httpResponse.body();
+                response.success = response.httpCode < 400;
+                response.responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                httpResponse.headers().map().forEach((k, v) -> {
+                    if (!v.isEmpty()) {
+                        response.responseHeaders.put(k, v.get(0));
+                    }
+                });
+            }
+
+            endpoint.record(System.nanoTime() - start.get(), !response.success);
+
+            if (rateLimiter != null) {
+                try {
+                    rateLimiter.update(response);
+                } catch (Exception ex2) {
+                    com.gmt2001.Console.err.printStackTrace(ex2);
+                }
+            }
+
+            return response;
+        });
+    }
+
+    /**
+     * Method that sends a request and waits for the response on the calling thread.
+     *
+     * @param type The request method
+     * @param url The full URL, user info in the URL is sent as basic authorization
+     * @param post The body to send, or an empty string
+     * @param headers The headers to send
+     * @return
+     */
+    public HttpResponse requestSync(RequestType type, String url, String post, Map<String, String> headers) {
+        try {
+            return this.request(type, url, post, headers).get();
+        } catch (InterruptedException | ExecutionException ex) {
+            HttpResponse response = new HttpResponse();
+            response.type = type;
+            response.url = url;
+            response.post = post;
+            fail(response, ex);
+            return response;
+        }
+    }
+
+    private java.net.http.HttpRequest buildRequest(RequestType type, URI uri, String post, Map<String, String> headers) throws URISyntaxException {
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder().timeout(READ_TIMEOUT);
+
+        if (uri.getUserInfo() != null) {
+            builder.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(uri.getUserInfo().getBytes(StandardCharsets.UTF_8)));
+            uri = new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment());
+        }
+
+        builder.uri(uri).header("User-Agent", USER_AGENT);
+
+        headers.forEach((k, v) -> {
+            if (!RESTRICTED_HEADERS.contains(k.toLowerCase())) {
+                builder.setHeader(k, v);
+            }
+        });
+
+        builder.method(type.name(), post.isEmpty() ? java.net.http.HttpRequest.BodyPublishers.noBody()
+                : java.net.http.HttpRequest.BodyPublishers.ofString(post, StandardCharsets.UTF_8));
+
+        return builder.build();
+    }
+
+    private static void fail(HttpResponse response, Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+
+        response.success = false;
+        response.httpCode = 0;
+        // Callers back off on these names, which are the ones HttpURLConnection used to throw.
+        if (ex instanceof HttpTimeoutException || ex instanceof SocketTimeoutException || ex instanceof TimeoutException) {
+            response.exceptionType = "SocketTimeoutException";
+        } else if (ex instanceof IOException) {
+            response.exceptionType = "IOException";
+        } else {
+            response.exceptionType = ex.getClass().getSimpleName();
+        }
+        response.exception = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+        com.gmt2001.Console.debug.println("HTTP request failed [" + response.exceptionType + "]: " + response.type + " " + response.url + " " + response.exception);
+    }
+
+    /**
+     * Method that turns a URI into the name the metrics are kept under, which is the host and path with the query removed and any id in
+     * the path replaced.
+     *
+     * @param uri
+     * @return
+     */
+    private static String endpoint(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath().replaceAll("/[0-9]+(?=/|$)", "/:id");
+        return uri.getHost() + path;
+    }
+
+    private EndpointStats stats(String endpoint) {
+        return this.stats.computeIfAbsent(endpoint, k -> new EndpointStats());
+    }
+
+    /**
+     * Method that returns the request count, errors and latency of the busiest endpoints.
+     *
+     * @return
+     */
+    public String getStats() {
+        List<Map.Entry<String, EndpointStats>> entries = new ArrayList<>(this.stats.entrySet());
+        StringBuilder sb = new StringBuilder();
+
+        entries.sort((a, b) -> Long.compare(b.getValue().requests.sum(), a.getValue().requests.sum()));
+
+        for (Map.Entry<String, EndpointStats> e : entries.subList(0, Math.min(25, entries.size()))) {
+            EndpointStats s = e.getValue();
+            long requests = s.requests.sum();
+
+            sb.append(e.getKey()).append(": requests=").append(requests).append(" errors=").append(s.errors.sum())
+                    .append(" avg=").append(requests == 0 ? 0 : s.totalNanos.sum() / requests / 1000000L).append("ms")
+                    .append(" max=").append(s.maxNanos.get() / 1000000L).append("ms\n");
+        }
+
+        return sb.length() == 0 ? "No HTTP requests yet" : sb.toString().trim();
+    }
+
+    private static final class EndpointStats {
+
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean isError) {
+            this.requests.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulateAndGet(nanos, Math::max);
+
+            if (isError) {
+                this.errors.increment();
+            }
+        }
+    }
+}
@@ -16,19 +16,45 @@
  */
 package com.gmt2001.Console;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.TimeZone;
 import tv.phantombot.PhantomBot;
 
 public final class logTimestamp {
 
+    /**
+     * The formatter for the current log time zone, rebuilt only when the time zone setting changes
+     */
+    private static volatile CachedFormatter formatter = new CachedFormatter("GMT");
+
     private logTimestamp() {
     }
 
     public static String log() {
-        SimpleDateFormat datefmt = new SimpleDateFormat("MM-dd-yyyy @ HH:mm:ss.SSS z");
-        datefmt.setTimeZone(TimeZone.getTimeZone(PhantomBot.getTimeZone()));
-        return datefmt.format(new Date());
+        CachedFormatter f = formatter;
+        String timeZone = PhantomBot.getTimeZone();
+
+        if (!f.timeZone.equals(timeZone)) {
+            f = new CachedFormatter(timeZone);
+            formatter = f;
+        }
+
+        return f.formatter.format(ZonedDateTime.now(f.zone));
+    }
+
+    private static final class CachedFormatter {
+
+        private final String timeZone;
+        private final ZoneId zone;
+        private final DateTimeFormatter formatter;
+
+        private CachedFormatter(String timeZone) {
+            this.timeZone = timeZone;
+            // TimeZone falls back to GMT for unknown ids, like the SimpleDateFormat this replaces did.
+            this.zone = TimeZone.getTimeZone(timeZone).toZoneId();
+            this.formatter = DateTimeFormatter.ofPattern("MM-dd-yyyy @ HH:mm:ss.SSS z");
+        }
     }
 }
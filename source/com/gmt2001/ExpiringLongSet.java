@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001;
+
+import java.util.Arrays;
+
+/**
+ * A set of {@code long} values that forgets each value after a fixed window
+ *
+ * Values are stored without boxing in a ring of open addressing hash sets, one per time slice of the window. Adding and looking up a value are
+ * O(1). Expiry happens a whole slice at a time when the ring comes back around, so no per-value timers are needed
+ *
+ * A value is kept for at least the window, and at most the window plus one slice
+ */
+public final class ExpiringLongSet {
+
+    private static final int MIN_CAPACITY = 16;
+    private final long sliceMillis;
+    private final Slice[] slices;
+
+    /**
+     * Constructor
+     *
+     * @param windowMillis How long a value is remembered, in milliseconds
+     * @param slices The number of time slices the window is divided into. More slices expire values closer to the window, at the cost of more
+     * lookups
+     */
+    public ExpiringLongSet(long windowMillis, int slices) {
+        int n = Math.max(1, slices);
+        this.sliceMillis = Math.max(1L, (windowMillis + n - 1) / n);
+        this.slices = new Slice[n + 1];
+
+        for (int i = 0; i < this.slices.length; i++) {
+            this.slices[i] = new Slice();
+        }
+    }
+
+    /**
+     * Adds a value, unless it was already added within the window
+     *
+     * @param value The value
+     * @return {@code true} if the value was added; {@code false} if it was already present
+     */
+    public synchronized boolean add(long value) {
+        long epoch = this.currentEpoch();
+
+        if (this.contains(value, epoch)) {
+            return false;
+        }
+
+        this.slice(epoch).add(value);
+        return true;
+    }
+
+    /**
+     * Checks if a value was added within the window
+     *
+     * @param value The value
+     * @return {@code true} if the value is present
+     */
+    public synchronized boolean contains(long value) {
+        return this.contains(value, this.currentEpoch());
+    }
+
+    /**
+     * Returns the number of values currently remembered
+     *
+     * @return The number of values
+     */
+    public synchronized int size() {
+        long epoch = this.currentEpoch();
+        int size = 0;
+
+        for (Slice s : this.slices) {
+            if (this.isLive(s, epoch)) {
+                size += s.size;
+            }
+        }
+
+        return size;
+    }
+
+    private long currentEpoch() {
+        return System.currentTimeMillis() / this.sliceMillis;
+    }
+
+    private boolean isLive(Slice s, long epoch) {
+        return s.epoch <= epoch && s.epoch > epoch - this.slices.length;
+    }
+
+    private boolean contains(long value, long epoch) {
+        for (Slice s : this.slices) {
+            if (s.size > 0 && this.isLive(s, epoch) && s.contains(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the slice for the current epoch, clearing it first if it still holds an older epoch
+     */
+    private Slice slice(long epoch) {
+        Slice s = this.slices[(int) Math.floorMod(epoch, (long) this.slices.length)];
+
+        if (s.epoch != epoch) {
+            s.clear();
+            s.epoch = epoch;
+        }
+
+        return s;
+    }
+
+    /**
+     * An open addressing hash set of {@code long}, using {@code 0} as the empty marker
+     */
+    private static final class Slice {
+
+        private long epoch = Long.MIN_VALUE;
+        private long[] table = new long[MIN_CAPACITY];
+        private boolean hasZero = false;
+        private int size = 0;
+
+        private static int hash(long value) {
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            return (int) value;
+        }
+
+        private boolean contains(long value) {
+            if (value == 0L) {
+                return this.hasZero;
+            }
+
+            int mask = this.table.length - 1;
+
+            for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+                long v = this.table[i];
+
+                if (v == value) {
+                    return true;
+                } else if (v == 0L) {
+                    return false;
+                }
+            }
+        }
+
+        private void add(long value) {
+            if (value == 0L) {
+                if (!this.hasZero) {
+                    this.hasZero = true;
+                    this.size++;
+                }
+
+                return;
+            }
+
+            if ((this.size + 1) * 2 > this.table.length) {
+                this.rehash(this.table.length * 2);
+            }
+
+            if (insert(this.table, value)) {
+                this.size++;
+            }
+        }
+
+        private static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+
+            for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+                long v = table[i];
+
+                if (v == value) {
+                    return false;
+                } else if (v == 0L) {
+                    table[i] = value;
+                    return true;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] newTable = new long[capacity];
+
+            for (long v : this.table) {
+                if (v != 0L) {
+                    insert(newTable, v);
+                }
+            }
+
+            this.table = newTable;
+        }
+
+        /**
+         * Empties the slice, giving back memory if a burst had grown it far past what it last held
+         */
+        private void clear() {
+            if (this.table.length > MIN_CAPACITY && this.size * 8 < this.table.length) {
+                this.table = new long[Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, this.size * 4 - 1)) << 1)];
+            } else if (this.size > 0) {
+                Arrays.fill(this.table, 0L);
+            }
+
+            this.hasZero = false;
+            this.size = 0;
+        }
+    }
+}
@@ -16,14 +16,8 @@
  */
 package com.gmt2001;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -31,7 +25,7 @@ import org.apache.commons.io.IOUtils;
  */
 public class HttpRequest {
 
-    private static final int TIMEOUT = 5 * 1000;
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2020";
 
     public static enum RequestType {
 
@@ -45,63 +39,21 @@ public class HttpRequest {
     public static HttpResponse getData(RequestType type, String url, String post, HashMap<String, String> headers) {
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
 
-        HttpResponse r = new HttpResponse();
-
-        r.type = type;
-        r.url = url;
-        r.post = post;
-        r.headers = headers;
-
-        try {
-            URL u = new URL(url);
-
-            HttpURLConnection h = (HttpURLConnection) u.openConnection();
-
-            if (u.getUserInfo() != null) {
-                String basicAuth = "Basic " + new String(new Base64().encode(u.getUserInfo().getBytes()));
-                h.setRequestProperty("Authorization", basicAuth);
-            }
-
-            headers.entrySet().stream().forEach((e) -> {
-                h.addRequestProperty(e.getKey(), e.getValue());
-            });
+        return getDataAsync(type, url, post, headers).join();
+    }
 
-            h.setRequestMethod(type.name());
-            h.setUseCaches(false);
-            h.setDefaultUseCaches(false);
-            h.setConnectTimeout(TIMEOUT);
-            h.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2020");
-            if (type == RequestType.POST || type == RequestType.PUT) {
-                h.setDoOutput(true);
-                h.setRequestProperty("Content-Length", "" + post.getBytes().length);
-            }
+    public static CompletableFuture<HttpResponse> getDataAsync(RequestType type, String url, String post, HashMap<String, String> headers) {
+        HashMap<String, String> h = new HashMap<>(headers);
+        h.putIfAbsent("User-Agent", USER_AGENT);
 
-            h.connect();
+        return AsyncHttpClient.instance().request(type, url, post, h).thenApply(r -> {
+            r.headers = headers;
 
-            if (type == RequestType.POST || type == RequestType.PUT) {
-                try (BufferedOutputStream stream = new BufferedOutputStream(h.getOutputStream())) {
-                    stream.write(post.getBytes());
-                    stream.flush();
-                }
+            if (r.httpCode == 0) {
+                com.gmt2001.Console.err.println("HttpRequest failed: " + r.url + " [" + r.exceptionType + "] " + r.exception);
             }
 
-            if (h.getResponseCode() < 400) {
-                r.content = IOUtils.toString(new BufferedInputStream(h.getInputStream()), h.getContentEncoding());
-                r.httpCode = h.getResponseCode();
-                r.success = true;
-            } else {
-                r.content = IOUtils.toString(new BufferedInputStream(h.getErrorStream()), h.getContentEncoding());
-                r.httpCode = h.getResponseCode();
-                r.success = false;
-            }
-        } catch (IOException ex) {
-            r.success = false;
-            r.httpCode = 0;
-            r.exception = ex.getMessage();
-
-            com.gmt2001.Console.err.printStackTrace(ex);
-        }
-
-        return r;
+            return r;
+        });
     }
 }
@@ -18,6 +18,7 @@ package com.gmt2001;
 
 import com.gmt2001.HttpRequest.RequestType;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -33,6 +34,8 @@ public class HttpResponse {
     public int httpCode;
     public boolean success;
     public String exception;
+    public String exceptionType;
+    public Map<String, String> responseHeaders;
 
     @Override
     public String toString() {
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets
+ *
+ * Recording is cheap enough to be done on every event. Percentiles are approximated by the upper bound of the bucket they fall in
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bucket {@code i} holds samples below {@code 2^i} microseconds, the last bucket holds everything else
+     */
+    private static final int BUCKETS = 32;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong(0L);
+
+    /**
+     * Constructor
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a sample
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0L, nanos / 1000L);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        this.buckets[bucket].increment();
+        this.count.increment();
+        this.totalNanos.add(Math.max(0L, nanos));
+        this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} timestamp
+     *
+     * @param startNanos The start timestamp
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the number of recorded samples
+     *
+     * @return The sample count
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * Returns an approximation of a percentile
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket containing the percentile, in milliseconds
+     */
+    public double percentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0L;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.buckets[i].sum();
+            total += snapshot[i];
+        }
+
+        if (total == 0L) {
+            return 0.0;
+        }
+
+        long target = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0L;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+
+            if (seen >= target) {
+                return Math.min((1L << i) / 1000.0, this.maxNanos.get() / 1e6);
+            }
+        }
+
+        return this.maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns a one line summary of the histogram
+     *
+     * @return The count, average, p50, p90, p99 and max
+     */
+    @Override
+    public String toString() {
+        long n = this.count.sum();
+
+        return String.format("n=%d avg=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", n, n == 0L ? 0.0 : this.totalNanos.sum() / (double) n / 1e6,
+                this.percentileMillis(50.0), this.percentileMillis(90.0), this.percentileMillis(99.0), this.maxNanos.get() / 1e6);
+    }
+}
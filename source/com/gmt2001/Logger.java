@@ -17,178 +17,300 @@
 package com.gmt2001;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 import tv.phantombot.PhantomBot;
 
+/**
+ * Writes the core log files.
+ *
+ * Callers only put the line in a bounded queue. A single thread takes everything that is queued at once, writes it to buffered file channels,
+ * and flushes when the queue runs empty, when a buffer fills up, or at least every {@link #FLUSH_INTERVAL_MS} under constant load. When the
+ * day changes, the files of the previous day are compressed in the background.
+ *
+ * @author gmt2001
+ */
 public class Logger implements Runnable {
 
     private static final Logger instance = new Logger();
-    private final ConcurrentLinkedQueue<LogItem> queue;
-    private boolean isRunning = false;
-    private boolean disposed = false;
-
-    private FileOutputStream fosCore = null;
-    private FileOutputStream fosError = null;
-    private FileOutputStream fosWarning = null;
-    private FileOutputStream fosDebug = null;
-    private FileOutputStream fosModeration = null;
-    private PrintStream psCore = null;
-    private PrintStream psError = null;
-    private PrintStream psWarning = null;
-    private PrintStream psDebug = null;
-    private PrintStream psModeration = null;
+    private static final int QUEUE_CAPACITY = 16384;
+    private static final int BATCH_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000L;
+    private static final long DAY_MS = 86400000L;
+    // How many days back uncompressed logs are picked up on start.
+    private static final int CATCHUP_DAYS = 7;
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("dd-MM-yyyy").withZone(ZoneOffset.UTC);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final LogItem STOP = new LogItem(null, null);
+    private final BlockingQueue<LogItem> queue;
+    private final Map<LogType, LogFile> files = new EnumMap<>(LogType.class);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "com.gmt2001.Logger::compressor");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean isRunning = false;
+    private volatile boolean disposed = false;
+    private long curLogDay = -1;
     private String curLogTimestamp = "";
+    private long lastFlush = 0;
 
     @Override
-    @SuppressWarnings("SleepWhileInLoop")
     public void run() {
-        this.isRunning = true;
-
-        if (!new File("./logs/").exists()) {
-            new File("./logs/").mkdirs();
-        }
-        if (!new File("./logs/core").exists()) {
-            new File("./logs/core/").mkdirs();
-        }
-        if (!new File("./logs/core-error").exists()) {
-            new File("./logs/core-error/").mkdirs();
-        }
-        if (!new File("./logs/core-warnings").exists()) {
-            new File("./logs/core-warnings/").mkdirs();
-        }
-        if (!new File("./logs/core-debug").exists()) {
-            new File("./logs/core-debug/").mkdirs();
-        }
-        if (!new File("./logs/moderation").exists()) {
-            new File("./logs/moderation/").mkdirs();
-        }
-
-        while (!disposed) {
-            if (!queue.isEmpty()) {
-
-                SimpleDateFormat datefmt = new SimpleDateFormat("dd-MM-yyyy");
-                datefmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-                String timestamp = datefmt.format(new Date());
-
-                // New date, close all open streams.  Java spec says that closing the PrintStream closes the
-                // underlying streams automatically (FileOutputStream).
-                if (!timestamp.equals(this.curLogTimestamp)) {
-                    if (this.psCore != null) {
-                        this.psCore.close();
-                        this.psCore = null;
-                    }
-                    if (psError != null) {
-                        this.psError.close();
-                        this.psError = null;
-                    }
-                    if (psWarning != null) {
-                        this.psWarning.close();
-                        this.psWarning = null;
-                    }
-                    if (this.psDebug != null) {
-                        this.psDebug.close();
-                        this.psDebug = null;
-                    }
-                    if (this.psModeration != null) {
-                        this.psModeration.close();
-                        this.psModeration = null;
-                    }
-                    this.curLogTimestamp = timestamp;
+        List<LogItem> batch = new ArrayList<>(BATCH_SIZE);
+
+        for (LogFile file : this.distinctFiles()) {
+            new File(file.directory).mkdirs();
+        }
+
+        this.rollDay(System.currentTimeMillis());
+        this.compressOldFiles();
+
+        while (true) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            this.queue.drainTo(batch, BATCH_SIZE - 1);
+
+            if (this.write(batch)) {
+                break;
+            }
+
+            batch.clear();
+
+            long now = System.currentTimeMillis();
+            if (this.queue.isEmpty() || now - this.lastFlush >= FLUSH_INTERVAL_MS) {
+                this.flushAll();
+                this.lastFlush = now;
+            }
+        }
+
+        this.flushAll();
+        this.closeAll();
+    }
+
+    /**
+     * Writes a batch of lines to the buffers.
+     *
+     * @return true if the batch contained the stop marker
+     */
+    private boolean write(List<LogItem> batch) {
+        this.rollDay(System.currentTimeMillis());
+
+        long lost = this.dropped.getAndSet(0);
+        if (lost > 0) {
+            this.files.get(LogType.Output).write("[" + logTimestamp() + "] [Logger] " + lost + " log lines were dropped because the log queue was full");
+        }
+
+        for (LogItem i : batch) {
+            if (i == STOP) {
+                return true;
+            }
+
+            this.files.get(i.t).write(i.s);
+        }
+
+        return false;
+    }
+
+    /**
+     * Switches to the files of a new day, if the day changed, and compresses those of the previous day.
+     */
+    private void rollDay(long now) {
+        long day = now / DAY_MS;
+
+        if (day == this.curLogDay) {
+            return;
+        }
+
+        String previous = this.curLogTimestamp;
+        this.flushAll();
+        this.closeAll();
+        this.curLogDay = day;
+        this.curLogTimestamp = FILE_DATE.format(Instant.ofEpochMilli(now));
+
+        if (!previous.isEmpty()) {
+            for (LogFile file : this.distinctFiles()) {
+                this.compress(new File(file.directory, previous + ".txt"));
+            }
+        }
+    }
+
+    /**
+     * Compresses the files of the last few days that were left uncompressed, for example because the bot was not running when the day changed.
+     *
+     * Older logs, such as the ones written before log compression existed, are left alone, so the first start after an upgrade does not
+     * compress years of logs at once.
+     */
+    private void compressOldFiles() {
+        for (LogFile file : this.distinctFiles()) {
+            for (int i = 1; i <= CATCHUP_DAYS; i++) {
+                File old = new File(file.directory, FILE_DATE.format(Instant.ofEpochMilli((this.curLogDay - i) * DAY_MS)) + ".txt");
+
+                if (old.isFile()) {
+                    this.compress(old);
                 }
+            }
+        }
+    }
 
-                try {
-                    if (!queue.isEmpty()) {
-                        LogItem i = queue.poll();
-
-                        if (i == null) {
-                            return;
-                        }
-
-                        switch (i.t) {
-                            case Output:
-                                if (this.psCore == null) {
-                                    this.fosCore = new FileOutputStream("./logs/core/" + timestamp + ".txt", true);
-                                    this.psCore = new PrintStream(this.fosCore);
-                                }
-                                this.psCore.println(i.s);
-                                this.psCore.flush();
-                                break;
-                            case Input:
-                                if (this.psCore == null) {
-                                    this.fosCore = new FileOutputStream("./logs/core/" + timestamp + ".txt", true);
-                                    this.psCore = new PrintStream(this.fosCore);
-                                }
-                                this.psCore.println(i.s);
-                                this.psCore.flush();
-                                break;
-                            case Error:
-                                if (this.psError == null) {
-                                    this.fosError = new FileOutputStream("./logs/core-error/" + timestamp + ".txt", true);
-                                    this.psError = new PrintStream(this.fosError);
-                                }
-                                this.psError.println(i.s);
-                                this.psError.flush();
-                                break;
-                            case Debug:
-                                if (this.psDebug == null) {
-                                    this.fosDebug = new FileOutputStream("./logs/core-debug/" + timestamp + ".txt", true);
-                                    this.psDebug = new PrintStream(this.fosDebug);
-                                }
-                                this.psDebug.println(i.s);
-                                this.psDebug.flush();
-                                break;
-                            case Warning:
-                                if (this.psWarning == null) {
-                                    this.fosWarning = new FileOutputStream("./logs/core-warnings/" + timestamp + ".txt", true);
-                                    this.psWarning = new PrintStream(this.fosWarning);
-                                }
-                                this.psWarning.println(i.s);
-                                this.psWarning.flush();
-                                break;
-                            case Moderation:
-                                if (this.psModeration == null) {
-                                    this.fosModeration = new FileOutputStream("./logs/moderation/" + timestamp + ".txt", true);
-                                    this.psModeration = new PrintStream(this.fosModeration);
-                                }
-                                this.psModeration.println(i.s);
-                                this.psModeration.flush();
-                                break;
-                            default:
-                                if (this.psCore == null) {
-                                    this.fosCore = new FileOutputStream("./logs/core/" + timestamp + ".txt", true);
-                                    this.psCore = new PrintStream(this.fosCore);
-                                }
-                                this.psCore.println(i.s);
-                                this.psCore.flush();
-                                break;
-                        }
-                    }
-                } catch (FileNotFoundException | SecurityException ex) {
+    private void compress(File source) {
+        try {
+            this.compressor.execute(() -> {
+                if (!source.isFile()) {
+                    return;
+                }
+
+                File target = new File(source.getPath() + ".gz");
+                File temp = new File(source.getPath() + ".gz.tmp");
+
+                try (InputStream in = new FileInputStream(source); OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), BUFFER_SIZE)) {
+                    in.transferTo(out);
+                } catch (IOException ex) {
                     ex.printStackTrace(System.err);
-                } catch (NullPointerException ex) {
-                    com.gmt2001.Console.err.println("Failed to log [NullPointerException]: " + ex.getMessage());
+                    temp.delete();
+                    return;
                 }
-            } else {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ex) {
-                    com.gmt2001.Console.debug.println("Failed to sleep while logging [InterruptedException]: " + ex.getMessage());
+
+                if (!target.exists() && temp.renameTo(target)) {
+                    source.delete();
+                } else {
+                    temp.delete();
                 }
-            }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException ex) {
+            // Shutting down, the file will be compressed on the next start.
+        }
+    }
+
+    private List<LogFile> distinctFiles() {
+        List<LogFile> distinct = new ArrayList<>();
+
+        this.files.values().stream().filter((file) -> (!distinct.contains(file))).forEachOrdered(distinct::add);
+
+        return distinct;
+    }
+
+    private void flushAll() {
+        for (LogFile file : this.distinctFiles()) {
+            file.flush();
+        }
+    }
+
+    private void closeAll() {
+        for (LogFile file : this.distinctFiles()) {
+            file.close();
         }
     }
 
     public void close() {
         this.disposed = true;
+
+        try {
+            this.queue.put(STOP);
+        } catch (InterruptedException ex) {
+            com.gmt2001.Console.debug.println("Failed to stop the logger [InterruptedException]: " + ex.getMessage());
+        }
+
+        this.compressor.shutdown();
     }
 
-    private class LogItem {
+    /**
+     * A log file of one type, buffered in memory until it is flushed.
+     */
+    private class LogFile {
+
+        private final String directory;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private FileChannel channel = null;
+        private String channelTimestamp = null;
+
+        private LogFile(String directory) {
+            this.directory = directory;
+        }
+
+        private void write(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+            if (this.buffer.remaining() < bytes.length + LINE_SEPARATOR.length) {
+                this.flush();
+            }
+
+            if (this.buffer.remaining() < bytes.length + LINE_SEPARATOR.length) {
+                this.writeFully(ByteBuffer.wrap(bytes));
+                this.writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+            } else {
+                this.buffer.put(bytes).put(LINE_SEPARATOR);
+            }
+        }
+
+        private void flush() {
+            if (this.buffer.position() > 0) {
+                this.buffer.flip();
+                this.writeFully(this.buffer);
+                this.buffer.clear();
+            }
+        }
+
+        private void writeFully(ByteBuffer data) {
+            try {
+                if (this.channel == null || !curLogTimestamp.equals(this.channelTimestamp)) {
+                    this.close();
+                    this.channel = FileChannel.open(Paths.get(this.directory, curLogTimestamp + ".txt"), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    this.channelTimestamp = curLogTimestamp;
+                }
+
+                while (data.hasRemaining()) {
+                    this.channel.write(data);
+                }
+            } catch (IOException | SecurityException ex) {
+                ex.printStackTrace(System.err);
+                data.position(data.limit());
+            }
+        }
+
+        private void close() {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace(System.err);
+                }
+
+                this.channel = null;
+            }
+        }
+    }
+
+    private static class LogItem {
 
         public LogType t;
         public String s;
@@ -210,26 +332,68 @@ public class Logger implements Runnable {
 
     public static Logger instance() {
         if (!instance.isRunning) {
-            (new Thread(instance, "com.gmt2001.Logger")).start();
+            synchronized (instance) {
+                if (!instance.isRunning) {
+                    instance.isRunning = true;
+                    (new Thread(instance, "com.gmt2001.Logger")).start();
+                }
+            }
         }
         return instance;
     }
 
     private Logger() {
-        this.queue = new ConcurrentLinkedQueue<LogItem>();
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        LogFile core = new LogFile("./logs/core");
+        this.files.put(LogType.Output, core);
+        this.files.put(LogType.Input, core);
+        this.files.put(LogType.Error, new LogFile("./logs/core-error"));
+        this.files.put(LogType.Debug, new LogFile("./logs/core-debug"));
+        this.files.put(LogType.Warning, new LogFile("./logs/core-warnings"));
+        this.files.put(LogType.Moderation, new LogFile("./logs/moderation"));
     }
 
+    /**
+     * Queues a line for the log file of the given type. When the queue is full the line is either dropped, or the caller waits for room,
+     * depending on the logqueuepolicy setting.
+     *
+     * @param t
+     * @param s
+     */
     public void log(LogType t, String s) {
-        try {
-            this.queue.add(new LogItem(t, s));
-        } catch (IllegalStateException ex) {
-            com.gmt2001.Console.err.println("Failed to add item to the log queue [IllegalStateException]: " + ex.getMessage());
+        if (this.disposed) {
+            return;
+        }
+
+        LogItem item = new LogItem(t == null ? LogType.Output : t, s);
+
+        if (this.queue.offer(item)) {
+            return;
+        }
+
+        if (PhantomBot.getLogQueueBlocks()) {
+            try {
+                this.queue.put(item);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                this.dropped.incrementAndGet();
+            }
+        } else {
+            this.dropped.incrementAndGet();
         }
     }
 
+    /**
+     * Gives the amount of lines that are waiting to be written.
+     *
+     * @return
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+
     public String logTimestamp() {
-        SimpleDateFormat datefmt = new SimpleDateFormat("MM-dd-yyyy @ HH:mm:ss.SSS z");
-        datefmt.setTimeZone(TimeZone.getTimeZone(PhantomBot.getTimeZone()));
-        return datefmt.format(new Date());
+        return com.gmt2001.Console.logTimestamp.log();
     }
 }
@@ -17,17 +17,12 @@
 package com.gmt2001;
 
 import com.gmt2001.datastore.DataStore;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import javax.net.ssl.HttpsURLConnection;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.CompletableFuture;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -45,7 +40,6 @@ public class TwitchAPIv5 {
     private static final TwitchAPIv5 instance = new TwitchAPIv5();
     private static final String base_url = "https://api.twitch.tv/kraken";
     private static final String header_accept = "application/vnd.twitchtv.v5+json";
-    private static final int timeout = 2 * 1000;
     private String clientid = "";
     private String oauth = "";
     private String cheerEmotes = "";
@@ -84,99 +78,47 @@ public class TwitchAPIv5 {
         jsonObject.put("_content", jsonContent);
     }
 
-    @SuppressWarnings("UseSpecificCatch")
     private JSONObject GetData(request_type type, String url, String post, String oauth, boolean isJson) throws JSONException {
-        JSONObject j = new JSONObject("{}");
-        InputStream i = null;
-        String content = "";
-
-        try {
-            URL u = new URL(url);
-            HttpsURLConnection c = (HttpsURLConnection) u.openConnection();
-            c.addRequestProperty("Accept", header_accept);
-            c.addRequestProperty("Content-Type", isJson ? "application/json" : "application/x-www-form-urlencoded");
-
-            if (!clientid.isEmpty()) {
-                c.addRequestProperty("Client-ID", clientid);
-            }
-
-            if (!oauth.isEmpty()) {
-                c.addRequestProperty("Authorization", "OAuth " + oauth);
-            } else {
-                if (!this.oauth.isEmpty()) {
-                    c.addRequestProperty("Authorization", "OAuth " + oauth);
-                }
-            }
-
-            c.setRequestMethod(type.name());
-            c.setConnectTimeout(timeout);
-            c.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2015");
-
-            if (!post.isEmpty()) {
-                c.setDoOutput(true);
-            }
-
-            c.connect();
+        return GetDataAsync(type, url, post, oauth, isJson).join();
+    }
 
-            if (!post.isEmpty()) {
-                try (BufferedOutputStream stream = new BufferedOutputStream(c.getOutputStream())) {
-                    stream.write(post.getBytes());
-                    stream.flush();
-                }
-            }
+    private CompletableFuture<JSONObject> GetDataAsync(request_type type, String url, String post, String oauth, boolean isJson) {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Accept", header_accept);
+        headers.put("Content-Type", isJson ? "application/json" : "application/x-www-form-urlencoded");
 
-            if (c.getResponseCode() == 200) {
-                i = c.getInputStream();
-            } else {
-                i = c.getErrorStream();
-            }
+        if (!clientid.isEmpty()) {
+            headers.put("Client-ID", clientid);
+        }
 
-            if (c.getResponseCode() == 204 || i == null) {
-                content = "{}";
-            } else {
-                // default to UTF-8, it'll probably be the best bet if there's
-                // no charset specified.
-                String charset = "utf-8";
-                String ct = c.getContentType();
-                if (ct != null) {
-                    String[] cts = ct.split(" *; *");
-                    for (int idx = 1; idx < cts.length; ++idx) {
-                        String[] val = cts[idx].split("=", 2);
-                        if (val[0] == "charset" && val.length > 1) {
-                            charset = val[1];
-                        }
-                    }
-                }
+        if (!oauth.isEmpty()) {
+            headers.put("Authorization", "OAuth " + oauth);
+        } else if (!this.oauth.isEmpty()) {
+            headers.put("Authorization", "OAuth " + this.oauth);
+        }
 
-                if ("gzip".equals(c.getContentEncoding())) {
-                    i = new GZIPInputStream(i);
-                }
+        headers.put("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2015");
 
-                content = IOUtils.toString(i, charset);
-            }
+        return AsyncHttpClient.instance().request(HttpRequest.RequestType.valueOf(type.name()), url, post, headers).thenApply(r -> {
+            JSONObject j = new JSONObject("{}");
+            String content = r.content == null || r.content.isEmpty() || r.httpCode == 204 ? "{}" : r.content;
 
-            j = new JSONObject(content);
-            fillJSONObject(j, true, type.name(), post, url, c.getResponseCode(), "", "", content);
-        } catch (Exception ex) {
-            Throwable rootCause = ex;
-            while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
-                rootCause = rootCause.getCause();
+            if (r.httpCode == 0) {
+                fillJSONObject(j, false, type.name(), post, url, 0, r.exceptionType, r.exception, "");
+                com.gmt2001.Console.debug.println("Failed to get data [" + r.exceptionType + "]: " + r.exception);
+                return j;
             }
 
-            fillJSONObject(j, false, type.name(), post, url, 0, ex.getClass().getSimpleName(), ex.getMessage(), content);
-            com.gmt2001.Console.debug.println("Failed to get data [" + ex.getClass().getSimpleName() + "]: " + ex.getMessage());
-        } finally {
-            if (i != null) {
-                try {
-                    i.close();
-                } catch (IOException ex) {
-                    fillJSONObject(j, false, type.name(), post, url, 0, "IOException", ex.getMessage(), content);
-                    com.gmt2001.Console.err.println("IOException: " + ex.getMessage());
-                }
+            try {
+                j = new JSONObject(content);
+                fillJSONObject(j, true, type.name(), post, url, r.httpCode, "", "", content);
+            } catch (JSONException ex) {
+                fillJSONObject(j, false, type.name(), post, url, 0, ex.getClass().getSimpleName(), ex.getMessage(), content);
+                com.gmt2001.Console.debug.println("Failed to get data [" + ex.getClass().getSimpleName() + "]: " + ex.getMessage());
             }
-        }
 
-        return j;
+            return j;
+        });
     }
 
     /**
@@ -16,22 +16,14 @@
  */
 package com.gmt2001;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.MalformedURLException;
-import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.net.ssl.HttpsURLConnection;
 import org.joda.time.Period;
 import org.joda.time.format.ISOPeriodFormat;
 import org.joda.time.format.PeriodFormatter;
@@ -67,18 +59,6 @@ public class YouTubeAPIv3 {
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
     }
 
-    /*
-     * Reads data from a stream.
-     */
-    private static String readAll(Reader rd) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        int cp;
-        while ((cp = rd.read()) != -1) {
-            sb.append((char) cp);
-        }
-        return sb.toString();
-    }
-
     /*
      * Populates additional information into a JSON object to be digested
      * as needed.
@@ -95,75 +75,40 @@ public class YouTubeAPIv3 {
         jsonObject.put("_content", jsonContent);
     }
 
-    @SuppressWarnings( {
-        "null", "SleepWhileInLoop", "UseSpecificCatch"
-    })
     private JSONObject GetData(request_type type, String urlAddress) throws JSONException {
         JSONObject jsonResult = new JSONObject("{}");
-        InputStream inputStream = null;
-        URL urlRaw;
-        HttpsURLConnection urlConn;
-        String jsonText = "";
-
-        try {
-            urlRaw = new URL(urlAddress);
-            urlConn = (HttpsURLConnection) urlRaw.openConnection();
-            urlConn.setDoInput(true);
-            urlConn.setRequestMethod("GET");
-            urlConn.addRequestProperty("Content-Type", "application/json");
-            urlConn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 " +
-                                       "(KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2015");
-            urlConn.connect();
-
-            if (urlConn.getResponseCode() == 200) {
-                inputStream = urlConn.getInputStream();
-            } else {
-                inputStream = urlConn.getErrorStream();
-            }
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 " +
+                                  "(KHTML, like Gecko) Chrome/44.0.2403.52 Safari/537.36 PhantomBotJ/2015");
 
-            BufferedReader rd = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
-            jsonText = readAll(rd);
-            jsonResult = new JSONObject(jsonText);
-            fillJSONObject(jsonResult, true, "GET", urlAddress, urlConn.getResponseCode(), "", "", jsonText);
-
-            /* If the JSON was properly parsed then we may have received back a proper error JSON payload from YouTube. */
-            if (jsonResult.has("error")) {
-                if (jsonResult.getJSONObject("error").has("errors")) {
-                    JSONArray jaerror = jsonResult.getJSONObject("error").getJSONArray("errors");
-                    if (jaerror.getJSONObject(0).has("reason") && jaerror.getJSONObject(0).has("domain")) {
-                        com.gmt2001.Console.err.println("YouTubeAPIv3 Error: [Domain] " + jaerror.getJSONObject(0).getString("domain") + 
-                                                        " [Reason] " + jaerror.getJSONObject(0).getString("reason"));
+        HttpResponse response = AsyncHttpClient.instance().request(HttpRequest.RequestType.GET, urlAddress, "", headers).join();
+        String jsonText = response.content == null ? "" : response.content;
+
+        if (response.httpCode == 0) {
+            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, response.exceptionType, response.exception, "");
+            com.gmt2001.Console.err.println("Exception: " + response.exception);
+        } else {
+            try {
+                jsonResult = new JSONObject(jsonText);
+                fillJSONObject(jsonResult, true, "GET", urlAddress, response.httpCode, "", "", jsonText);
+
+                /* If the JSON was properly parsed then we may have received back a proper error JSON payload from YouTube. */
+                if (jsonResult.has("error")) {
+                    if (jsonResult.getJSONObject("error").has("errors")) {
+                        JSONArray jaerror = jsonResult.getJSONObject("error").getJSONArray("errors");
+                        if (jaerror.getJSONObject(0).has("reason") && jaerror.getJSONObject(0).has("domain")) {
+                            com.gmt2001.Console.err.println("YouTubeAPIv3 Error: [Domain] " + jaerror.getJSONObject(0).getString("domain") + 
+                                                            " [Reason] " + jaerror.getJSONObject(0).getString("reason"));
+                        }
                     }
                 }
-            }
-        } catch (JSONException ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "JSONException", ex.getMessage(), jsonText);
-            if (!urlAddress.startsWith("https://www.youtube.com/oembed")) {
-                com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-            }
-        } catch (NullPointerException ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "NullPointerException", ex.getMessage(), "");
-            com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-        } catch (MalformedURLException ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "MalformedURLException", ex.getMessage(), "");
-            com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-        } catch (SocketTimeoutException ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "SocketTimeoutException", ex.getMessage(), "");
-            com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-        } catch (IOException ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "IOException", ex.getMessage(), "");
-            com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-        } catch (Exception ex) {
-            fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "Exception", ex.getMessage(), "");
-            com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
-        } finally {
-            if (inputStream != null)
-                try {
-                    inputStream.close();
-                } catch (IOException ex) {
-                    fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "IOException", ex.getMessage(), "");
+            } catch (JSONException ex) {
+                fillJSONObject(jsonResult, false, "GET", urlAddress, 0, "JSONException", ex.getMessage(), jsonText);
+                if (!urlAddress.startsWith("https://www.youtube.com/oembed")) {
                     com.gmt2001.Console.err.println("Exception: " + ex.getMessage());
                 }
+            }
         }
         com.gmt2001.Console.debug.logln(jsonResult.toString().replaceAll(apikey, "xxx"));
         return(jsonResult);
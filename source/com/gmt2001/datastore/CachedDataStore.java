@@ -0,0 +1,1046 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001.datastore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind, read-through cache in front of another {@link DataStore}.
+ *
+ * Only the tables passed in the configuration are cached, and only their default ("") section. A {@code null} section matches every section
+ * in the backing stores, so those calls go to the backing store like any other section, after the pending writes of the table are flushed.
+ * Anything that works on a whole table (key lists, ordered queries, searches, batch increments) flushes the pending writes of that table
+ * first and then goes to the backing store, so it always sees the latest data.
+ *
+ * A table holds at most as many pending writes as its size bound. When it has that many, or the last few flushes failed, writes to it go
+ * straight to the backing store until a flush catches up again, so the cache can not grow without bound while the database is unreachable.
+ */
+public class CachedDataStore extends DataStore {
+
+    /**
+     * Which entries are removed first when a table goes over its size bound.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Least recently read or written.
+         */
+        LRU,
+        /**
+         * Oldest loaded into the cache.
+         */
+        FIFO
+    }
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    // Failed flushes in a row after which writes go straight to the backing store.
+    private static final int MAX_FLUSH_FAILURES = 3;
+    // Times add and compareAndSet try to find the key cached before doing the write on the backing store instead.
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Object NO_TABLE = new Object();
+    private final DataStore backing;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, Object> resolvedTables = new ConcurrentHashMap<>();
+    private final Set<Table> dirtyTables = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong lastFlushLag = new AtomicLong();
+    private final AtomicLong maxFlushLag = new AtomicLong();
+    private volatile boolean disposed = false;
+
+    /**
+     * Class constructor.
+     *
+     * @param backing The store that actually holds the data
+     * @param tableConfig Comma separated list of {@code table[:policy[:maxEntries]]}, eg. {@code settings,points:lru:50000}
+     * @param flushInterval How often pending writes are flushed, in milliseconds
+     */
+    public CachedDataStore(DataStore backing, String tableConfig, long flushInterval) {
+        super("");
+
+        this.backing = backing;
+
+        for (String tableStr : tableConfig.split(",")) {
+            String[] spl = tableStr.trim().split(":");
+
+            if (spl[0].isBlank()) {
+                continue;
+            }
+
+            EvictionPolicy policy = EvictionPolicy.LRU;
+            int maxEntries = DEFAULT_MAX_ENTRIES;
+
+            try {
+                if (spl.length > 1) {
+                    policy = EvictionPolicy.valueOf(spl[1].trim().toUpperCase());
+                }
+
+                if (spl.length > 2) {
+                    maxEntries = Math.max(1, Integer.parseInt(spl[2].trim()));
+                }
+            } catch (IllegalArgumentException ex) {
+                com.gmt2001.Console.err.println("Invalid datastore cache setting for table " + spl[0] + ": " + tableStr);
+            }
+
+            tables.put(spl[0].trim().toLowerCase(), new Table(spl[0].trim(), policy, maxEntries));
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "com.gmt2001.datastore.CachedDataStore::flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushInterval, Math.max(10, flushInterval), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the store this cache is in front of.
+     *
+     * @return
+     */
+    public DataStore getBackingStore() {
+        return backing;
+    }
+
+    /**
+     * Cached value of one key. Immutable except for the access stamp, changes replace the entry in the table map.
+     */
+    private static final class Entry {
+
+        final String value;
+        final boolean dirty;
+        final long version;
+        final long dirtySince;
+        volatile long stamp;
+
+        Entry(String value, boolean dirty, long version, long dirtySince, long stamp) {
+            this.value = value;
+            this.dirty = dirty;
+            this.version = version;
+            this.dirtySince = dirtySince;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Cached contents and counters of one table.
+     */
+    private final class Table {
+
+        final String name;
+        final EvictionPolicy policy;
+        final int maxEntries;
+        final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        final AtomicLong generation = new AtomicLong();
+        final AtomicBoolean evicting = new AtomicBoolean(false);
+        final AtomicInteger dirtyCount = new AtomicInteger();
+        final AtomicInteger flushFailures = new AtomicInteger();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder flushes = new LongAdder();
+        final LongAdder flushedRows = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder directWrites = new LongAdder();
+
+        Table(String name, EvictionPolicy policy, int maxEntries) {
+            this.name = name;
+            this.policy = policy;
+            this.maxEntries = maxEntries;
+        }
+
+        String get(String key) {
+            Entry e = entries.get(key);
+
+            if (e != null) {
+                hits.increment();
+
+                if (policy == EvictionPolicy.LRU) {
+                    e.stamp = clock.incrementAndGet();
+                }
+
+                return e.value;
+            }
+
+            misses.increment();
+
+            long gen = generation.get();
+            String value = backing.GetString(name, "", key);
+
+            if (gen == generation.get()) {
+                Entry prev = entries.putIfAbsent(key, new Entry(value, false, 0, 0, clock.incrementAndGet()));
+
+                if (prev != null) {
+                    return prev.value;
+                }
+
+                evictIfNeeded();
+            }
+
+            return value;
+        }
+
+        String[] getAll(String[] keys) {
+            String[] out = new String[keys.length];
+            List<Integer> missing = new ArrayList<>();
+
+            for (int i = 0; i < keys.length; i++) {
+                Entry e = entries.get(keys[i]);
+
+                if (e != null) {
+                    hits.increment();
+                    out[i] = e.value;
+                } else {
+                    missing.add(i);
+                }
+            }
+
+            if (missing.isEmpty()) {
+                return out;
+            }
+
+            misses.add(missing.size());
+
+            String[] missingKeys = new String[missing.size()];
+
+            for (int i = 0; i < missingKeys.length; i++) {
+                missingKeys[i] = keys[missing.get(i)];
+            }
+
+            long gen = generation.get();
+            String[] values = backing.GetStrings(name, "", missingKeys);
+
+            for (int i = 0; i < missingKeys.length; i++) {
+                out[missing.get(i)] = values[i];
+
+                if (gen == generation.get()) {
+                    Entry prev = entries.putIfAbsent(missingKeys[i], new Entry(values[i], false, 0, 0, clock.incrementAndGet()));
+
+                    if (prev != null) {
+                        out[missing.get(i)] = prev.value;
+                    }
+                }
+            }
+
+            evictIfNeeded();
+
+            return out;
+        }
+
+        void put(String key, String value) {
+            if (isOverloaded()) {
+                direct(key, () -> {
+                    if (value == null) {
+                        backing.RemoveKey(name, "", key);
+                    } else {
+                        backing.SetString(name, "", key, value);
+                    }
+
+                    return null;
+                });
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            long stamp = clock.incrementAndGet();
+
+            entries.compute(key, (k, old) -> {
+                if (old == null || !old.dirty) {
+                    dirtyCount.incrementAndGet();
+                }
+
+                return new Entry(value, true, stamp, old != null && old.dirty ? old.dirtySince : now, stamp);
+            });
+            writes.increment();
+            dirtyTables.add(this);
+            evictIfNeeded();
+        }
+
+        long add(String key, long amount) {
+            long now = System.currentTimeMillis();
+            long stamp = clock.incrementAndGet();
+            long[] result = new long[1];
+            boolean[] done = new boolean[1];
+
+            // The current value is loaded outside of compute, the backing store can not be read while holding the bin lock
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && !done[0] && !isOverloaded(); attempt++) {
+                get(key);
+
+                entries.computeIfPresent(key, (k, old) -> {
+                    long current = 0;
+
+                    if (old.value != null) {
+                        try {
+                            current = Long.parseLong(old.value);
+                        } catch (NumberFormatException ex) {
+                            current = 0;
+                        }
+                    }
+
+                    result[0] = current + amount;
+                    done[0] = true;
+
+                    if (!old.dirty) {
+                        dirtyCount.incrementAndGet();
+                    }
+
+                    return new Entry(Long.toString(result[0]), true, stamp, old.dirty ? old.dirtySince : now, stamp);
+                });
+            }
+
+            if (!done[0]) {
+                return direct(key, () -> backing.increment(name, "", key, amount));
+            }
+
+            writes.increment();
+            dirtyTables.add(this);
+
+            return result[0];
+        }
+
+        boolean compareAndSet(String key, String expected, String newValue) {
+            long now = System.currentTimeMillis();
+            long stamp = clock.incrementAndGet();
+            boolean[] result = new boolean[1];
+            boolean[] done = new boolean[1];
+
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && !done[0] && !isOverloaded(); attempt++) {
+                get(key);
+
+                entries.computeIfPresent(key, (k, old) -> {
+                    done[0] = true;
+
+                    if (expected == null ? old.value != null : !expected.equals(old.value)) {
+                        return old;
+                    }
+
+                    result[0] = true;
+
+                    if (!old.dirty) {
+                        dirtyCount.incrementAndGet();
+                    }
+
+                    return new Entry(newValue, true, stamp, old.dirty ? old.dirtySince : now, stamp);
+                });
+            }
+
+            if (!done[0]) {
+                return direct(key, () -> backing.compareAndSet(name, "", key, expected, newValue));
+            }
+
+            if (result[0]) {
+                writes.increment();
+                dirtyTables.add(this);
+            }
+
+            return result[0];
+        }
+
+        void invalidate() {
+            generation.incrementAndGet();
+            entries.clear();
+            dirtyCount.set((int) entries.values().stream().filter((e) -> e.dirty).count());
+        }
+
+        void invalidate(String key) {
+            generation.incrementAndGet();
+            Entry old = entries.remove(key);
+
+            if (old != null && old.dirty) {
+                dirtyCount.decrementAndGet();
+            }
+        }
+
+        /**
+         * Checks if writes should skip the cache, because too many are pending or the backing store keeps failing.
+         *
+         * @return
+         */
+        boolean isOverloaded() {
+            return dirtyCount.get() >= maxEntries || flushFailures.get() >= MAX_FLUSH_FAILURES;
+        }
+
+        /**
+         * Runs a write on the backing store and drops the key from the cache. A pending value of the key is written first, and the table
+         * lock keeps a flush from writing an older value over the result.
+         *
+         * @param key
+         * @param write
+         * @return The result of {@code write}
+         */
+        <T> T direct(String key, Supplier<T> write) {
+            synchronized (this) {
+                Entry pending = entries.get(key);
+
+                if (pending != null && pending.dirty) {
+                    if (pending.value == null) {
+                        backing.RemoveKey(name, "", key);
+                    } else {
+                        backing.SetString(name, "", key, pending.value);
+                    }
+                }
+
+                T result = write.get();
+
+                generation.incrementAndGet();
+                entries.computeIfPresent(key, (k, cur) -> {
+                    if (cur == pending && cur.dirty) {
+                        dirtyCount.decrementAndGet();
+                        return null;
+                    }
+
+                    return cur.dirty ? cur : null;
+                });
+                writes.increment();
+                directWrites.increment();
+
+                return result;
+            }
+        }
+
+        void evictIfNeeded() {
+            if (entries.size() <= maxEntries || !evicting.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                List<Map.Entry<String, Entry>> clean = new ArrayList<>();
+                entries.entrySet().stream().filter((e) -> !e.getValue().dirty).forEach(clean::add);
+                clean.sort(Comparator.comparingLong((e) -> e.getValue().stamp));
+
+                int toRemove = entries.size() - (int) (maxEntries * 0.9);
+
+                for (int i = 0; i < clean.size() && toRemove > 0; i++, toRemove--) {
+                    if (entries.remove(clean.get(i).getKey(), clean.get(i).getValue())) {
+                        evictions.increment();
+                    }
+                }
+
+                if (toRemove > 0 && !flusher.isShutdown()) {
+                    flusher.execute(() -> flushTable(this));
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Method that finds the cache of a table, or returns null if the table is not cached.
+     *
+     * @param fName
+     * @return
+     */
+    private Table table(String fName) {
+        if (fName == null) {
+            return null;
+        }
+
+        Object t = resolvedTables.get(fName);
+
+        if (t == null) {
+            t = tables.get(fName.toLowerCase());
+
+            if (t == null) {
+                t = NO_TABLE;
+            }
+
+            resolvedTables.put(fName, t);
+        }
+
+        return t == NO_TABLE ? null : (Table) t;
+    }
+
+    /**
+     * Method that checks if a section is the cached default section.
+     *
+     * @param section
+     * @return
+     */
+    private static boolean isDefaultSection(String section) {
+        return section != null && section.isEmpty();
+    }
+
+    /**
+     * Method that writes all pending changes of one table to the backing store in one batch.
+     *
+     * @param t
+     */
+    private void flushTable(Table t) {
+        if (t == null) {
+            return;
+        }
+
+        synchronized (t) {
+            dirtyTables.remove(t);
+
+            List<String> setKeys = new ArrayList<>();
+            List<String> setValues = new ArrayList<>();
+            List<String> removeKeys = new ArrayList<>();
+            Map<String, Long> versions = new HashMap<>();
+            long oldest = Long.MAX_VALUE;
+
+            for (Map.Entry<String, Entry> kv : t.entries.entrySet()) {
+                Entry e = kv.getValue();
+
+                if (!e.dirty) {
+                    continue;
+                }
+
+                versions.put(kv.getKey(), e.version);
+                oldest = Math.min(oldest, e.dirtySince);
+
+                if (e.value == null) {
+                    removeKeys.add(kv.getKey());
+                } else {
+                    setKeys.add(kv.getKey());
+                    setValues.add(e.value);
+                }
+            }
+
+            if (versions.isEmpty()) {
+                return;
+            }
+
+            try {
+                if (!setKeys.isEmpty()) {
+                    backing.SetBatchString(t.name, "", setKeys.toArray(new String[setKeys.size()]), setValues.toArray(new String[setValues.size()]));
+                }
+
+                for (String key : removeKeys) {
+                    backing.RemoveKey(t.name, "", key);
+                }
+            } catch (Exception ex) {
+                com.gmt2001.Console.err.printStackTrace(ex);
+                t.flushFailures.incrementAndGet();
+                dirtyTables.add(t);
+                return;
+            }
+
+            t.flushFailures.set(0);
+            versions.forEach((key, version) -> t.entries.computeIfPresent(key, (k, cur) -> {
+                if (cur.dirty && cur.version == version) {
+                    t.dirtyCount.decrementAndGet();
+                    return new Entry(cur.value, false, cur.version, 0, cur.stamp);
+                }
+
+                return cur;
+            }));
+
+            long lag = System.currentTimeMillis() - oldest;
+            lastFlushLag.set(lag);
+            maxFlushLag.accumulateAndGet(lag, Math::max);
+            t.flushes.increment();
+            t.flushedRows.add(versions.size());
+        }
+    }
+
+    /**
+     * Method that writes all pending changes to the backing store.
+     */
+    public void flushAll() {
+        try {
+            for (Table t : dirtyTables.toArray(new Table[0])) {
+                flushTable(t);
+            }
+        } catch (Exception ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * Method that flushes the given table, if it is cached.
+     *
+     * @param fName
+     */
+    private void flush(String fName) {
+        flushTable(table(fName));
+    }
+
+    /**
+     * Method that returns the cache statistics, one line per cached table.
+     *
+     * @return
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        long pending = 0;
+
+        for (Table t : tables.values()) {
+            long dirty = t.entries.values().stream().filter((e) -> e.dirty).count();
+            pending += dirty;
+            sb.append(t.name).append(" [").append(t.policy).append("/").append(t.maxEntries).append("]: entries=").append(t.entries.size())
+                    .append(" hits=").append(t.hits.sum()).append(" misses=").append(t.misses.sum()).append(" writes=").append(t.writes.sum())
+                    .append(" pending=").append(dirty).append(" flushes=").append(t.flushes.sum()).append(" flushedRows=").append(t.flushedRows.sum())
+                    .append(" evictions=").append(t.evictions.sum()).append(" directWrites=").append(t.directWrites.sum())
+                    .append(t.isOverloaded() ? " (writing through)" : "").append("\n");
+        }
+
+        sb.append("pending=").append(pending).append(" lastFlushLag=").append(lastFlushLag.get()).append("ms maxFlushLag=").append(maxFlushLag.get()).append("ms");
+
+        return sb.toString();
+    }
+
+    public long getHits() {
+        return tables.values().stream().mapToLong((t) -> t.hits.sum()).sum();
+    }
+
+    public long getMisses() {
+        return tables.values().stream().mapToLong((t) -> t.misses.sum()).sum();
+    }
+
+    public long getLastFlushLag() {
+        return lastFlushLag.get();
+    }
+
+    @Override
+    public void SaveAll(boolean force) {
+        flushAll();
+        backing.SaveAll(force);
+    }
+
+    @Override
+    public String[] GetFileList() {
+        flushAll();
+        return backing.GetFileList();
+    }
+
+    @Override
+    public String[] GetCategoryList(String fName) {
+        flush(fName);
+        return backing.GetCategoryList(fName);
+    }
+
+    @Override
+    public String[] GetKeyList(String fName, String section) {
+        flush(fName);
+        return backing.GetKeyList(fName, section);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValueList(String fName, String section) {
+        flush(fName);
+        return backing.GetKeyValueList(fName, section);
+    }
+
+    @Override
+    public String[] GetKeysByOrder(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeysByOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeysByNumberOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByOrderValue(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeysByOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeysByNumberOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByOrder(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeyValuesByOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeyValuesByNumberOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByOrderValue(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeyValuesByOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeyValuesByNumberOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public int GetRankByNumberOrderValue(String fName, String section, String key, String order) {
+        flush(fName);
+        return backing.GetRankByNumberOrderValue(fName, section, key, order);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeyValuesByLikeKeysOrder(fName, section, search, order, limit, offset);
+    }
+
+    @Override
+    public String GetKeyByValue(String fName, String section, String value) {
+        flush(fName);
+        return backing.GetKeyByValue(fName, section, value);
+    }
+
+    @Override
+    public String[] GetKeysByLikeValues(String fName, String section, String search) {
+        flush(fName);
+        return backing.GetKeysByLikeValues(fName, section, search);
+    }
+
+    @Override
+    public String[] GetKeysByLikeKeys(String fName, String section, String search) {
+        flush(fName);
+        return backing.GetKeysByLikeKeys(fName, section, search);
+    }
+
+    @Override
+    public String[] GetKeysByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        flush(fName);
+        return backing.GetKeysByLikeKeysOrder(fName, section, search, order, limit, offset);
+    }
+
+    @Override
+    public String GetString(String fName, String section, String key) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return t.get(key);
+        }
+
+        flushTable(t);
+        return backing.GetString(fName, section, key);
+    }
+
+    @Override
+    public String[] GetStrings(String fName, String section, String[] keys) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return t.getAll(keys);
+        }
+
+        flushTable(t);
+        return backing.GetStrings(fName, section, keys);
+    }
+
+    @Override
+    public void SetString(String fName, String section, String key, String value) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            t.put(key, value);
+            return;
+        }
+
+        backing.SetString(fName, section, key, value);
+    }
+
+    @Override
+    public long GetLong(String fName, String section, String key) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return super.GetLong(fName, section, key);
+        }
+
+        flushTable(t);
+        return backing.GetLong(fName, section, key);
+    }
+
+    @Override
+    public double GetDouble(String fName, String section, String key) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return super.GetDouble(fName, section, key);
+        }
+
+        flushTable(t);
+        return backing.GetDouble(fName, section, key);
+    }
+
+    @Override
+    public void SetLong(String fName, String section, String key, long value) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            super.SetLong(fName, section, key, value);
+            return;
+        }
+
+        backing.SetLong(fName, section, key, value);
+    }
+
+    @Override
+    public void SetDouble(String fName, String section, String key, double value) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            super.SetDouble(fName, section, key, value);
+            return;
+        }
+
+        backing.SetDouble(fName, section, key, value);
+    }
+
+    @Override
+    public boolean HasKey(String fName, String section, String key) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return t.get(key) != null;
+        }
+
+        flushTable(t);
+        return backing.HasKey(fName, section, key);
+    }
+
+    @Override
+    public void SetBatchString(String fName, String section, String[] keys, String[] values) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            for (int i = 0; i < keys.length; i++) {
+                t.put(keys[i], values[i]);
+            }
+
+            return;
+        }
+
+        backing.SetBatchString(fName, section, keys, values);
+    }
+
+    @Override
+    public void IncreaseBatchString(String fName, String section, String[] keys, String value) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            flushTable(t);
+            backing.IncreaseBatchString(fName, section, keys, value);
+
+            for (String key : keys) {
+                t.invalidate(key);
+            }
+
+            return;
+        }
+
+        backing.IncreaseBatchString(fName, section, keys, value);
+    }
+
+    @Override
+    public void upsert(String fName, String section, String key, String value) {
+        SetString(fName, section, key, value);
+    }
+
+    @Override
+    public long increment(String fName, String section, String key, long delta) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return t.add(key, delta);
+        }
+
+        return backing.increment(fName, section, key, delta);
+    }
+
+    @Override
+    public long[] incrementBatch(String fName, String section, String[] keys, long[] deltas) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            long[] out = new long[keys.length];
+
+            for (int i = 0; i < keys.length; i++) {
+                t.add(keys[i], deltas[i]);
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+                String value = t.get(keys[i]);
+                out[i] = value == null ? 0 : Long.parseLong(value);
+            }
+
+            return out;
+        }
+
+        return backing.incrementBatch(fName, section, keys, deltas);
+    }
+
+    @Override
+    public boolean compareAndSet(String fName, String section, String key, String expected, String newValue) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            return t.compareAndSet(key, expected, newValue);
+        }
+
+        return backing.compareAndSet(fName, section, key, expected, newValue);
+    }
+
+    @Override
+    public void RemoveKey(String fName, String section, String key) {
+        Table t = table(fName);
+
+        if (t != null && isDefaultSection(section)) {
+            t.put(key, null);
+            return;
+        }
+
+        backing.RemoveKey(fName, section, key);
+    }
+
+    @Override
+    public void RemoveSection(String fName, String section) {
+        Table t = table(fName);
+
+        flushTable(t);
+        backing.RemoveSection(fName, section);
+
+        if (t != null && isDefaultSection(section)) {
+            t.invalidate();
+        }
+    }
+
+    @Override
+    public void AddFile(String fName) {
+        backing.AddFile(fName);
+    }
+
+    @Override
+    public void AddNumericFile(String fName, boolean isReal) {
+        flush(fName);
+        backing.AddNumericFile(fName, isReal);
+    }
+
+    @Override
+    public boolean IsNumericFile(String fName) {
+        return backing.IsNumericFile(fName);
+    }
+
+    @Override
+    public void RemoveFile(String fName) {
+        Table t = table(fName);
+
+        if (t != null) {
+            synchronized (t) {
+                t.invalidate();
+                dirtyTables.remove(t);
+                backing.RemoveFile(fName);
+            }
+        } else {
+            backing.RemoveFile(fName);
+        }
+    }
+
+    @Override
+    public void RenameFile(String fNameSource, String fNameDest) {
+        Table source = table(fNameSource);
+        Table dest = table(fNameDest);
+
+        flushTable(source);
+
+        if (dest != null) {
+            synchronized (dest) {
+                dest.invalidate();
+                dirtyTables.remove(dest);
+            }
+        }
+
+        backing.RenameFile(fNameSource, fNameDest);
+
+        if (source != null) {
+            source.invalidate();
+        }
+    }
+
+    @Override
+    public boolean FileExists(String fName) {
+        flush(fName);
+        return backing.FileExists(fName);
+    }
+
+    @Override
+    public void CreateIndexes() {
+        backing.CreateIndexes();
+    }
+
+    @Override
+    public void DropIndexes() {
+        backing.DropIndexes();
+    }
+
+    @Override
+    public boolean CanConnect() {
+        return backing.CanConnect();
+    }
+
+    @Override
+    public boolean CanConnect(String db, String user, String pass) {
+        return backing.CanConnect(db, user, pass);
+    }
+
+    @Override
+    public boolean canBackup() {
+        return backing.canBackup();
+    }
+
+    @Override
+    public void backupDB(String filename) {
+        flushAll();
+        backing.backupDB(filename);
+    }
+
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+
+        disposed = true;
+        flusher.shutdown();
+
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        flushAll();
+        backing.dispose();
+    }
+}
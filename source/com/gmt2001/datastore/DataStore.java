@@ -104,6 +104,27 @@ public abstract class DataStore {
         return new String[]{};
     }
 
+    /**
+     * Returns the position of a key when the table is sorted by numeric value.
+     *
+     * @param fName
+     * @param section
+     * @param key
+     * @param order ASC or DESC
+     * @return The 1-based position, or 0 if the key is not in the table
+     */
+    public int GetRankByNumberOrderValue(String fName, String section, String key, String order) {
+        String[] keys = GetKeysByNumberOrderValue(fName, section, order, String.valueOf(Integer.MAX_VALUE), "0");
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
     public String GetKeyByValue(String fName, String section, String value) {
         return "";
     }
@@ -132,10 +153,131 @@ public abstract class DataStore {
         return new String[]{};
     }
 
+    public KeyValue[] GetKeyValuesByOrder(String fName, String section, String order, String limit, String offset) {
+        return toKeyValues(fName, section, GetKeysByOrder(fName, section, order, limit, offset));
+    }
+
+    public KeyValue[] GetKeyValuesByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        return toKeyValues(fName, section, GetKeysByNumberOrder(fName, section, order, limit, offset));
+    }
+
+    public KeyValue[] GetKeyValuesByOrderValue(String fName, String section, String order, String limit, String offset) {
+        return toKeyValues(fName, section, GetKeysByOrderValue(fName, section, order, limit, offset));
+    }
+
+    public KeyValue[] GetKeyValuesByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        return toKeyValues(fName, section, GetKeysByNumberOrderValue(fName, section, order, limit, offset));
+    }
+
+    public KeyValue[] GetKeyValuesByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        return toKeyValues(fName, section, GetKeysByLikeKeysOrder(fName, section, search, order, limit, offset));
+    }
+
+    private KeyValue[] toKeyValues(String fName, String section, String[] keys) {
+        String[] values = GetStrings(fName, section, keys);
+        KeyValue[] out = new KeyValue[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = new KeyValue(keys[i], values[i]);
+        }
+
+        return out;
+    }
+
     public abstract String GetString(String fName, String section, String key);
 
+    /**
+     * Reads the values of several keys at once.
+     *
+     * @param fName
+     * @param section
+     * @param keys
+     * @return The values, in the same order as keys. Missing keys are null
+     */
+    public String[] GetStrings(String fName, String section, String[] keys) {
+        String[] out = new String[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = GetString(fName, section, keys[i]);
+        }
+
+        return out;
+    }
+
     public abstract void SetString(String fName, String section, String key, String value);
 
+    /**
+     * Inserts the key, or replaces its value if it already exists, as one atomic operation.
+     *
+     * @param fName
+     * @param section
+     * @param key
+     * @param value
+     */
+    public void upsert(String fName, String section, String key, String value) {
+        SetString(fName, section, key, value);
+    }
+
+    /**
+     * Adds delta to the numeric value of the key as one atomic operation. A missing key counts as 0.
+     *
+     * @param fName
+     * @param section
+     * @param key
+     * @param delta
+     * @return The new value
+     */
+    public synchronized long increment(String fName, String section, String key, long delta) {
+        long ival = GetLong(fName, section, key) + delta;
+        SetLong(fName, section, key, ival);
+        return ival;
+    }
+
+    /**
+     * Adds a delta to the numeric value of each key in one transaction. A missing key counts as 0, and a key that is given more than once gets
+     * the sum of its deltas.
+     *
+     * @param fName
+     * @param section
+     * @param keys
+     * @param deltas The delta for each key, in the same order as keys
+     * @return The new values, in the same order as keys
+     */
+    public synchronized long[] incrementBatch(String fName, String section, String[] keys, long[] deltas) {
+        long[] out = new long[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            increment(fName, section, keys[i], deltas[i]);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = GetLong(fName, section, keys[i]);
+        }
+
+        return out;
+    }
+
+    /**
+     * Sets the key to newValue only if its current value is expected, as one atomic operation.
+     *
+     * @param fName
+     * @param section
+     * @param key
+     * @param expected The expected current value, or null if the key must not exist yet
+     * @param newValue
+     * @return true if the value was changed
+     */
+    public synchronized boolean compareAndSet(String fName, String section, String key, String expected, String newValue) {
+        String current = GetString(fName, section, key);
+
+        if (expected == null ? current != null : !expected.equals(current)) {
+            return false;
+        }
+
+        SetString(fName, section, key, newValue);
+        return true;
+    }
+
     public void InsertString(String fName, String section, String key, String value) {
         SetString(fName, section, key, value);
     }
@@ -258,6 +400,27 @@ public abstract class DataStore {
 
     public abstract void RemoveFile(String fName);
 
+    /**
+     * Declares a table as numeric. Stores that support it keep a typed, indexed copy of the value next to the text one, which is used by
+     * the typed getters and setters and by numeric sorts. The table is created if needed, and an existing table is migrated in place.
+     *
+     * @param fName
+     * @param isReal true for a floating point column, false for an integer column
+     */
+    public void AddNumericFile(String fName, boolean isReal) {
+        AddFile(fName);
+    }
+
+    /**
+     * Returns if a table was declared numeric with {@link #AddNumericFile(String, boolean)} and has a typed value column.
+     *
+     * @param fName
+     * @return
+     */
+    public boolean IsNumericFile(String fName) {
+        return false;
+    }
+
     public abstract void RenameFile(String fNameSource, String fNameDest);
 
     public abstract boolean FileExists(String fName);
@@ -287,9 +450,7 @@ public abstract class DataStore {
     }
 
     public void incr(String fName, String section, String key, int amount) {
-        int ival = GetInteger(fName, section, key);
-        ival += amount;
-        SetInteger(fName, section, key, ival);
+        increment(fName, section, key, amount);
     }
 
     public void incr(String fName, String key, int amount) {
@@ -297,9 +458,7 @@ public abstract class DataStore {
     }
 
     public void decr(String fName, String section, String key, int amount) {
-        int ival = GetInteger(fName, section, key);
-        ival -= amount;
-        SetInteger(fName, section, key, ival);
+        increment(fName, section, key, -(long) amount);
     }
 
     public void decr(String fName, String key, int amount) {
@@ -311,9 +470,7 @@ public abstract class DataStore {
     }
 
     public void incr(String fName, String section, String key, long amount) {
-        long ival = GetLong(fName, section, key);
-        ival += amount;
-        SetLong(fName, section, key, ival);
+        increment(fName, section, key, amount);
     }
 
     public void incr(String fName, String key, long amount) {
@@ -321,9 +478,7 @@ public abstract class DataStore {
     }
 
     public void decr(String fName, String section, String key, long amount) {
-        long ival = GetLong(fName, section, key);
-        ival -= amount;
-        SetLong(fName, section, key, ival);
+        increment(fName, section, key, -amount);
     }
 
     public String[] searchByValue(String fName, String search) {
@@ -23,6 +23,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.h2.jdbcx.JdbcConnectionPool;
 
 /**
@@ -34,7 +39,11 @@ import org.h2.jdbcx.JdbcConnectionPool;
 public class H2Store extends DataStore {
 
     private static final int MAX_CONNECTIONS = 30;
+    private static final int MAX_BATCH_PARAMETERS = 500;
     private static JdbcConnectionPool poolMgr;
+    private final Map<String, String> validatedFnames = new ConcurrentHashMap<>();
+    private final Set<String> knownTables = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> numericFiles = new ConcurrentHashMap<>();
     private static H2Store instance;
 
     public static H2Store instance() {
@@ -89,6 +98,18 @@ public class H2Store extends DataStore {
     }
 
     private String validateFname(String fName) {
+        String validated = validatedFnames.get(fName);
+
+        if (validated == null) {
+            validated = validateFnameReal(fName);
+            validatedFnames.put(fName, validated);
+            validatedFnames.put(validated, validated);
+        }
+
+        return validated;
+    }
+
+    private String validateFnameReal(String fName) {
         fName = fName.replaceAll("([^a-zA-Z0-9_])", "_");
 
         if (fName.matches("^[0-9]+")) {
@@ -98,6 +119,10 @@ public class H2Store extends DataStore {
         return fName;
     }
 
+    private String tableKey(String fName) {
+        return fName.toLowerCase();
+    }
+
     private Connection GetConnection() {
         try {
             return poolMgr.getConnection();
@@ -120,14 +145,191 @@ public class H2Store extends DataStore {
     public void AddFile(Connection connection, String fName) {
         fName = validateFname(fName);
 
+        if (knownTables.contains(tableKey(fName))) {
+            return;
+        }
+
         // Creates a database with 3 columns, the section and variable are used as keys.  value is a 2GB CLOB of text.
         try (Statement statement = connection.createStatement()) {
             statement.addBatch("CREATE TABLE IF NOT EXISTS phantombot_" + fName + " (section varchar(255), variable varchar(255) NOT NULL, value LONGTEXT);");
             statement.addBatch("CREATE UNIQUE INDEX IF NOT EXISTS phantombot_" + fName + "_idx ON phantombot_" + fName + "(section, variable);");
             statement.executeBatch();
+            knownTables.add(tableKey(fName));
         } catch (SQLException ex) {
             com.gmt2001.Console.err.printStackTrace(ex);
         }
+
+        if (numericFiles.containsKey(fName)) {
+            AddNumericColumn(connection, fName);
+        }
+    }
+
+    @Override
+    public void AddNumericFile(String fName, boolean isReal) {
+        try (Connection connection = GetConnection()) {
+            fName = validateFname(fName);
+            numericFiles.put(fName, isReal);
+
+            AddFile(connection, fName);
+            AddNumericColumn(connection, fName);
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+    }
+
+    @Override
+    public boolean IsNumericFile(String fName) {
+        return numericFiles.containsKey(validateFname(fName));
+    }
+
+    /**
+     * Adds the typed numvalue column to a table, if missing, and indexes it. The column is generated from the text value by the database,
+     * so every existing write keeps it up to date and existing rows are converted by the ALTER TABLE itself.
+     *
+     * @param connection
+     * @param fName
+     */
+    private void AddNumericColumn(Connection connection, String fName) {
+        boolean isReal = numericFiles.get(fName);
+
+        try (Statement statement = connection.createStatement()) {
+            if (!HasNumericColumn(connection, fName)) {
+                com.gmt2001.Console.debug.println("Adding the numeric value column to phantombot_" + fName);
+                statement.execute("ALTER TABLE phantombot_" + fName + " ADD COLUMN numvalue " + (isReal
+                        ? "DOUBLE AS (CASE WHEN REGEXP_LIKE(value, '^[+-]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][+-]?[0-9]{1,3})?$') THEN CAST(value AS DOUBLE) ELSE 0 END)"
+                        : "BIGINT AS (CASE WHEN REGEXP_LIKE(value, '^[+-]?[0-9]{1,18}$') THEN CAST(value AS BIGINT) ELSE 0 END)") + ";");
+            }
+
+            statement.execute("CREATE INDEX IF NOT EXISTS phantombot_" + fName + "_numidx ON phantombot_" + fName + " (section, numvalue);");
+        } catch (SQLException ex) {
+            numericFiles.remove(fName);
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+    }
+
+    private boolean HasNumericColumn(Connection connection, String fName) {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery("SELECT numvalue FROM phantombot_" + fName + " LIMIT 1;").close();
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the column to sort by numeric value, which is the typed column if the table has one.
+     *
+     * @param fName
+     * @param cast The expression that casts the text value, for tables that are not numeric
+     * @return
+     */
+    private String numericValue(String fName, String cast) {
+        return numericFiles.containsKey(validateFname(fName)) ? "numvalue" : cast;
+    }
+
+    /**
+     * Returns the column to do integer math on, which is the typed column if the table is an integer table.
+     *
+     * @param fName
+     * @param cast The expression that casts the text value, for tables that are not integer tables
+     * @return
+     */
+    private String integerValue(String fName, String cast) {
+        return Boolean.FALSE.equals(numericFiles.get(validateFname(fName))) ? "numvalue" : cast;
+    }
+
+    @Override
+    public long GetLong(String fName, String section, String key) {
+        Number value = GetNumber(fName, section, key);
+        return value == null ? super.GetLong(fName, section, key) : value.longValue();
+    }
+
+    @Override
+    public double GetDouble(String fName, String section, String key) {
+        Number value = GetNumber(fName, section, key);
+        return value == null ? super.GetDouble(fName, section, key) : value.doubleValue();
+    }
+
+    @Override
+    public void SetLong(String fName, String section, String key, long value) {
+        if (!SetNumber(fName, section, key, value)) {
+            super.SetLong(fName, section, key, value);
+        }
+    }
+
+    @Override
+    public void SetDouble(String fName, String section, String key, double value) {
+        if (!SetNumber(fName, section, key, value)) {
+            super.SetDouble(fName, section, key, value);
+        }
+    }
+
+    /**
+     * Reads the typed column of a numeric table.
+     *
+     * @return The value, 0 if the key does not exist, or null if the table is not numeric
+     */
+    private Number GetNumber(String fName, String section, String key) {
+        fName = validateFname(fName);
+        Boolean isReal = numericFiles.get(fName);
+
+        if (isReal == null) {
+            return null;
+        }
+
+        try (Connection connection = GetConnection()) {
+            if (!FileExists(connection, fName)) {
+                return 0;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement("SELECT numvalue FROM phantombot_" + fName + " WHERE " + (section != null ? "section=? AND " : "") + "variable=?;")) {
+                int p = 1;
+
+                if (section != null) {
+                    statement.setString(p++, section);
+                }
+
+                statement.setString(p, key);
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        return isReal ? rs.getDouble("numvalue") : rs.getLong("numvalue");
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Writes a number to a numeric table without formatting it in Java first.
+     *
+     * @return false if the table is not numeric
+     */
+    private boolean SetNumber(String fName, String section, String key, Number value) {
+        fName = validateFname(fName);
+
+        if (!numericFiles.containsKey(fName)) {
+            return false;
+        }
+
+        try (Connection connection = GetConnection()) {
+            AddFile(connection, fName);
+
+            try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " (section, variable, value) KEY(SECTION, VARIABLE) values(?, ?, ?);")) {
+                statement.setString(1, section);
+                statement.setString(2, key);
+                statement.setObject(3, value);
+                statement.execute();
+            }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return true;
     }
 
     @Override
@@ -170,6 +372,7 @@ public class H2Store extends DataStore {
 
             if (FileExists(connection, fName)) {
                 try (Statement statement = connection.createStatement()) {
+                    knownTables.remove(tableKey(fName));
                     statement.execute("DROP TABLE phantombot_" + fName + ";");
                 }
             }
@@ -191,10 +394,17 @@ public class H2Store extends DataStore {
             try (Statement statement = connection.createStatement()) {
 
                 if (FileExists(connection, fNameDest)) {
+                    knownTables.remove(tableKey(fNameDest));
                     statement.execute("DROP TABLE phantombot_" + fNameDest + ";");
                 }
 
+                knownTables.remove(tableKey(fNameSource));
                 statement.execute("ALTER TABLE phantombot_" + fNameSource + " RENAME TO phantombot_" + fNameDest + ";");
+                knownTables.add(tableKey(fNameDest));
+            }
+
+            if (numericFiles.containsKey(fNameDest)) {
+                AddNumericColumn(connection, fNameDest);
             }
         } catch (SQLException ex) {
             com.gmt2001.Console.err.printStackTrace(ex);
@@ -217,10 +427,19 @@ public class H2Store extends DataStore {
     public boolean FileExists(Connection connection, String fName) {
         fName = validateFname(fName);
 
+        if (knownTables.contains(tableKey(fName))) {
+            return true;
+        }
+
         try {
             DatabaseMetaData md = connection.getMetaData();
             try (ResultSet rs = md.getTables(null, null, "PHANTOMBOT_" + fName.toUpperCase(), null)) {
-                return rs.next();
+                if (rs.next()) {
+                    knownTables.add(tableKey(fName));
+                    return true;
+                }
+
+                return false;
             }
         } catch (SQLException ex) {
             com.gmt2001.Console.err.printStackTrace(ex);
@@ -457,7 +676,7 @@ public class H2Store extends DataStore {
             if (FileExists(connection, fName)) {
                 if (section != null) {
                     if (isNumber) {
-                        statementStr = "SELECT variable FROM phantombot_" + fName + " WHERE section=? ORDER BY CAST(value as INTEGER) " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
+                        statementStr = "SELECT variable FROM phantombot_" + fName + " WHERE section=? ORDER BY " + numericValue(fName, "CAST(value as INTEGER)") + " " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
                     } else {
                         statementStr = "SELECT variable FROM phantombot_" + fName + " WHERE section=? ORDER BY value " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
                     }
@@ -478,7 +697,7 @@ public class H2Store extends DataStore {
                     }
                 } else {
                     if (isNumber) {
-                        statementStr = "SELECT variable FROM phantombot_" + fName + " ORDER BY CAST(value as INTEGER) " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
+                        statementStr = "SELECT variable FROM phantombot_" + fName + " ORDER BY " + numericValue(fName, "CAST(value as INTEGER)") + " " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
                     } else {
                         statementStr = "SELECT variable FROM phantombot_" + fName + " ORDER BY value " + order + " LIMIT " + limit + " OFFSET " + offset + ";";
                     }
@@ -640,6 +859,148 @@ public class H2Store extends DataStore {
         return out;
     }
 
+    @Override
+    public KeyValue[] GetKeyValuesByOrder(String fName, String section, String order, String limit, String offset) {
+        return GetKeyValuesByOrderInternal(fName, section, null, "variable", order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        return GetKeyValuesByOrderInternal(fName, section, null, "CAST(variable as INTEGER)", order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByOrderValue(String fName, String section, String order, String limit, String offset) {
+        return GetKeyValuesByOrderInternal(fName, section, null, "value", order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        return GetKeyValuesByOrderInternal(fName, section, null, numericValue(fName, "CAST(value as INTEGER)"), order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        return GetKeyValuesByOrderInternal(fName, section, search, "variable", order, limit, offset);
+    }
+
+    private KeyValue[] GetKeyValuesByOrderInternal(String fName, String section, String search, String orderBy, String order, String limit, String offset) {
+        KeyValue[] out = new KeyValue[]{};
+
+        try (Connection connection = GetConnection()) {
+            fName = validateFname(fName);
+            order = sanitizeOrder(order);
+            limit = sanitizeLimit(limit);
+            offset = sanitizeOffset(offset);
+
+            if (FileExists(connection, fName)) {
+                StringBuilder sb = new StringBuilder("SELECT variable, value FROM phantombot_").append(fName).append(" WHERE 1=1");
+
+                if (section != null) {
+                    sb.append(" AND section=?");
+                }
+
+                if (search != null) {
+                    sb.append(" AND variable LIKE ?");
+                }
+
+                sb.append(" ORDER BY ").append(orderBy).append(' ').append(order).append(" LIMIT ").append(limit).append(" OFFSET ").append(offset).append(';');
+
+                try (PreparedStatement statement = connection.prepareStatement(sb.toString())) {
+                    int i = 1;
+
+                    if (section != null) {
+                        statement.setString(i++, section);
+                    }
+
+                    if (search != null) {
+                        statement.setString(i++, "%" + search + "%");
+                    }
+
+                    try (ResultSet rs = statement.executeQuery()) {
+                        ArrayList<KeyValue> s = new ArrayList<>();
+
+                        while (rs.next()) {
+                            s.add(new KeyValue(rs.getString("variable"), rs.getString("value")));
+                        }
+
+                        out = s.toArray(new KeyValue[s.size()]);
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return out;
+    }
+
+    @Override
+    public String[] GetStrings(String fName, String section, String[] keys) {
+        String[] out = new String[keys.length];
+
+        if (keys.length == 0) {
+            return out;
+        }
+
+        try (Connection connection = GetConnection()) {
+            fName = validateFname(fName);
+
+            if (!FileExists(connection, fName)) {
+                return out;
+            }
+
+            Map<String, Integer> index = new HashMap<>();
+
+            for (int i = 0; i < keys.length; i++) {
+                index.putIfAbsent(keys[i], i);
+            }
+
+            /* Query in chunks to stay below the bound parameter limit of the driver */
+            for (int start = 0; start < keys.length; start += MAX_BATCH_PARAMETERS) {
+                int end = Math.min(keys.length, start + MAX_BATCH_PARAMETERS);
+                StringBuilder sb = new StringBuilder((end - start) * 2);
+
+                for (int i = start; i < end; i++) {
+                    sb.append("?,");
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("SELECT variable, value FROM phantombot_" + fName + " WHERE "
+                        + (section != null ? "section=? AND " : "") + "variable IN (" + sb.deleteCharAt(sb.length() - 1).toString() + ");")) {
+                    int p = 1;
+
+                    if (section != null) {
+                        statement.setString(p++, section);
+                    }
+
+                    for (int i = start; i < end; i++) {
+                        statement.setString(p++, keys[i]);
+                    }
+
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            Integer i = index.get(rs.getString("variable"));
+
+                            if (i != null) {
+                                out[i] = rs.getString("value");
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+                if (out[i] == null && index.get(keys[i]) != i) {
+                    out[i] = out[index.get(keys[i])];
+                }
+            }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return out;
+    }
+
     @Override
     public boolean HasKey(String fName, String section, String key) {
         boolean out = false;
@@ -796,13 +1157,18 @@ public class H2Store extends DataStore {
 
     @Override
     public void SetString(String fName, String section, String key, String value) {
+        upsert(fName, section, key, value);
+    }
+
+    @Override
+    public void upsert(String fName, String section, String key, String value) {
         try (Connection connection = GetConnection()) {
 
             fName = validateFname(fName);
 
             AddFile(connection, fName);
 
-            try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " KEY(SECTION, VARIABLE) values(?, ?, ?);")) {
+            try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " (section, variable, value) KEY(SECTION, VARIABLE) values(?, ?, ?);")) {
                 statement.setString(1, section);
                 statement.setString(2, key);
                 statement.setString(3, value);
@@ -815,45 +1181,219 @@ public class H2Store extends DataStore {
     }
 
     @Override
-    public void IncreaseBatchString(String fName, String section, String[] keys, String value) {
+    public long increment(String fName, String section, String key, long delta) {
+        long out = 0;
+
         try (Connection connection = GetConnection()) {
+
             fName = validateFname(fName);
 
             AddFile(connection, fName);
 
             connection.setAutoCommit(false);
 
-            StringBuilder sb = new StringBuilder(keys.length * 2);
+            try {
+                try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " t USING (SELECT CAST(? AS VARCHAR(255)) s, CAST(? AS VARCHAR(255)) v, CAST(? AS BIGINT) d) src"
+                        + " ON t.section=src.s AND t.variable=src.v"
+                        + " WHEN MATCHED THEN UPDATE SET t.value=CAST(" + integerValue(fName, "CASE WHEN REGEXP_LIKE(t.value, '^[+-]?[0-9]{1,18}$') THEN CAST(t.value AS BIGINT) ELSE 0 END") + " + src.d AS VARCHAR)"
+                        + " WHEN NOT MATCHED THEN INSERT (section, variable, value) VALUES (src.s, src.v, CAST(src.d AS VARCHAR));")) {
+                    statement.setString(1, section);
+                    statement.setString(2, key);
+                    statement.setLong(3, delta);
+                    statement.execute();
+                }
 
-            for (String key : keys) {
-                sb.append("?,");
+                try (PreparedStatement statement = connection.prepareStatement("SELECT value FROM phantombot_" + fName + " WHERE section=? AND variable=?;")) {
+                    statement.setString(1, section);
+                    statement.setString(2, key);
+
+                    try (ResultSet rs = statement.executeQuery()) {
+                        if (rs.next()) {
+                            out = rs.getLong("value");
+                        }
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
             }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return out;
+    }
+
+    @Override
+    public long[] incrementBatch(String fName, String section, String[] keys, long[] deltas) {
+        long[] out = new long[keys.length];
+
+        if (keys.length == 0) {
+            return out;
+        }
+
+        Map<String, Long> merged = new LinkedHashMap<>();
+
+        for (int i = 0; i < keys.length; i++) {
+            merged.merge(keys[i], deltas[i], Long::sum);
+        }
+
+        try (Connection connection = GetConnection()) {
+
+            fName = validateFname(fName);
+
+            AddFile(connection, fName);
+
+            connection.setAutoCommit(false);
+
+            Map<String, Long> values = new HashMap<>();
+
+            try {
+                try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " t USING (SELECT CAST(? AS VARCHAR(255)) s, CAST(? AS VARCHAR(255)) v, CAST(? AS BIGINT) d) src"
+                        + " ON t.section=src.s AND t.variable=src.v"
+                        + " WHEN MATCHED THEN UPDATE SET t.value=CAST(" + integerValue(fName, "CASE WHEN REGEXP_LIKE(t.value, '^[+-]?[0-9]{1,18}$') THEN CAST(t.value AS BIGINT) ELSE 0 END") + " + src.d AS VARCHAR)"
+                        + " WHEN NOT MATCHED THEN INSERT (section, variable, value) VALUES (src.s, src.v, CAST(src.d AS VARCHAR));")) {
+                    for (Map.Entry<String, Long> entry : merged.entrySet()) {
+                        statement.setString(1, section);
+                        statement.setString(2, entry.getKey());
+                        statement.setLong(3, entry.getValue());
+                        statement.addBatch();
+                    }
 
-            try (PreparedStatement statement = connection.prepareStatement("UPDATE phantombot_" + fName + " SET value = CAST(value AS INTEGER) + ? WHERE section = ? AND variable IN (" + sb.deleteCharAt(sb.length() - 1).toString() + ");")) {
-                statement.setInt(1, Integer.parseUnsignedInt(value));
-                statement.setString(2, section);
-                int i = 3;
-                for (String k : keys) {
-                    statement.setString(i++, k);
+                    statement.executeBatch();
                 }
-                statement.execute();
+
+                String[] unique = merged.keySet().toArray(new String[0]);
+
+                /* Read the new values back in chunks to stay below the bound parameter limit of the driver */
+                for (int start = 0; start < unique.length; start += MAX_BATCH_PARAMETERS) {
+                    int end = Math.min(unique.length, start + MAX_BATCH_PARAMETERS);
+                    StringBuilder sb = new StringBuilder((end - start) * 2);
+
+                    for (int i = start; i < end; i++) {
+                        sb.append("?,");
+                    }
+
+                    try (PreparedStatement statement = connection.prepareStatement("SELECT variable, value FROM phantombot_" + fName + " WHERE section=? AND variable IN (" + sb.deleteCharAt(sb.length() - 1).toString() + ");")) {
+                        int p = 1;
+
+                        statement.setString(p++, section);
+
+                        for (int i = start; i < end; i++) {
+                            statement.setString(p++, unique[i]);
+                        }
+
+                        try (ResultSet rs = statement.executeQuery()) {
+                            while (rs.next()) {
+                                values.put(rs.getString("variable"), rs.getLong("value"));
+                            }
+                        }
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
             }
 
-            try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " USING DUAL ON section=? AND variable=? WHEN NOT MATCHED THEN INSERT VALUES (?, ?, ?);")) {
-                for (String k : keys) {
+            for (int i = 0; i < keys.length; i++) {
+                out[i] = values.getOrDefault(keys[i], 0L);
+            }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        return out;
+    }
+
+    @Override
+    public boolean compareAndSet(String fName, String section, String key, String expected, String newValue) {
+        boolean out = false;
+
+        try (Connection connection = GetConnection()) {
+
+            fName = validateFname(fName);
+
+            AddFile(connection, fName);
+
+            if (expected == null) {
+                try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " USING DUAL ON section=? AND variable=? WHEN NOT MATCHED THEN INSERT (section, variable, value) VALUES (?, ?, ?);")) {
                     statement.setString(1, section);
-                    statement.setString(2, k);
+                    statement.setString(2, key);
                     statement.setString(3, section);
-                    statement.setString(4, k);
-                    statement.setString(5, value);
-                    statement.addBatch();
+                    statement.setString(4, key);
+                    statement.setString(5, newValue);
+                    out = statement.executeUpdate() > 0;
+                }
+            } else {
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE phantombot_" + fName + " SET value=? WHERE section=? AND variable=? AND value=?;")) {
+                    statement.setString(1, newValue);
+                    statement.setString(2, section);
+                    statement.setString(3, key);
+                    statement.setString(4, expected);
+                    out = statement.executeUpdate() > 0;
                 }
-
-                statement.executeBatch();
             }
+        } catch (SQLException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
 
-            connection.commit();
-            connection.setAutoCommit(true);
+        return out;
+    }
+
+    @Override
+    public void IncreaseBatchString(String fName, String section, String[] keys, String value) {
+        try (Connection connection = GetConnection()) {
+            fName = validateFname(fName);
+
+            AddFile(connection, fName);
+
+            connection.setAutoCommit(false);
+
+            try {
+                StringBuilder sb = new StringBuilder(keys.length * 2);
+
+                for (String key : keys) {
+                    sb.append("?,");
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE phantombot_" + fName + " SET value = " + integerValue(fName, "CAST(value AS INTEGER)") + " + ? WHERE section = ? AND variable IN (" + sb.deleteCharAt(sb.length() - 1).toString() + ");")) {
+                    statement.setInt(1, Integer.parseUnsignedInt(value));
+                    statement.setString(2, section);
+                    int i = 3;
+                    for (String k : keys) {
+                        statement.setString(i++, k);
+                    }
+                    statement.execute();
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("MERGE INTO phantombot_" + fName + " USING DUAL ON section=? AND variable=? WHEN NOT MATCHED THEN INSERT (section, variable, value) VALUES (?, ?, ?);")) {
+                    for (String k : keys) {
+                        statement.setString(1, section);
+                        statement.setString(2, k);
+                        statement.setString(3, section);
+                        statement.setString(4, k);
+                        statement.setString(5, value);
+                        statement.addBatch();
+                    }
+
+                    statement.executeBatch();
+                }
+
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException ex) {
             com.gmt2001.Console.err.printStackTrace(ex);
         }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001.datastore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Order-statistic tree of the keys of one numeric table, sorted by value and then by key.
+ *
+ * The tree is a treap where every node also stores the size of its subtree, so inserts, removals, finding the rank of a key and finding
+ * the key at a rank all take O(log n). Not thread safe, {@link RankedDataStore} locks around it.
+ */
+final class RankIndex {
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root = null;
+    boolean loaded = false;
+
+    private static final class Node {
+
+        final String key;
+        final long value;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(String key, long value, int priority) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    void clear() {
+        nodes.clear();
+        root = null;
+        loaded = false;
+    }
+
+    /**
+     * Sets the value of a key, adding the key if needed.
+     *
+     * @param key
+     * @param value
+     */
+    void put(String key, long value) {
+        Node old = nodes.get(key);
+
+        if (old != null) {
+            if (old.value == value) {
+                return;
+            }
+
+            remove(key);
+        }
+
+        Node n = new Node(key, value, random.nextInt());
+        Node[] lr = split(root, value, key, false);
+        root = merge(merge(lr[0], n), lr[1]);
+        nodes.put(key, n);
+    }
+
+    /**
+     * Removes a key, if present.
+     *
+     * @param key
+     */
+    void remove(String key) {
+        Node n = nodes.remove(key);
+
+        if (n == null) {
+            return;
+        }
+
+        Node[] lr = split(root, n.value, key, false);
+        Node[] mr = split(lr[1], n.value, key, true);
+        root = merge(lr[0], mr[1]);
+    }
+
+    /**
+     * Returns the 0-based position of a key.
+     *
+     * @param key
+     * @param descending
+     * @return The position, or -1 if the key is not in the index
+     */
+    int rank(String key, boolean descending) {
+        Node target = nodes.get(key);
+
+        if (target == null) {
+            return -1;
+        }
+
+        int rank = 0;
+        Node n = root;
+
+        while (n != target) {
+            if (compare(target.value, target.key, n) < 0) {
+                n = n.left;
+            } else {
+                rank += size(n.left) + 1;
+                n = n.right;
+            }
+        }
+
+        rank += size(n.left);
+
+        return descending ? nodes.size() - 1 - rank : rank;
+    }
+
+    /**
+     * Returns the keys and values from position offset up to limit entries.
+     *
+     * @param offset
+     * @param limit
+     * @param descending
+     * @return
+     */
+    List<KeyValue> range(int offset, int limit, boolean descending) {
+        int start = Math.max(0, offset);
+        int end = (int) Math.min((long) start + Math.max(0, limit), nodes.size());
+        List<KeyValue> out = new ArrayList<>(Math.max(0, end - start));
+
+        collect(root, start, end, descending, out);
+
+        return out;
+    }
+
+    private void collect(Node n, int start, int end, boolean descending, List<KeyValue> out) {
+        if (n == null || start >= end) {
+            return;
+        }
+
+        Node first = descending ? n.right : n.left;
+        Node second = descending ? n.left : n.right;
+        int firstSize = size(first);
+
+        if (start < firstSize) {
+            collect(first, start, Math.min(end, firstSize), descending, out);
+        }
+
+        if (start <= firstSize && firstSize < end) {
+            out.add(new KeyValue(n.key, Long.toString(n.value)));
+        }
+
+        if (end > firstSize + 1) {
+            collect(second, Math.max(0, start - firstSize - 1), end - firstSize - 1, descending, out);
+        }
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static Node update(Node n) {
+        n.size = size(n.left) + size(n.right) + 1;
+        return n;
+    }
+
+    private static int compare(long value, String key, Node n) {
+        int c = Long.compare(value, n.value);
+        return c != 0 ? c : key.compareTo(n.key);
+    }
+
+    /**
+     * Splits a tree into the nodes that sort before (value, key) and the rest. When inclusive is set, the node equal to (value, key) goes
+     * to the left side.
+     */
+    private static Node[] split(Node n, long value, String key, boolean inclusive) {
+        if (n == null) {
+            return new Node[]{null, null};
+        }
+
+        int c = compare(value, key, n);
+
+        if (c > 0 || (inclusive && c == 0)) {
+            Node[] lr = split(n.right, value, key, inclusive);
+            n.right = lr[0];
+            lr[0] = update(n);
+            return lr;
+        } else {
+            Node[] lr = split(n.left, value, key, inclusive);
+            n.left = lr[1];
+            lr[1] = update(n);
+            return lr;
+        }
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+
+        if (b == null) {
+            return a;
+        }
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        } else {
+            b.left = merge(a, b.left);
+            return update(b);
+        }
+    }
+}
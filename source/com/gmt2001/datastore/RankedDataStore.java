@@ -0,0 +1,602 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001.datastore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a ranked index of numeric tables, such as points and time, in front of another {@link DataStore}.
+ *
+ * Only the tables passed in the configuration are indexed, and only their default ("") section. An index is loaded from the backing
+ * store the first time one of its tables is queried by numeric value, and from then on every write that goes through this store keeps it
+ * up to date. Top lists, pages of a leaderboard and the rank of a single key are then answered from memory in O(log n) instead of sorting
+ * the whole table in the database on every request.
+ */
+public class RankedDataStore extends DataStore {
+
+    private final DataStore backing;
+    private final Map<String, RankIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Class constructor.
+     *
+     * @param backing The store that actually holds the data
+     * @param tableConfig Comma separated list of the numeric tables to index, eg. {@code points,time}
+     */
+    public RankedDataStore(DataStore backing, String tableConfig) {
+        super("");
+
+        this.backing = backing;
+
+        for (String table : tableConfig.split(",")) {
+            if (!table.isBlank()) {
+                indexes.put(table.trim().toLowerCase(), new RankIndex());
+            }
+        }
+    }
+
+    /**
+     * Returns the store this index is in front of.
+     *
+     * @return
+     */
+    public DataStore getBackingStore() {
+        return backing;
+    }
+
+    /**
+     * Returns the number of keys in each loaded index.
+     *
+     * @return
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+
+        indexes.forEach((table, idx) -> {
+            synchronized (idx) {
+                sb.append(sb.length() > 0 ? ", " : "").append(table).append(": ").append(idx.loaded ? idx.size() + " keys" : "not loaded");
+            }
+        });
+
+        return sb.toString();
+    }
+
+    /**
+     * Method that returns the index of a table, or null if the table and section are not indexed.
+     *
+     * @param fName
+     * @param section
+     * @return
+     */
+    private RankIndex index(String fName, String section) {
+        if (fName == null || (section != null && !section.isEmpty())) {
+            return null;
+        }
+
+        return indexes.get(fName.toLowerCase());
+    }
+
+    /**
+     * Method that fills an index from the backing store if it was not loaded yet. Must be called while holding the lock of the index.
+     *
+     * @param fName
+     * @param idx
+     */
+    private void load(String fName, RankIndex idx) {
+        if (idx.loaded) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (KeyValue kv : backing.GetKeyValueList(fName, "")) {
+            idx.put(kv.getKey(), parse(kv.getValue()));
+        }
+
+        idx.loaded = true;
+        com.gmt2001.Console.debug.println("Loaded ranked index of " + fName + " with " + idx.size() + " keys in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Method that reads a value the way the database casts it to a number, anything that is not a number counts as 0.
+     *
+     * @param value
+     * @return
+     */
+    private static long parse(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            try {
+                return (long) Double.parseDouble(value.trim());
+            } catch (NumberFormatException ex2) {
+                return 0;
+            }
+        }
+    }
+
+    private static int parseInt(String value, int def) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException | NullPointerException ex) {
+            return def;
+        }
+    }
+
+    private List<KeyValue> range(String fName, RankIndex idx, String order, String limit, String offset) {
+        synchronized (idx) {
+            load(fName, idx);
+            return idx.range(parseInt(offset, 0), parseInt(limit, Integer.MAX_VALUE), !order.equalsIgnoreCase("ASC"));
+        }
+    }
+
+    @Override
+    public void SaveAll(boolean force) {
+        backing.SaveAll(force);
+    }
+
+    @Override
+    public String[] GetFileList() {
+        return backing.GetFileList();
+    }
+
+    @Override
+    public String[] GetCategoryList(String fName) {
+        return backing.GetCategoryList(fName);
+    }
+
+    @Override
+    public String[] GetKeyList(String fName, String section) {
+        return backing.GetKeyList(fName, section);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValueList(String fName, String section) {
+        return backing.GetKeyValueList(fName, section);
+    }
+
+    @Override
+    public String[] GetKeysByOrder(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeysByOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeysByNumberOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByOrderValue(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeysByOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public String[] GetKeysByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.GetKeysByNumberOrderValue(fName, section, order, limit, offset);
+        }
+
+        List<KeyValue> kvs = range(fName, idx, order, limit, offset);
+        String[] out = new String[kvs.size()];
+
+        for (int i = 0; i < out.length; i++) {
+            out[i] = kvs.get(i).getKey();
+        }
+
+        return out;
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByOrder(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeyValuesByOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrder(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeyValuesByNumberOrder(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByOrderValue(String fName, String section, String order, String limit, String offset) {
+        return backing.GetKeyValuesByOrderValue(fName, section, order, limit, offset);
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByNumberOrderValue(String fName, String section, String order, String limit, String offset) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.GetKeyValuesByNumberOrderValue(fName, section, order, limit, offset);
+        }
+
+        List<KeyValue> kvs = range(fName, idx, order, limit, offset);
+        return kvs.toArray(new KeyValue[kvs.size()]);
+    }
+
+    @Override
+    public int GetRankByNumberOrderValue(String fName, String section, String key, String order) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.GetRankByNumberOrderValue(fName, section, key, order);
+        }
+
+        synchronized (idx) {
+            load(fName, idx);
+            return idx.rank(key, !order.equalsIgnoreCase("ASC")) + 1;
+        }
+    }
+
+    @Override
+    public KeyValue[] GetKeyValuesByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        return backing.GetKeyValuesByLikeKeysOrder(fName, section, search, order, limit, offset);
+    }
+
+    @Override
+    public String GetKeyByValue(String fName, String section, String value) {
+        return backing.GetKeyByValue(fName, section, value);
+    }
+
+    @Override
+    public String[] GetKeysByLikeValues(String fName, String section, String search) {
+        return backing.GetKeysByLikeValues(fName, section, search);
+    }
+
+    @Override
+    public String[] GetKeysByLikeKeys(String fName, String section, String search) {
+        return backing.GetKeysByLikeKeys(fName, section, search);
+    }
+
+    @Override
+    public String[] GetKeysByLikeKeysOrder(String fName, String section, String search, String order, String limit, String offset) {
+        return backing.GetKeysByLikeKeysOrder(fName, section, search, order, limit, offset);
+    }
+
+    @Override
+    public String GetString(String fName, String section, String key) {
+        return backing.GetString(fName, section, key);
+    }
+
+    @Override
+    public String[] GetStrings(String fName, String section, String[] keys) {
+        return backing.GetStrings(fName, section, keys);
+    }
+
+    @Override
+    public void SetString(String fName, String section, String key, String value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.SetString(fName, section, key, value);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.SetString(fName, section, key, value);
+
+            if (idx.loaded) {
+                idx.put(key, parse(value));
+            }
+        }
+    }
+
+    @Override
+    public long GetLong(String fName, String section, String key) {
+        return backing.GetLong(fName, section, key);
+    }
+
+    @Override
+    public double GetDouble(String fName, String section, String key) {
+        return backing.GetDouble(fName, section, key);
+    }
+
+    @Override
+    public void SetLong(String fName, String section, String key, long value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.SetLong(fName, section, key, value);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.SetLong(fName, section, key, value);
+
+            if (idx.loaded) {
+                idx.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    public void SetDouble(String fName, String section, String key, double value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.SetDouble(fName, section, key, value);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.SetDouble(fName, section, key, value);
+
+            if (idx.loaded) {
+                idx.put(key, (long) value);
+            }
+        }
+    }
+
+    @Override
+    public boolean HasKey(String fName, String section, String key) {
+        return backing.HasKey(fName, section, key);
+    }
+
+    @Override
+    public void InsertString(String fName, String section, String key, String value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.InsertString(fName, section, key, value);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.InsertString(fName, section, key, value);
+
+            if (idx.loaded) {
+                idx.put(key, parse(value));
+            }
+        }
+    }
+
+    @Override
+    public void SetBatchString(String fName, String section, String[] keys, String[] values) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.SetBatchString(fName, section, keys, values);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.SetBatchString(fName, section, keys, values);
+
+            if (idx.loaded) {
+                for (int i = 0; i < keys.length; i++) {
+                    idx.put(keys[i], parse(values[i]));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void IncreaseBatchString(String fName, String section, String[] keys, String value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.IncreaseBatchString(fName, section, keys, value);
+            return;
+        }
+
+        /* Use the batch increment so the new values come back for the index */
+        long[] deltas = new long[keys.length];
+        Arrays.fill(deltas, parseInt(value, 0));
+
+        incrementBatch(fName, section, keys, deltas);
+    }
+
+    @Override
+    public void upsert(String fName, String section, String key, String value) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.upsert(fName, section, key, value);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.upsert(fName, section, key, value);
+
+            if (idx.loaded) {
+                idx.put(key, parse(value));
+            }
+        }
+    }
+
+    @Override
+    public long increment(String fName, String section, String key, long delta) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.increment(fName, section, key, delta);
+        }
+
+        synchronized (idx) {
+            long value = backing.increment(fName, section, key, delta);
+
+            if (idx.loaded) {
+                idx.put(key, value);
+            }
+
+            return value;
+        }
+    }
+
+    @Override
+    public long[] incrementBatch(String fName, String section, String[] keys, long[] deltas) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.incrementBatch(fName, section, keys, deltas);
+        }
+
+        synchronized (idx) {
+            long[] values = backing.incrementBatch(fName, section, keys, deltas);
+
+            if (idx.loaded) {
+                for (int i = 0; i < keys.length; i++) {
+                    idx.put(keys[i], values[i]);
+                }
+            }
+
+            return values;
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(String fName, String section, String key, String expected, String newValue) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            return backing.compareAndSet(fName, section, key, expected, newValue);
+        }
+
+        synchronized (idx) {
+            boolean changed = backing.compareAndSet(fName, section, key, expected, newValue);
+
+            if (changed && idx.loaded) {
+                idx.put(key, parse(newValue));
+            }
+
+            return changed;
+        }
+    }
+
+    @Override
+    public void RemoveKey(String fName, String section, String key) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.RemoveKey(fName, section, key);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.RemoveKey(fName, section, key);
+            idx.remove(key);
+        }
+    }
+
+    @Override
+    public void RemoveSection(String fName, String section) {
+        RankIndex idx = index(fName, section);
+
+        if (idx == null) {
+            backing.RemoveSection(fName, section);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.RemoveSection(fName, section);
+            idx.clear();
+        }
+    }
+
+    @Override
+    public void AddFile(String fName) {
+        backing.AddFile(fName);
+    }
+
+    @Override
+    public void AddNumericFile(String fName, boolean isReal) {
+        backing.AddNumericFile(fName, isReal);
+    }
+
+    @Override
+    public boolean IsNumericFile(String fName) {
+        return backing.IsNumericFile(fName);
+    }
+
+    @Override
+    public void RemoveFile(String fName) {
+        RankIndex idx = index(fName, "");
+
+        if (idx == null) {
+            backing.RemoveFile(fName);
+            return;
+        }
+
+        synchronized (idx) {
+            backing.RemoveFile(fName);
+            idx.clear();
+        }
+    }
+
+    @Override
+    public void RenameFile(String fNameSource, String fNameDest) {
+        backing.RenameFile(fNameSource, fNameDest);
+
+        for (String fName : new String[]{fNameSource, fNameDest}) {
+            RankIndex idx = index(fName, "");
+
+            if (idx != null) {
+                synchronized (idx) {
+                    idx.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean FileExists(String fName) {
+        return backing.FileExists(fName);
+    }
+
+    @Override
+    public void CreateIndexes() {
+        backing.CreateIndexes();
+    }
+
+    @Override
+    public void DropIndexes() {
+        backing.DropIndexes();
+    }
+
+    @Override
+    public boolean CanConnect() {
+        return backing.CanConnect();
+    }
+
+    @Override
+    public boolean CanConnect(String db, String user, String pass) {
+        return backing.CanConnect(db, user, pass);
+    }
+
+    @Override
+    public boolean canBackup() {
+        return backing.canBackup();
+    }
+
+    @Override
+    public void backupDB(String filename) {
+        backing.backupDB(filename);
+    }
+
+    @Override
+    public void dispose() {
+        backing.dispose();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001.httpwsserver;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking work, such as datastore queries, for HTTP/WS sessions outside of the Netty event loop
+ *
+ * Tasks submitted for the same {@link Channel} are run one at a time, in the order they were submitted. Tasks for different channels run in
+ * parallel on a fixed pool of worker threads. Each channel may only have a limited number of tasks waiting, and the total number of waiting tasks
+ * across all channels is also limited. Submissions over either limit are rejected immediately so that the event loop never has to wait
+ */
+public final class BlockingTaskExecutor {
+
+    /**
+     * Represents the {@code ATTR_TASK_QUEUE} attribute, holding the ordered task queue of a channel
+     */
+    private static final AttributeKey<ChannelQueue> ATTR_TASK_QUEUE = AttributeKey.valueOf("blockingTaskQueue");
+    /**
+     * The maximum number of tasks a channel runs before giving the worker up to another channel
+     */
+    private static final int DRAIN_BATCH = 16;
+    private final ThreadPoolExecutor pool;
+    private final int maxQueued;
+    private final int maxQueuedPerChannel;
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicInteger maxQueuedSeen = new AtomicInteger(0);
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejectedChannel = new LongAdder();
+    private final LongAdder rejectedGlobal = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxRunNanos = new AtomicLong(0);
+
+    /**
+     * Constructor
+     *
+     * @param threads The number of worker threads
+     * @param maxQueued The maximum number of waiting tasks across all channels
+     * @param maxQueuedPerChannel The maximum number of waiting tasks for a single channel
+     */
+    BlockingTaskExecutor(int threads, int maxQueued, int maxQueuedPerChannel) {
+        this.maxQueued = Math.max(1, maxQueued);
+        this.maxQueuedPerChannel = Math.max(1, maxQueuedPerChannel);
+        AtomicInteger threadNum = new AtomicInteger(0);
+        /**
+         * The pool queue holds at most one drain task per channel, the waiting tasks themselves are bounded by the queued counters
+         */
+        this.pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (r) -> {
+            Thread t = new Thread(r, "com.gmt2001.httpwsserver.BlockingTaskExecutor::worker-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a task to run after all previously submitted tasks of the same channel
+     *
+     * @param channel The {@link Channel} the task belongs to
+     * @param task The task to run
+     * @return {@code true} if the task was queued; {@code false} if it was rejected because a queue limit was reached or the executor is shut down
+     */
+    public boolean submit(Channel channel, Runnable task) {
+        if (this.pool.isShutdown()) {
+            this.rejectedGlobal.increment();
+            return false;
+        }
+
+        ChannelQueue cq = channel.attr(ATTR_TASK_QUEUE).get();
+
+        if (cq == null) {
+            ChannelQueue newCq = new ChannelQueue();
+            cq = channel.attr(ATTR_TASK_QUEUE).setIfAbsent(newCq);
+
+            if (cq == null) {
+                cq = newCq;
+            }
+        }
+
+        if (cq.size.incrementAndGet() > this.maxQueuedPerChannel) {
+            cq.size.decrementAndGet();
+            this.rejectedChannel.increment();
+            return false;
+        }
+
+        int depth = this.queued.incrementAndGet();
+
+        if (depth > this.maxQueued) {
+            this.queued.decrementAndGet();
+            cq.size.decrementAndGet();
+            this.rejectedGlobal.increment();
+            return false;
+        }
+
+        this.maxQueuedSeen.accumulateAndGet(depth, Math::max);
+        this.submitted.increment();
+        cq.tasks.add(new Task(task));
+        cq.schedule();
+        return true;
+    }
+
+    /**
+     * Returns the number of tasks currently waiting to run, across all channels
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    /**
+     * Returns the number of worker threads currently running a task
+     *
+     * @return The number of active workers
+     */
+    public int getActiveCount() {
+        return this.pool.getActiveCount();
+    }
+
+    /**
+     * Returns a human readable summary of the executor metrics
+     *
+     * @return The metrics
+     */
+    public String getStats() {
+        long done = this.completed.sum() + this.failed.sum();
+        long avgWait = done == 0 ? 0 : this.totalWaitNanos.sum() / done;
+        long avgRun = done == 0 ? 0 : this.totalRunNanos.sum() / done;
+
+        return String.format("Workers: %d/%d active, Queue: %d (peak %d, limit %d, per client %d), Submitted: %d, Completed: %d, Failed: %d, "
+                + "Rejected: %d client limit / %d global limit, Wait: avg %.2fms max %.2fms, Run: avg %.2fms max %.2fms",
+                this.pool.getActiveCount(), this.pool.getMaximumPoolSize(), this.queued.get(), this.maxQueuedSeen.get(), this.maxQueued,
+                this.maxQueuedPerChannel, this.submitted.sum(), this.completed.sum(), this.failed.sum(), this.rejectedChannel.sum(),
+                this.rejectedGlobal.sum(), avgWait / 1e6, this.maxWaitNanos.get() / 1e6, avgRun / 1e6, this.maxRunNanos.get() / 1e6);
+    }
+
+    /**
+     * Stops accepting tasks and waits briefly for the queued ones to finish
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of {@code timeout}
+     */
+    void shutdown(long timeout, TimeUnit unit) {
+        this.pool.shutdown();
+
+        try {
+            this.pool.awaitTermination(timeout, unit);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A submitted task and the time it was queued
+     */
+    private static final class Task {
+
+        private final Runnable runnable;
+        private final long queuedAt = System.nanoTime();
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * The ordered task queue of a single channel
+     *
+     * At most one worker drains a given queue at a time, which is what guarantees the per-channel ordering
+     */
+    private final class ChannelQueue implements Runnable {
+
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    this.scheduled.set(false);
+                    this.discard();
+                }
+            }
+        }
+
+        private void discard() {
+            while (this.tasks.poll() != null) {
+                this.size.decrementAndGet();
+                queued.decrementAndGet();
+                rejectedGlobal.increment();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < DRAIN_BATCH; i++) {
+                    Task task = this.tasks.poll();
+
+                    if (task == null) {
+                        break;
+                    }
+
+                    this.size.decrementAndGet();
+                    queued.decrementAndGet();
+
+                    long start = System.nanoTime();
+                    long wait = start - task.queuedAt;
+                    totalWaitNanos.add(wait);
+                    maxWaitNanos.accumulateAndGet(wait, Math::max);
+
+                    try {
+                        task.runnable.run();
+                        completed.increment();
+                    } catch (Exception ex) {
+                        failed.increment();
+                        com.gmt2001.Console.err.printStackTrace(ex);
+                    } finally {
+                        long run = System.nanoTime() - start;
+                        totalRunNanos.add(run);
+                        maxRunNanos.accumulateAndGet(run, Math::max);
+                    }
+                }
+            } finally {
+                this.scheduled.set(false);
+
+                if (!this.tasks.isEmpty()) {
+                    this.schedule();
+                }
+            }
+        }
+    }
+}
@@ -68,6 +68,10 @@ public final class HTTPWSServer {
      * The server's listen {@link Channel}
      */
     private Channel ch;
+    /**
+     * The executor for blocking work requested by HTTP/WS sessions
+     */
+    private volatile BlockingTaskExecutor blockingExecutor = null;
 
     public boolean sslEnabled = false;
     private boolean autoSSL = false;
@@ -282,12 +286,39 @@ public final class HTTPWSServer {
                 || !(path.startsWith("/config") && !path.startsWith("/config/audio-hooks") && !path.startsWith("/config/gif-alerts"));
     }
 
+    /**
+     * Gets the executor for blocking work, such as datastore queries, that must not run on the event loop
+     *
+     * The executor is created on first use and sized by the {@code wsdbthreads}, {@code wsdbqueue} and {@code wsdbclientqueue} properties
+     *
+     * @return The {@link BlockingTaskExecutor}
+     */
+    public BlockingTaskExecutor getBlockingExecutor() {
+        if (this.blockingExecutor == null) {
+            synchronized (this) {
+                if (this.blockingExecutor == null) {
+                    this.blockingExecutor = new BlockingTaskExecutor(
+                            Integer.parseInt(PhantomBot.instance().getProperties().getProperty("wsdbthreads", "4")),
+                            Integer.parseInt(PhantomBot.instance().getProperties().getProperty("wsdbqueue", "2000")),
+                            Integer.parseInt(PhantomBot.instance().getProperties().getProperty("wsdbclientqueue", "250")));
+                }
+            }
+        }
+
+        return this.blockingExecutor;
+    }
+
     /**
      * Shuts down the server, with a grace period for ongoing requests to finish
      */
     public void close() {
         WebSocketFrameHandler.closeAllWsSessions();
         ch.close().awaitUninterruptibly(5, TimeUnit.SECONDS);
+
+        if (this.blockingExecutor != null) {
+            this.blockingExecutor.shutdown(5, TimeUnit.SECONDS);
+        }
+
         group.shutdownGracefully(3, 5, TimeUnit.SECONDS);
     }
 }
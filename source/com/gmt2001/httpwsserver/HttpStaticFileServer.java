@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmt2001.httpwsserver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends static files, such as the panel, overlays, audio hooks, and GIF alerts, to HTTP clients
+ *
+ * Small files are kept in a memory-bounded cache, along with a gzip variant for text files, and are checked against the file on disk at most once
+ * a second. Larger files are sent with zero-copy {@link DefaultFileRegion} transfers, or {@link ChunkedNioFile} when SSL is in use. Responses carry
+ * an {@code ETag} and {@code Last-Modified}, and conditional and single {@code Range} requests are answered with {@code 304} and {@code 206}.
+ * Disk access happens on the {@link BlockingTaskExecutor}, never on the event loop
+ */
+public final class HttpStaticFileServer {
+
+    /**
+     * Files up to this size are cached in memory
+     */
+    private static final int MAX_CACHED_FILE_SIZE = 256 * 1024;
+    /**
+     * Memory bound of the cache, including gzip variants
+     */
+    private static final long MAX_CACHE_BYTES = 32L * 1024L * 1024L;
+    /**
+     * How long a cached entry is trusted before the file is checked for changes again
+     */
+    private static final long RECHECK_MILLIS = 1000L;
+    /**
+     * Text files smaller than this aren't worth compressing
+     */
+    private static final int MIN_GZIP_SIZE = 1024;
+    /**
+     * Extensions of the text files that get a gzip variant
+     */
+    private static final Set<String> COMPRESSIBLE = Set.of("htm", "html", "css", "less", "scss", "js", "javascript", "json", "map", "svg", "xml",
+            "md", "txt", "coffee");
+    private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+    /**
+     * The cache, least recently used first. Guarded by itself
+     */
+    private static final LinkedHashMap<Path, Entry> CACHE = new LinkedHashMap<>(256, 0.75f, true);
+    private static long cacheBytes = 0;
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder NOT_MODIFIED = new LongAdder();
+    private static final LongAdder PARTIAL = new LongAdder();
+    private static final LongAdder GZIPPED = new LongAdder();
+    private static final LongAdder FROM_DISK = new LongAdder();
+
+    private HttpStaticFileServer() {
+    }
+
+    /**
+     * Sends the file pointed to by {@code p} to the client
+     *
+     * The caller is expected to have already checked that the path is allowed and the file is readable, see
+     * {@link HttpServerPageHandler#checkFilePermissions}
+     *
+     * @param ctx The {@link ChannelHandlerContext} of the session
+     * @param req The {@link FullHttpRequest} containing the request
+     * @param p The {@link Path} to the file
+     */
+    public static void sendFile(ChannelHandlerContext ctx, FullHttpRequest req, Path p) {
+        Path key = p.toAbsolutePath().normalize();
+        Entry entry;
+
+        synchronized (CACHE) {
+            entry = CACHE.get(key);
+        }
+
+        if (entry != null && System.currentTimeMillis() - entry.checkedAt < RECHECK_MILLIS) {
+            HITS.increment();
+            respond(ctx, req, key, entry);
+            return;
+        }
+
+        Entry stale = entry;
+        req.retain();
+
+        boolean queued = HTTPWSServer.instance().getBlockingExecutor().submit(ctx.channel(), () -> {
+            try {
+                respond(ctx, req, key, load(key, stale));
+            } catch (IOException ex) {
+                com.gmt2001.Console.debug.println("500: " + key.toString());
+                com.gmt2001.Console.debug.printStackTrace(ex);
+                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, null));
+            } finally {
+                req.release();
+            }
+        });
+
+        if (!queued) {
+            req.release();
+            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, null, null));
+        }
+    }
+
+    /**
+     * Loads the text files under {@code root} into the cache and compresses them, so the first requests after startup are already served from
+     * memory. Runs in the background
+     *
+     * @param root The directory to walk
+     */
+    public static void precompress(Path root) {
+        Thread t = new Thread(() -> {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(f -> Files.isRegularFile(f, LinkOption.NOFOLLOW_LINKS) && isCompressible(f.getFileName().toString())).forEach(f -> {
+                    try {
+                        load(f.toAbsolutePath().normalize(), null);
+                    } catch (IOException ex) {
+                        com.gmt2001.Console.debug.printStackTrace(ex);
+                    }
+                });
+            } catch (IOException ex) {
+                com.gmt2001.Console.debug.printStackTrace(ex);
+            }
+        }, "HttpStaticFileServer-precompress");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns the cache size and how requests were answered
+     *
+     * @return The stats
+     */
+    public static String getStats() {
+        synchronized (CACHE) {
+            return "Static files: cached=" + CACHE.size() + " bytes=" + cacheBytes + " hits=" + HITS.sum() + " misses=" + MISSES.sum()
+                    + " notModified=" + NOT_MODIFIED.sum() + " partial=" + PARTIAL.sum() + " gzip=" + GZIPPED.sum() + " fromDisk=" + FROM_DISK.sum();
+        }
+    }
+
+    /**
+     * Checks the file on disk, and returns the cached entry if it is unchanged, or a new entry otherwise
+     */
+    private static Entry load(Path key, Entry stale) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        long mtime = attrs.lastModifiedTime().toMillis();
+
+        if (stale != null && stale.mtime == mtime && stale.size == attrs.size()) {
+            HITS.increment();
+            stale.checkedAt = System.currentTimeMillis();
+            return stale;
+        }
+
+        MISSES.increment();
+        String fileName = key.getFileName().toString();
+        Entry entry = new Entry(mtime, attrs.size(), HttpServerPageHandler.detectContentType(fileName));
+
+        if (attrs.size() <= MAX_CACHED_FILE_SIZE) {
+            entry.content = Files.readAllBytes(key);
+
+            if (entry.content.length >= MIN_GZIP_SIZE && isCompressible(fileName)) {
+                byte[] gzip = gzip(entry.content);
+
+                if (gzip.length < entry.content.length) {
+                    entry.gzip = gzip;
+                }
+            }
+        }
+
+        synchronized (CACHE) {
+            Entry old = CACHE.put(key, entry);
+
+            if (old != null) {
+                cacheBytes -= old.bytes();
+            }
+
+            cacheBytes += entry.bytes();
+
+            Iterator<Entry> it = CACHE.values().iterator();
+            while (cacheBytes > MAX_CACHE_BYTES && it.hasNext()) {
+                cacheBytes -= it.next().bytes();
+                it.remove();
+            }
+        }
+
+        return entry;
+    }
+
+    private static void respond(ChannelHandlerContext ctx, FullHttpRequest req, Path key, Entry entry) {
+        HttpHeaders headers = req.headers();
+        boolean isHead = req.method().equals(HttpMethod.HEAD);
+
+        if (isNotModified(headers, entry)) {
+            NOT_MODIFIED.increment();
+            FullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
+            setCacheHeaders(res, entry);
+            send(ctx, req, res, null);
+            return;
+        }
+
+        long start = 0;
+        long length = entry.size;
+        String range = headers.get(HttpHeaderNames.RANGE);
+        String ifRange = headers.get(HttpHeaderNames.IF_RANGE);
+        HttpResponseStatus status = HttpResponseStatus.OK;
+
+        if (range != null && (ifRange == null || ifRange.equals(entry.etag))) {
+            Matcher m = RANGE.matcher(range.trim());
+
+            // Multiple ranges are allowed to be answered with the whole file
+            if (m.matches() && !(m.group(1).isEmpty() && m.group(2).isEmpty())) {
+                long end = entry.size - 1;
+
+                try {
+                    if (m.group(1).isEmpty()) {
+                        start = Math.max(0, entry.size - Long.parseLong(m.group(2)));
+                    } else {
+                        start = Long.parseLong(m.group(1));
+
+                        if (!m.group(2).isEmpty()) {
+                            end = Math.min(end, Long.parseLong(m.group(2)));
+                        }
+                    }
+                } catch (NumberFormatException ex) {
+                    start = entry.size;
+                }
+
+                if (start >= entry.size || end < start) {
+                    FullHttpResponse res = HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, null, null);
+                    res.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + entry.size);
+                    HttpServerPageHandler.sendHttpResponse(ctx, req, res);
+                    return;
+                }
+
+                PARTIAL.increment();
+                status = HttpResponseStatus.PARTIAL_CONTENT;
+                length = end - start + 1;
+            }
+        }
+
+        boolean useGzip = status == HttpResponseStatus.OK && entry.gzip != null && acceptsGzip(headers);
+
+        if (entry.content != null || isHead) {
+            if (useGzip) {
+                length = entry.gzip.length;
+            }
+
+            FullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, isHead ? Unpooled.EMPTY_BUFFER
+                    : Unpooled.wrappedBuffer(useGzip ? entry.gzip : entry.content, (int) start, (int) length));
+            setCacheHeaders(res, entry);
+            setContentHeaders(res, entry, status, start, length);
+
+            if (useGzip) {
+                GZIPPED.increment();
+                res.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
+
+            send(ctx, req, res, null);
+            return;
+        }
+
+        FROM_DISK.increment();
+        HttpResponse res = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        setCacheHeaders(res, entry);
+        setContentHeaders(res, entry, status, start, length);
+
+        try {
+            Object body;
+
+            if (ctx.pipeline().get(SslHandler.class) == null) {
+                body = new DefaultFileRegion(key.toFile(), start, length);
+            } else {
+                body = new HttpChunkedInput(new ChunkedNioFile(FileChannel.open(key, StandardOpenOption.READ), start, length, 8192));
+            }
+
+            send(ctx, req, res, body);
+        } catch (IOException ex) {
+            com.gmt2001.Console.debug.println("500: " + key.toString());
+            com.gmt2001.Console.debug.printStackTrace(ex);
+            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, null));
+        }
+    }
+
+    private static boolean isNotModified(HttpHeaders headers, Entry entry) {
+        String ifNoneMatch = headers.get(HttpHeaderNames.IF_NONE_MATCH);
+
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+
+                if (tag.equals("*") || tag.equals(entry.etag) || tag.equals("W/" + entry.etag)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        String ifModifiedSinceHeader = headers.get(HttpHeaderNames.IF_MODIFIED_SINCE);
+
+        if (ifModifiedSinceHeader == null) {
+            return false;
+        }
+
+        Date ifModifiedSince = DateFormatter.parseHttpDate(ifModifiedSinceHeader);
+        return ifModifiedSince != null && entry.mtime / 1000L <= ifModifiedSince.getTime() / 1000L;
+    }
+
+    private static boolean acceptsGzip(HttpHeaders headers) {
+        String acceptEncoding = headers.get(HttpHeaderNames.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    private static void setCacheHeaders(HttpResponse res, Entry entry) {
+        res.headers().set(HttpHeaderNames.ETAG, entry.etag);
+        res.headers().set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(entry.mtime)));
+        // Browsers may keep the file, but must revalidate it, which is a cheap 304 when it didn't change
+        res.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+
+        if (entry.gzip != null) {
+            res.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+    }
+
+    private static void setContentHeaders(HttpResponse res, Entry entry, HttpResponseStatus status, long start, long length) {
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, entry.contentType);
+        res.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        HttpUtil.setContentLength(res, length);
+
+        if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+            res.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + entry.size);
+        }
+    }
+
+    /**
+     * Writes the response, followed by {@code body} if it isn't part of the response itself, and handles keep-alive
+     */
+    private static void send(ChannelHandlerContext ctx, FullHttpRequest req, HttpResponse res, Object body) {
+        boolean keepAlive = HttpUtil.isKeepAlive(req);
+
+        if (!keepAlive) {
+            res.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        } else if (req.protocolVersion().equals(HttpVersion.HTTP_1_0)) {
+            res.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+
+        ChannelFuture f;
+
+        if (body == null) {
+            f = ctx.writeAndFlush(res);
+        } else if (body instanceof HttpChunkedInput) {
+            // The chunked input ends with its own LastHttpContent
+            ctx.write(res);
+            f = ctx.writeAndFlush(body);
+        } else {
+            ctx.write(res);
+            ctx.write(body);
+            f = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+
+        if (!keepAlive) {
+            f.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static boolean isCompressible(String fileName) {
+        String ext = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+        return COMPRESSIBLE.contains(ext);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 2);
+
+        try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+            gos.write(content);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * A file as it was the last time it was read from disk
+     */
+    private static final class Entry {
+
+        final long mtime;
+        final long size;
+        final String etag;
+        final String contentType;
+        byte[] content;
+        byte[] gzip;
+        volatile long checkedAt;
+
+        Entry(long mtime, long size, String contentType) {
+            this.mtime = mtime;
+            this.size = size;
+            this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(mtime) + "\"";
+            this.contentType = contentType;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        long bytes() {
+            return (this.content == null ? 0 : this.content.length) + (this.gzip == null ? 0 : this.gzip.length);
+        }
+    }
+}
@@ -17,12 +17,14 @@
 package com.gmt2001.httpwsserver;
 
 import com.gmt2001.httpwsserver.auth.WsAuthenticationHandler;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
@@ -30,10 +32,13 @@ import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler.HandshakeComplete;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
@@ -53,9 +58,26 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
      */
     public static final AttributeKey<String> ATTR_URI = AttributeKey.valueOf("uri");
     /**
-     * Represents a {@link Queue} containing all current WS Sessions
+     * Represents the {@code ATTR_UNWRITABLE_SINCE} attribute, holding the {@link System#nanoTime()} at which the session's write buffer went over
+     * the high water mark
      */
-    private static final Queue<Channel> WS_SESSIONS = new ConcurrentLinkedQueue<>();
+    private static final AttributeKey<Long> ATTR_UNWRITABLE_SINCE = AttributeKey.valueOf("unwritableSince");
+    /**
+     * The default write buffer water marks of a session
+     */
+    private static final WriteBufferWaterMark DEFAULT_WATER_MARK = new WriteBufferWaterMark(32 * 1024, 256 * 1024);
+    /**
+     * How long a session may stay over its high water mark before broadcasts close it
+     */
+    private static final long EVICT_AFTER_NANOS = TimeUnit.SECONDS.toNanos(15);
+    /**
+     * A {@link ChannelGroup} containing all current WS Sessions
+     */
+    private static final ChannelGroup WS_SESSIONS = new DefaultChannelGroup("ws-sessions", GlobalEventExecutor.INSTANCE);
+    /**
+     * The WS Sessions of each {@link WsFrameHandler} URI
+     */
+    private static final Map<String, WsGroup> WS_GROUPS = new ConcurrentHashMap<>();
 
     /**
      * Default Constructor
@@ -111,14 +133,31 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
                 com.gmt2001.Console.debug.println("200 WS: " + hc.requestUri() + "   Remote: [" + ctx.channel().remoteAddress().toString() + "]");
                 ctx.channel().attr(ATTR_URI).set(ruri);
                 ctx.channel().attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).setIfAbsent(Boolean.FALSE);
-                ctx.channel().closeFuture().addListener((ChannelFutureListener) (ChannelFuture f) -> {
-                    WS_SESSIONS.remove(f.channel());
-                });
+                WsGroup group = getWsGroup(ruri);
+                ctx.channel().config().setWriteBufferWaterMark(group.waterMark);
                 WS_SESSIONS.add(ctx.channel());
+                group.channels.add(ctx.channel());
             }
         }
     }
 
+    /**
+     * Tracks when the session's write buffer goes over, and back under, its water marks
+     *
+     * @param ctx The {@link ChannelHandlerContext} of the session
+     * @throws Exception Passes any thrown exceptions up the stack
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            ctx.channel().attr(ATTR_UNWRITABLE_SINCE).set(null);
+        } else {
+            ctx.channel().attr(ATTR_UNWRITABLE_SINCE).setIfAbsent(System.nanoTime());
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     /**
      * Handles exceptions that are thrown up the stack
      *
@@ -161,7 +200,7 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
      * @return A {@link WebSocketFrame} that is ready to transmit
      */
     public static WebSocketFrame prepareTextWebSocketResponse(String content) {
-        return new TextWebSocketFrame(content);
+        return new TextWebSocketFrame(ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, content));
     }
 
     /**
@@ -171,7 +210,7 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
      * @return A {@link WebSocketFrame} that is ready to transmit
      */
     public static WebSocketFrame prepareTextWebSocketResponse(JSONObject json) {
-        return new TextWebSocketFrame(json.toString());
+        return prepareTextWebSocketResponse(json.toString());
     }
 
     /**
@@ -181,7 +220,7 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
      * @return A {@link WebSocketFrame} that is ready to transmit
      */
     public static WebSocketFrame prepareBinaryWebSocketResponse(byte[] content) {
-        return new BinaryWebSocketFrame(Unpooled.copiedBuffer(content));
+        return new BinaryWebSocketFrame(ByteBufAllocator.DEFAULT.buffer(content.length).writeBytes(content));
     }
 
     /**
@@ -219,47 +258,71 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
     /**
      * Transmits a {@link WebSocketFrame} to all authenticated clients
      *
+     * The payload is shared between all clients and {@code resframe} is released once it has been queued to them, so it must not be used
+     * afterwards
+     *
      * @param resframe The {@link WebSocketFrame} to transmit
      */
     public static void broadcastWsFrame(WebSocketFrame resframe) {
-        WS_SESSIONS.forEach((c) -> {
-            if (c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get()) {
-                c.writeAndFlush(resframe.copy());
-            }
-        });
+        WS_SESSIONS.writeAndFlush(resframe, (c) -> isBroadcastTarget(c, getWsGroup(c.attr(ATTR_URI).get())));
     }
 
     /**
      * Transmits a {@link WebSocketFrame} to all authenticated clients that are connected to a specific URI
      *
+     * The payload is shared between all clients and {@code resframe} is released once it has been queued to them, so it must not be used
+     * afterwards. Clients whose write buffer is over the high water mark are skipped, and closed if they stay that way for too long
+     *
      * @param uri The URI to filter clients by for the broadcast
      * @param resframe The {@link WebSocketFrame} to transmit
      */
     public static void broadcastWsFrame(String uri, WebSocketFrame resframe) {
-        com.gmt2001.Console.debug.println("Broadcasting frame to Uri [" + uri + "]");
-        WS_SESSIONS.forEach((c) -> {
-            if (c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get() && c.attr(ATTR_URI).get().equals(uri)) {
-                com.gmt2001.Console.debug.println("Broadcast to client [" + c.remoteAddress().toString() + "]");
-                c.writeAndFlush(resframe.copy());
-            } else {
-                com.gmt2001.Console.debug.println("Did not broadcast to client [" + c.remoteAddress().toString() + "] Authenticated: " + (c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get() ? "t" : "f") + "   Uri: " + c.attr(ATTR_URI).get() + "   Uri match: " + (c.attr(ATTR_URI).get().equals(uri) ? "t" : "f"));
-            }
-        });
+        WsGroup group = getWsGroup(uri);
+        com.gmt2001.Console.debug.println("Broadcasting frame to Uri [" + uri + "] Sessions: " + group.channels.size());
+        group.broadcasts.increment();
+        group.channels.writeAndFlush(resframe, (c) -> isBroadcastTarget(c, group));
     }
 
-    static void closeAllWsSessions() {
-        WebSocketFrame resframe = WebSocketFrameHandler.prepareCloseWebSocketFrame(WebSocketCloseStatus.ENDPOINT_UNAVAILABLE);
-        WS_SESSIONS.forEach((c) -> {
-            c.writeAndFlush(resframe.copy());
+    /**
+     * Decides if a session should receive a broadcast
+     *
+     * @param c The session
+     * @param group The {@link WsGroup} of the session
+     * @return {@code true} if the session is authenticated and able to take more data
+     */
+    private static boolean isBroadcastTarget(Channel c, WsGroup group) {
+        if (!Boolean.TRUE.equals(c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get())) {
+            return false;
+        }
+
+        if (c.isWritable()) {
+            group.delivered.increment();
+            return true;
+        }
+
+        group.dropped.increment();
+        Long since = c.attr(ATTR_UNWRITABLE_SINCE).get();
+
+        if (since != null && System.nanoTime() - since > EVICT_AFTER_NANOS && c.isActive()) {
+            com.gmt2001.Console.debug.println("Closing slow WS client [" + c.remoteAddress() + "] Uri: " + group.uri);
+            group.evicted.increment();
+            c.writeAndFlush(prepareCloseWebSocketFrame(WebSocketCloseStatus.POLICY_VIOLATION));
             c.close();
-        });
+        }
+
+        return false;
+    }
+
+    static void closeAllWsSessions() {
+        WS_SESSIONS.writeAndFlush(WebSocketFrameHandler.prepareCloseWebSocketFrame(WebSocketCloseStatus.ENDPOINT_UNAVAILABLE));
+        WS_SESSIONS.close();
     }
 
     public static Queue<Channel> getWsSessions(String uri) {
         Queue<Channel> sessions = new ConcurrentLinkedQueue<>();
 
-        WS_SESSIONS.forEach((c) -> {
-            if (c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get() && c.attr(ATTR_URI).get().equals(uri)) {
+        getWsGroup(uri).channels.forEach((c) -> {
+            if (Boolean.TRUE.equals(c.attr(WsAuthenticationHandler.ATTR_AUTHENTICATED).get())) {
                 sessions.add(c);
             }
         });
@@ -267,6 +330,46 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
         return sessions;
     }
 
+    /**
+     * Sets the write buffer water marks used by the sessions of a URI
+     *
+     * Sessions that are already connected keep their current water marks
+     *
+     * @param uri The URI of the {@link WsFrameHandler}
+     * @param low The low water mark, in bytes
+     * @param high The high water mark, in bytes. Broadcasts skip sessions that have more than this pending
+     */
+    public static void setWsWriteBufferWaterMark(String uri, int low, int high) {
+        getWsGroup(uri).waterMark = new WriteBufferWaterMark(low, high);
+    }
+
+    /**
+     * Returns a human readable summary of the broadcast metrics of each URI
+     *
+     * @return The metrics
+     */
+    public static String getWsBroadcastStats() {
+        StringBuilder sb = new StringBuilder();
+
+        WS_GROUPS.values().forEach((g) -> {
+            sb.append(String.format("%s: Sessions: %d, Broadcasts: %d, Delivered: %d, Dropped (slow): %d, Closed (slow): %d, Water marks: %d/%d%n",
+                    g.uri, g.channels.size(), g.broadcasts.sum(), g.delivered.sum(), g.dropped.sum(), g.evicted.sum(), g.waterMark.low(),
+                    g.waterMark.high()));
+        });
+
+        return sb.length() == 0 ? "No WS sessions yet" : sb.toString().trim();
+    }
+
+    /**
+     * Gets, or creates, the {@link WsGroup} of a URI
+     *
+     * @param uri The URI of the {@link WsFrameHandler}
+     * @return The {@link WsGroup}
+     */
+    private static WsGroup getWsGroup(String uri) {
+        return WS_GROUPS.computeIfAbsent(uri == null ? "" : uri, WsGroup::new);
+    }
+
     /**
      * Registers a WS URI path to a {@link WsFrameHandler}
      *
@@ -296,4 +399,24 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
         wsFrameHandlers.remove(path);
     }
 
+    /**
+     * The sessions connected to a single {@link WsFrameHandler} URI
+     *
+     * Closed sessions are removed from the {@link ChannelGroup} automatically
+     */
+    private static final class WsGroup {
+
+        private final String uri;
+        private final ChannelGroup channels;
+        private volatile WriteBufferWaterMark waterMark = DEFAULT_WATER_MARK;
+        private final LongAdder broadcasts = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder evicted = new LongAdder();
+
+        private WsGroup(String uri) {
+            this.uri = uri;
+            this.channels = new DefaultChannelGroup("ws-" + uri, GlobalEventExecutor.INSTANCE);
+        }
+    }
 }
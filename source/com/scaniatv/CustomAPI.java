@@ -21,11 +21,33 @@ package com.scaniatv;
 import com.gmt2001.HttpRequest;
 import com.gmt2001.HttpResponse;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class CustomAPI {
     private static CustomAPI instance;
+    // The most a response is kept for, even when the API asks for longer.
+    private static final long MAX_TTL = 10 * 60 * 1000L;
+    // Memory bound of the cache, counting two bytes per character of content.
+    private static final long MAX_CACHE_BYTES = 8 * 1024 * 1024L;
+    private static final int MAX_ENTRY_BYTES = 512 * 1024;
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    // Least recently used first.
+    private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<CacheEntry>> inFlight = new ConcurrentHashMap<>();
+    private long cacheBytes = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder shared = new LongAdder();
 
     /*
      * Method to the this instance.
@@ -109,4 +131,193 @@ public class CustomAPI {
     public HttpResponse del(String url, String content) {
         return HttpRequest.getData(HttpRequest.RequestType.DELETE, url, content, new HashMap<String, String>());
     }
+
+    /*
+     * Method to get data from an API, using a cached response if it is still fresh. Responses are kept for the max-age the API
+     * sends and revalidated with their ETag or Last-Modified once they expire. Responses without a max-age are never fresh, so
+     * they are fetched again every time, or only revalidated if they have an ETag or Last-Modified. Requests for a URL that is
+     * already being fetched wait on that fetch instead of sending their own.
+     *
+     * @param  {String} url
+     * @return {HttpResponse}
+     */
+    public HttpResponse getCached(String url) {
+        return fetchCached(url).response;
+    }
+
+    /*
+     * Method to get a JSON Object from an API, cached the same way as getCached. The object is parsed once per response and
+     * shared, so it must not be modified.
+     *
+     * @param  {String} url
+     * @return {JSONObject}
+     */
+    public JSONObject getCachedJSON(String url) throws JSONException {
+        CacheEntry entry = fetchCached(url);
+
+        synchronized (entry) {
+            if (entry.json == null) {
+                // Error bodies are parsed too, like the uncached requests always did.
+                entry.json = new JSONObject(entry.response.content == null ? "" : entry.response.content);
+            }
+
+            return entry.json;
+        }
+    }
+
+    /*
+     * Method to get the hit rate and size of the cache.
+     *
+     * @return {String}
+     */
+    public String getCacheStats() {
+        synchronized (cache) {
+            return "CustomAPI cache: entries=" + cache.size() + " bytes=" + cacheBytes + " hits=" + hits.sum() + " misses=" + misses.sum()
+                    + " revalidated=" + revalidated.sum() + " shared=" + shared.sum() + " inflight=" + inFlight.size();
+        }
+    }
+
+    private CacheEntry fetchCached(String url) {
+        CacheEntry cached;
+
+        synchronized (cache) {
+            cached = cache.get(url);
+        }
+
+        if (cached != null && cached.expires > System.currentTimeMillis()) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<CacheEntry> future = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> existing = inFlight.putIfAbsent(url, future);
+
+        if (existing != null) {
+            shared.increment();
+            return existing.join();
+        }
+
+        misses.increment();
+
+        try {
+            CacheEntry entry = fetch(url, cached);
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(url, future);
+        }
+    }
+
+    private CacheEntry fetch(String url, CacheEntry stale) {
+        HashMap<String, String> headers = new HashMap<>();
+
+        if (stale != null) {
+            if (stale.etag != null) {
+                headers.put("If-None-Match", stale.etag);
+            }
+
+            if (stale.lastModified != null) {
+                headers.put("If-Modified-Since", stale.lastModified);
+            }
+        }
+
+        HttpResponse response = HttpRequest.getData(HttpRequest.RequestType.GET, url, "", headers);
+        long ttl = ttl(response);
+
+        if (stale != null && response.httpCode == 304) {
+            revalidated.increment();
+            stale.expires = System.currentTimeMillis() + Math.max(0, ttl);
+            store(url, stale);
+            return stale;
+        }
+
+        CacheEntry entry = new CacheEntry(response, System.currentTimeMillis() + Math.max(0, ttl));
+
+        if (response.responseHeaders != null) {
+            entry.etag = response.responseHeaders.get("ETag");
+            entry.lastModified = response.responseHeaders.get("Last-Modified");
+        }
+
+        // Failed requests are retried the next time, and huge responses aren't worth evicting everything else for. A response without a
+        // max-age is only kept if it can be revalidated, so it is checked with the API every time but not downloaded again.
+        if (response.success && entry.bytes <= MAX_ENTRY_BYTES && (ttl > 0 || (ttl == 0 && (entry.etag != null || entry.lastModified != null)))) {
+            store(url, entry);
+        } else {
+            store(url, null);
+        }
+
+        return entry;
+    }
+
+    private void store(String url, CacheEntry entry) {
+        synchronized (cache) {
+            CacheEntry old = entry == null ? cache.remove(url) : cache.put(url, entry);
+
+            if (old != null) {
+                cacheBytes -= old.bytes;
+            }
+
+            if (entry != null) {
+                cacheBytes += entry.bytes;
+            }
+
+            Iterator<CacheEntry> it = cache.values().iterator();
+            while (cacheBytes > MAX_CACHE_BYTES && it.hasNext()) {
+                cacheBytes -= it.next().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Method to get how long a response may be cached for, from its Cache-Control header. Responses without a max-age are not fresh
+     * for any time, since APIs such as random jokes or dice rolls rarely send caching headers.
+     *
+     * @param  {HttpResponse} response
+     * @return {long} The time in milliseconds, or -1 if the response must not be stored at all
+     */
+    private static long ttl(HttpResponse response) {
+        String cacheControl = response.responseHeaders == null ? null : response.responseHeaders.get("Cache-Control");
+
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase();
+
+            if (cacheControl.contains("no-store")) {
+                return -1;
+            }
+
+            if (cacheControl.contains("no-cache")) {
+                return 0;
+            }
+
+            Matcher m = MAX_AGE.matcher(cacheControl);
+            if (m.find()) {
+                try {
+                    return Math.min(MAX_TTL, Long.parseLong(m.group(1)) * 1000L);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    private static final class CacheEntry {
+        final HttpResponse response;
+        final long bytes;
+        volatile long expires;
+        String etag;
+        String lastModified;
+        JSONObject json;
+
+        CacheEntry(HttpResponse response, long expires) {
+            this.response = response;
+            this.expires = expires;
+            this.bytes = response.content == null ? 0 : response.content.length() * 2L;
+        }
+    }
 }
@@ -20,11 +20,15 @@ package com.scaniatv;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.zip.GZIPInputStream;
 import org.joda.time.DateTime;
 import tv.phantombot.PhantomBot;
 
@@ -74,7 +78,7 @@ public class GenerateLogs {
     }
 
     /*
-     * Method that will read the log files.
+     * Method that will read the log files. Files of earlier days may have been compressed by the logger.
      *
      * @param  {String} file
      * @return {String}
@@ -87,7 +91,11 @@ public class GenerateLogs {
         try {
             if (new File(file).exists()) {
                 bufferedReader = new BufferedReader(new FileReader(file));
+            } else if (new File(file + ".gz").exists()) {
+                bufferedReader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file + ".gz")), StandardCharsets.UTF_8));
+            }
 
+            if (bufferedReader != null) {
                 while ((line = bufferedReader.readLine()) != null) {
                     data += (line + "\r\n");
                 }
@@ -20,12 +20,15 @@ import com.gmt2001.GamesListUpdater;
 import com.gmt2001.TwitchAPIv5;
 import com.gmt2001.TwitchAuthorizationCodeFlow;
 import com.gmt2001.YouTubeAPIv3;
+import com.gmt2001.datastore.CachedDataStore;
 import com.gmt2001.datastore.DataStore;
 import com.gmt2001.datastore.DataStoreConverter;
 import com.gmt2001.datastore.H2Store;
 import com.gmt2001.datastore.MySQLStore;
+import com.gmt2001.datastore.RankedDataStore;
 import com.gmt2001.datastore.SqliteStore;
 import com.gmt2001.httpwsserver.HTTPWSServer;
+import com.gmt2001.httpwsserver.HttpStaticFileServer;
 import com.illusionaryone.GitHubAPIv3;
 import com.illusionaryone.TwitchAlertsAPIv1;
 import com.illusionaryone.TwitterAPI;
@@ -89,7 +92,9 @@ import tv.phantombot.script.Script;
 import tv.phantombot.script.ScriptEventManager;
 import tv.phantombot.script.ScriptFileWatcher;
 import tv.phantombot.script.ScriptManager;
+import tv.phantombot.script.ScriptTimers;
 import tv.phantombot.scripts.core.Moderation;
+import tv.phantombot.twitch.api.Helix;
 import tv.phantombot.twitch.api.TwitchValidate;
 import tv.phantombot.twitch.irc.TwitchSession;
 import tv.phantombot.twitch.irc.host.TwitchWSHostIRC;
@@ -107,6 +112,13 @@ public final class PhantomBot implements Listener {
     private String clientId;
     private static Double messageLimit;
     private static Double whisperLimit;
+    private static long messageQueueMaxAge = 60L;
+    private static Boolean messageQueueDedupe = true;
+    private static int scriptTimerThreads = 4;
+    private static Boolean logQueueBlocks = true;
+    private static int usernameCacheSize = 50000;
+    private static long usernameCacheTTL = 24L;
+    private static int usernameCachePersist = 5000;
     private TwitchAuthorizationCodeFlow authflow;
 
     /* Web Information */
@@ -184,6 +196,10 @@ public final class PhantomBot implements Listener {
     private static Boolean reloadScripts = false;
     private static Boolean silentScriptsLoad = false;
     private static Boolean enableDebugging = false;
+    private static Boolean enableIrcDebug = false;
+    private static int ircWorkers = 4;
+    private static int ircQueueSize = 4096;
+    private static String ircOverflowPolicy = "block";
     private static Boolean enableDebuggingLogOnly = false;
     private static Boolean enableRhinoDebugger = false;
     private static String timeZone = "GMT";
@@ -363,6 +379,10 @@ public final class PhantomBot implements Listener {
 
         /* Set the default bot variables */
         PhantomBot.enableDebugging = this.pbProperties.getProperty("debugon") == null ? false : this.pbProperties.getProperty("debugon").equalsIgnoreCase("true");
+        PhantomBot.enableIrcDebug = this.pbProperties.getProperty("ircdebug", "false").equalsIgnoreCase("true");
+        PhantomBot.ircWorkers = Integer.parseInt(this.pbProperties.getProperty("ircworkers", "4"));
+        PhantomBot.ircQueueSize = Integer.parseInt(this.pbProperties.getProperty("ircqueuesize", "4096"));
+        PhantomBot.ircOverflowPolicy = this.pbProperties.getProperty("ircoverflow", "block");
         this.botName = this.pbProperties.getProperty("user").toLowerCase();
         this.channelName = this.pbProperties.getProperty("channel").toLowerCase();
         this.ownerName = this.pbProperties.getProperty("owner").toLowerCase();
@@ -425,6 +445,9 @@ public final class PhantomBot implements Listener {
         /* Set the timeZone */
         PhantomBot.timeZone = this.pbProperties.getProperty("logtimezone", "GMT");
 
+        /* Set if logging waits for room when the log queue is full, or drops the line */
+        PhantomBot.logQueueBlocks = !this.pbProperties.getProperty("logqueuepolicy", "block").equalsIgnoreCase("drop");
+
         /* Set the panel username login for the panel to use */
         this.panelUsername = this.pbProperties.getProperty("paneluser", "panel");
 
@@ -452,9 +475,21 @@ public final class PhantomBot implements Listener {
         // If this is false the bot won't limit the bot to 1 message every 1.5 second. It will still limit to 19/30 though.
         PhantomBot.useMessageQueue = this.pbProperties.getProperty("usemessagequeue", "true").equals("true");
 
-        /* Set the whisper limit for session.java to use. -- Currently Not Used -- */
+        /* Set the whisper limit for session.java to use. */
         PhantomBot.whisperLimit = Double.parseDouble(this.pbProperties.getProperty("whisperlimit60", "60.0"));
 
+        /* Set how long chat messages may wait in the queue, in seconds, and if identical queued messages are merged */
+        PhantomBot.messageQueueMaxAge = Long.parseLong(this.pbProperties.getProperty("msgqueuemaxage", "60"));
+        PhantomBot.messageQueueDedupe = this.pbProperties.getProperty("msgqueuededupe", "true").equalsIgnoreCase("true");
+
+        /* Set how many users the username cache holds, how many hours they stay cached, and how many are saved for the next start */
+        PhantomBot.usernameCacheSize = Integer.parseInt(this.pbProperties.getProperty("usernamecachesize", "50000"));
+        PhantomBot.usernameCacheTTL = Long.parseLong(this.pbProperties.getProperty("usernamecachettl", "24"));
+        PhantomBot.usernameCachePersist = Integer.parseInt(this.pbProperties.getProperty("usernamecachepersist", "5000"));
+
+        /* Set the amount of threads that run the script timers */
+        PhantomBot.scriptTimerThreads = Integer.parseInt(this.pbProperties.getProperty("scripttimerthreads", "4"));
+
         /* Set the client id for the twitch api to use */
         this.clientId = this.pbProperties.getProperty("clientid", "");
 
@@ -508,12 +543,37 @@ public final class PhantomBot implements Listener {
             dataStore.CreateIndexes();
         }
 
+        /* Add the typed value column to the tables declared numeric, eg. points,time,sometable:real */
+        for (String table : this.pbProperties.getProperty("datastorenumerictables", "").split(",")) {
+            String[] spl = table.trim().split(":");
+
+            if (!spl[0].isBlank()) {
+                dataStore.AddNumericFile(spl[0], spl.length > 1 && spl[1].trim().equalsIgnoreCase("real"));
+            }
+        }
+
+        /* Keep a ranked index of the numeric tables used by the leaderboards. */
+        if (!this.pbProperties.getProperty("datastorerankedtables", "points,time").isBlank()) {
+            dataStore = new RankedDataStore(dataStore, this.pbProperties.getProperty("datastorerankedtables", "points,time"));
+        }
+
+        /* Put the write-behind cache in front of the datastore, if enabled. */
+        if (this.pbProperties.getProperty("datastorecache", "false").equalsIgnoreCase("true")) {
+            dataStore = new CachedDataStore(dataStore,
+                    this.pbProperties.getProperty("datastorecachetables", "settings,chatModerator,cooldown,permcom,points:lru:50000,time:lru:50000"),
+                    Long.parseLong(this.pbProperties.getProperty("datastorecacheflushms", "1000")));
+        }
+
         /* Set the oauth key in the Twitch api and perform a validation. */
         if (!this.apiOAuth.isEmpty()) {
             TwitchAPIv5.instance().SetOAuth(this.apiOAuth);
             TwitchValidate.instance().validateAPI(this.apiOAuth, "API (apioauth)");
+            Helix.setInstance(new Helix(this.apiOAuth));
         }
 
+        /* Load the users saved by the last run into the username cache. */
+        UsernameCache.instance().load(dataStore);
+
         /* Set the client Id in the Twitch api. */
         TwitchAPIv5.instance().SetClientID(this.clientId.isBlank() ? (TwitchValidate.instance().getAPIClientID().isBlank() ? "7wpchwtqz7pvivc3qbdn1kajz42tdmb" : TwitchValidate.instance().getAPIClientID()) : this.clientId);
 
@@ -605,6 +665,7 @@ public final class PhantomBot implements Listener {
         this.oauth = this.pbProperties.getProperty("oauth");
         TwitchAPIv5.instance().SetClientID(this.clientId);
         TwitchAPIv5.instance().SetOAuth(this.apiOAuth);
+        Helix.setInstance(this.apiOAuth.isEmpty() ? null : new Helix(this.apiOAuth));
         if (this.session != null) {
             this.session.setOAuth(this.oauth);
         }
@@ -659,6 +720,15 @@ public final class PhantomBot implements Listener {
         return this.botName;
     }
 
+    /**
+     * Gives you the owner name
+     *
+     * @return {string} owner name
+     */
+    public String getOwnerName() {
+        return this.ownerName;
+    }
+
     /**
      * Gives you the current data store
      *
@@ -723,7 +793,7 @@ public final class PhantomBot implements Listener {
     }
 
     /**
-     * Give's you the whisper limit. *Currently not used*
+     * Give's you the whisper limit.
      *
      * @return {long} whisper limit
      */
@@ -731,6 +801,70 @@ public final class PhantomBot implements Listener {
         return (long) ((60.0 / whisperLimit) * 1000);
     }
 
+    /**
+     * Give's you how long a chat message may wait in the queue before it is dropped.
+     *
+     * @return {long} max age in milliseconds, 0 to never drop
+     */
+    public static long getMessageQueueMaxAge() {
+        return messageQueueMaxAge * 1000L;
+    }
+
+    /**
+     * Tells you if identical chat messages that are still queued get merged.
+     *
+     * @return {boolean}
+     */
+    public static boolean getMessageQueueDedupe() {
+        return messageQueueDedupe;
+    }
+
+    /**
+     * Give's you the amount of threads that run the script timers.
+     * A timer callback that blocks holds one of them until it returns.
+     *
+     * @return {int}
+     */
+    public static int getScriptTimerThreads() {
+        return scriptTimerThreads;
+    }
+
+    /**
+     * Tells you if logging waits for room when the log queue is full, instead of dropping the line.
+     *
+     * @return {boolean}
+     */
+    public static boolean getLogQueueBlocks() {
+        return logQueueBlocks;
+    }
+
+    /**
+     * Give's you the maximum amount of users in the username cache.
+     *
+     * @return {int}
+     */
+    public static int getUsernameCacheSize() {
+        return usernameCacheSize;
+    }
+
+    /**
+     * Give's you how long a user stays in the username cache before it is looked up again.
+     *
+     * @return {long} time to live in milliseconds
+     */
+    public static long getUsernameCacheTTL() {
+        return usernameCacheTTL * 3600000L;
+    }
+
+    /**
+     * Give's you how many of the most recently used users are saved for the next start.
+     *
+     * @return {int}
+     */
+    public static int getUsernameCachePersist() {
+        return usernameCachePersist;
+    }
+
     /**
      * Helper method to see if a module is enabled.
      *
@@ -793,6 +927,7 @@ public final class PhantomBot implements Listener {
             panelHandler = (WsPanelHandler) new WsPanelHandler(webOAuthThro, webOAuth).register();
             alertsPollsHandler = (WsAlertsPollsHandler) new WsAlertsPollsHandler(webOAuthThro, webOAuth).register();
             new WsPanelRemoteLoginHandler(panelUsername, panelPassword, webOAuthThro, webOAuth).register();
+            HttpStaticFileServer.precompress(Paths.get(GetExecutionPath(), "web"));
 
             /* Is the music toggled on? */
             if (musicEnabled) {
@@ -1037,6 +1172,7 @@ public final class PhantomBot implements Listener {
         print("Stopping all events and message dispatching...");
         ScriptFileWatcher.instance().kill();
         ScriptEventManager.instance().kill();
+        ScriptTimers.instance().shutdown();
 
         /* Gonna need a way to pass this to all channels */
         if (PhantomBot.instance().getSession() != null) {
@@ -1071,6 +1207,7 @@ public final class PhantomBot implements Listener {
         });
 
         print("Saving all data...");
+        UsernameCache.instance().close();
         dataStore.SaveAll(true);
 
         /* Check to see if web is enabled */
@@ -1531,6 +1668,22 @@ public final class PhantomBot implements Listener {
         return enableDebugging;
     }
 
+    public static Boolean getIrcDebug() {
+        return enableIrcDebug;
+    }
+
+    public static int getIrcWorkers() {
+        return ircWorkers;
+    }
+
+    public static int getIrcQueueSize() {
+        return ircQueueSize;
+    }
+
+    public static String getIrcOverflowPolicy() {
+        return ircOverflowPolicy;
+    }
+
     public static Boolean getEnableDebuggingLogOnly() {
         return enableDebuggingLogOnly;
     }
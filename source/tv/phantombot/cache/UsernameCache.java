@@ -17,69 +17,402 @@
 package tv.phantombot.cache;
 
 import com.gmt2001.TwitchAPIv5;
-import java.util.Calendar;
-import java.util.Date;
+import com.gmt2001.datastore.DataStore;
+import com.gmt2001.datastore.KeyValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import tv.phantombot.PhantomBot;
+import tv.phantombot.twitch.api.Helix;
 
+/**
+ * Caches the display name and user id of Twitch users.
+ *
+ * The cache is bounded by size, evicting the least recently used users first, and entries expire after a while so that name changes are
+ * picked up. Users that are not cached are looked up in batches: misses that arrive within {@link #BATCH_WINDOW_MS} of each other are sent as
+ * one API call, and threads that ask for the same user while it is being looked up all wait for that one lookup.
+ *
+ * The most recently used users are saved to the database, so a restart does not have to look them all up again.
+ */
 public class UsernameCache {
 
     private static final UsernameCache instance = new UsernameCache();
+    private static final String TABLE = "usernameCache";
+    private static final int MAX_BATCH = 100;
+    private static final long BATCH_WINDOW_MS = 50L;
+    private static final long LOOKUP_TIMEOUT_MS = 10000L;
+    private static final long MISSING_TTL_MS = 300000L;
+    private static final int MAX_MISSING = 10000;
+    private static final long SAVE_INTERVAL_MS = 600000L;
+    private static final Pattern LOGIN = Pattern.compile("[a-z0-9_]{1,25}");
 
     public static UsernameCache instance() {
         return instance;
     }
 
     private final Map<String, UserData> cache = new ConcurrentHashMap<>();
-    private Date timeoutExpire = new Date();
-    private Date lastFail = new Date();
+    /**
+     * Logins that the API did not return, and until when they are not looked up again
+     */
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<UserData>> inflight = new ConcurrentHashMap<>();
+    private final List<String> batch = new ArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "tv.phantombot.cache.UsernameCache");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong apiCalls = new AtomicLong(0);
+    private ScheduledFuture<?> batchFlush = null;
+    private volatile DataStore dataStore = null;
+    private volatile long timeoutExpire = 0;
+    private long lastFail = 0;
     private int numfail = 0;
 
     private UsernameCache() {
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
     }
 
-    private void lookupUserData(String username) {
+    /**
+     * Fills the cache with the users saved by the last run, and saves the users in use every few minutes from now on.
+     *
+     * @param dataStore
+     */
+    public void load(DataStore dataStore) {
+        this.dataStore = dataStore;
+
         try {
-            JSONObject user = TwitchAPIv5.instance().GetUser(username);
-
-            if (user.getBoolean("_success")) {
-                if (user.getInt("_http") == 200) {
-                    if (user.getJSONArray("users").length() > 0) {
-                        String displayName = user.getJSONArray("users").getJSONObject(0).getString("display_name").replaceAll("\\\\s", " ");
-                        String userID = user.getJSONArray("users").getJSONObject(0).getString("_id");
-                        cache.put(username, new UserData(displayName, userID));
+            for (KeyValue kv : dataStore.GetKeyValueList(TABLE, "")) {
+                String[] parts = kv.getValue().split(",", 3);
+
+                if (parts.length == 3) {
+                    UserData data = new UserData(parts[2], parts[0], Long.parseLong(parts[1]));
+
+                    if (!data.isExpired()) {
+                        this.cache.put(kv.getKey(), data);
                     }
-                } else {
-                    com.gmt2001.Console.debug.println("UsernameCache.updateCache: Failed to get username [" + username + "] http error [" + user.getInt("_http") + "]");
                 }
-            } else {
-                if (user.getString("_exception").equalsIgnoreCase("SocketTimeoutException") || user.getString("_exception").equalsIgnoreCase("IOException")) {
-                    Calendar c = Calendar.getInstance();
-
-                    if (lastFail.after(new Date())) {
-                        numfail++;
-                    } else {
-                        numfail = 1;
-                    }
+            }
+        } catch (NumberFormatException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        this.trim();
+        com.gmt2001.Console.debug.println("UsernameCache: loaded " + this.cache.size() + " users");
+
+        this.executor.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MS, SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the most recently used users to the database.
+     */
+    public void save() {
+        DataStore ds = this.dataStore;
+
+        if (ds == null) {
+            return;
+        }
 
-                    c.add(Calendar.MINUTE, 1);
+        List<Map.Entry<String, UserData>> entries = new ArrayList<>(this.cache.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, UserData> e) -> e.getValue().lastAccess).reversed());
 
-                    lastFail = c.getTime();
+        int count = Math.min(entries.size(), PhantomBot.getUsernameCachePersist());
+        String[] keys = new String[count];
+        String[] values = new String[count];
 
-                    if (numfail >= 5) {
-                        timeoutExpire = c.getTime();
+        for (int i = 0; i < count; i++) {
+            UserData data = entries.get(i).getValue();
+            keys[i] = entries.get(i).getKey();
+            values[i] = data.getUserID() + "," + data.loaded + "," + data.userName;
+        }
+
+        try {
+            // Write first and only then remove the users that dropped out, so a failure never leaves the table empty.
+            if (count > 0) {
+                ds.SetBatchString(TABLE, "", keys, values);
+            }
+
+            Set<String> saved = new HashSet<>(Arrays.asList(keys));
+
+            for (String key : ds.GetKeyList(TABLE, "")) {
+                if (!saved.contains(key)) {
+                    ds.RemoveKey(TABLE, "", key);
+                }
+            }
+        } catch (Exception ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        }
+
+        this.pruneMissing();
+    }
+
+    /**
+     * Forgets the logins that were not found once they may be looked up again.
+     */
+    private void pruneMissing() {
+        long now = System.currentTimeMillis();
+        this.missing.values().removeIf((until) -> until <= now);
+    }
+
+    /**
+     * Saves the cache and stops the lookup thread.
+     */
+    public void close() {
+        this.executor.shutdownNow();
+        this.save();
+    }
+
+    /**
+     * Looks up a user, waiting for the result. Other lookups that arrive within a short window are sent in the same API call.
+     *
+     * @param username The lowercase login
+     * @return the user data, or null if the user was not found
+     */
+    private UserData lookupUserData(String username) {
+        if (System.currentTimeMillis() < this.timeoutExpire || !LOGIN.matcher(username).matches()) {
+            return null;
+        }
+
+        Long missingUntil = this.missing.get(username);
+        if (missingUntil != null) {
+            if (missingUntil > System.currentTimeMillis()) {
+                return null;
+            }
+
+            this.missing.remove(username);
+        }
+
+        this.misses.incrementAndGet();
+
+        boolean[] created = new boolean[]{false};
+        CompletableFuture<UserData> future = this.inflight.computeIfAbsent(username, (k) -> {
+            created[0] = true;
+            return new CompletableFuture<>();
+        });
+
+        if (created[0]) {
+            try {
+                this.enqueue(username);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down.
+                this.inflight.remove(username);
+                future.complete(null);
+            }
+        } else {
+            this.coalesced.incrementAndGet();
+        }
+
+        try {
+            return future.get(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ex) {
+            com.gmt2001.Console.debug.println("UsernameCache: lookup of [" + username + "] failed: " + ex.getMessage());
+        }
+
+        return null;
+    }
+
+    private void enqueue(String username) {
+        synchronized (this.batch) {
+            this.batch.add(username);
+
+            if (this.batch.size() >= MAX_BATCH) {
+                if (this.batchFlush != null) {
+                    this.batchFlush.cancel(false);
+                }
+
+                this.batchFlush = this.executor.schedule(this::flushBatch, 0, TimeUnit.MILLISECONDS);
+            } else if (this.batchFlush == null) {
+                this.batchFlush = this.executor.schedule(this::flushBatch, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flushBatch() {
+        String[] usernames;
+
+        synchronized (this.batch) {
+            int count = Math.min(this.batch.size(), MAX_BATCH);
+            List<String> taken = this.batch.subList(0, count);
+            usernames = taken.toArray(new String[0]);
+            taken.clear();
+
+            this.batchFlush = this.batch.isEmpty() ? null : this.executor.schedule(this::flushBatch, 0, TimeUnit.MILLISECONDS);
+        }
+
+        if (usernames.length == 0) {
+            return;
+        }
+
+        Map<String, UserData> found = null;
+
+        try {
+            found = this.requestUsers(usernames);
+        } catch (JSONException ex) {
+            com.gmt2001.Console.err.printStackTrace(ex);
+        } finally {
+            for (String username : usernames) {
+                UserData data = found == null ? null : found.get(username);
+
+                if (data != null) {
+                    this.put(username, data);
+                } else if (found != null) {
+                    if (this.missing.size() >= MAX_MISSING) {
+                        this.pruneMissing();
                     }
+
+                    // Still full of recent misses, this one is simply looked up again next time.
+                    if (this.missing.size() < MAX_MISSING) {
+                        this.missing.put(username, System.currentTimeMillis() + MISSING_TTL_MS);
+                    }
+                } else {
+                    // The request failed, fall back to what we had if it expired.
+                    data = this.cache.get(username);
+                }
+
+                CompletableFuture<UserData> future = this.inflight.remove(username);
+                if (future != null) {
+                    future.complete(data);
                 }
             }
-        } catch (JSONException e) {
-            com.gmt2001.Console.err.printStackTrace(e);
         }
     }
-    
+
+    /**
+     * Requests up to 100 users in one call, using Helix when it is available.
+     *
+     * @return the users that were found by login, or null if the request failed
+     */
+    private Map<String, UserData> requestUsers(String[] usernames) throws JSONException {
+        Helix helix = Helix.getInstance();
+        JSONObject response = helix != null ? helix.getUsersByNames(usernames) : TwitchAPIv5.instance().GetUser(String.join(",", usernames));
+
+        this.apiCalls.incrementAndGet();
+
+        if (!response.getBoolean("_success")) {
+            if (response.getString("_exception").equalsIgnoreCase("SocketTimeoutException") || response.getString("_exception").equalsIgnoreCase("IOException")) {
+                long now = System.currentTimeMillis();
+
+                if (this.lastFail > now) {
+                    this.numfail++;
+                } else {
+                    this.numfail = 1;
+                }
+
+                this.lastFail = now + 60000L;
+
+                if (this.numfail >= 5) {
+                    this.timeoutExpire = this.lastFail;
+                }
+            }
+
+            return null;
+        }
+
+        if (response.getInt("_http") != 200) {
+            com.gmt2001.Console.debug.println("UsernameCache.updateCache: Failed to get usernames " + String.join(",", usernames) + " http error [" + response.getInt("_http") + "]");
+            return null;
+        }
+
+        JSONArray users = response.getJSONArray(helix != null ? "data" : "users");
+        Map<String, UserData> found = new HashMap<>();
+
+        for (int i = 0; i < users.length(); i++) {
+            JSONObject user = users.getJSONObject(i);
+            String login = user.getString(helix != null ? "login" : "name").toLowerCase();
+            String displayName = user.getString("display_name").replaceAll("\\\\s", " ");
+            String userID = user.getString(helix != null ? "id" : "_id");
+
+            found.put(login, new UserData(displayName, userID));
+        }
+
+        return found;
+    }
+
+    private void put(String username, UserData data) {
+        this.cache.put(username, data);
+
+        if (this.cache.size() > PhantomBot.getUsernameCacheSize()) {
+            this.trim();
+        }
+    }
+
+    /**
+     * Removes expired users, then the least recently used ones until the cache is 10% below its maximum size.
+     */
+    private synchronized void trim() {
+        int max = PhantomBot.getUsernameCacheSize();
+
+        this.cache.entrySet().removeIf((e) -> e.getValue().isExpired());
+
+        if (this.cache.size() <= max) {
+            return;
+        }
+
+        List<Map.Entry<String, UserData>> entries = new ArrayList<>(this.cache.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, UserData> e) -> e.getValue().lastAccess));
+
+        int target = (int) (max * 0.9);
+        for (int i = 0; i < entries.size() && this.cache.size() > target; i++) {
+            this.cache.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    /**
+     * Returns the cached user, or null if it is not cached or expired.
+     */
+    private UserData getFresh(String username) {
+        UserData data = this.cache.get(username);
+
+        if (data != null && !data.isExpired()) {
+            data.lastAccess = System.currentTimeMillis();
+            this.hits.incrementAndGet();
+            return data;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the cached user, looking it up if it is not cached or expired. An expired entry is still used if the lookup fails.
+     */
+    private UserData getOrLookup(String username) {
+        UserData data = this.getFresh(username);
+
+        if (data == null) {
+            data = this.lookupUserData(username);
+
+            if (data == null) {
+                data = this.cache.get(username);
+            }
+        }
+
+        return data;
+    }
+
     // This will be implemented later
     // For now it's just to keep another class from throwing errors.
     public JSONObject getUserData(String username) throws JSONException {
@@ -92,57 +425,44 @@ public class UsernameCache {
 
     public String resolve(String username, Map<String, String> tags) {
         String lusername = username.toLowerCase();
+        UserData data = this.getFresh(lusername);
 
-        if (hasUser(lusername)) {
-            return cache.get(lusername).getUserName();
-        } else {
-            if (username.equalsIgnoreCase("jtv") || username.equalsIgnoreCase("twitchnotify")) {
-                return username;
-            }
-
-            if (tags.containsKey("display-name") && tags.get("display-name").equalsIgnoreCase(lusername) && tags.containsKey("user-id")) {
-                cache.put(lusername, new UserData(tags.get("display-name"), tags.get("user-id")));
-                return tags.get("display-name");
-            }
+        if (data != null) {
+            return data.getUserName();
+        }
 
-            /* While the user-id should always be present, this is just a stop-gap measure. */
-            if (tags.containsKey("display-name") && tags.get("display-name").equalsIgnoreCase(lusername)) {
-                return tags.get("display-name");
-            }
+        if (username.equalsIgnoreCase("jtv") || username.equalsIgnoreCase("twitchnotify")) {
+            return username;
+        }
 
-            if (new Date().before(timeoutExpire)) {
-                return username;
-            }
+        if (tags.containsKey("display-name") && tags.get("display-name").equalsIgnoreCase(lusername) && tags.containsKey("user-id")) {
+            this.put(lusername, new UserData(tags.get("display-name"), tags.get("user-id")));
+            return tags.get("display-name");
+        }
 
-            lookupUserData(lusername);
-            if (hasUser(lusername)) {
-                return cache.get(lusername).getUserName();
-            } else {
-                return lusername;
-            }
+        /* While the user-id should always be present, this is just a stop-gap measure. */
+        if (tags.containsKey("display-name") && tags.get("display-name").equalsIgnoreCase(lusername)) {
+            return tags.get("display-name");
         }
+
+        data = this.getOrLookup(lusername);
+        return data != null ? data.getUserName() : lusername;
     }
 
     public boolean exists(String userName) {
         // Check the cache first, if the user doesn't exist call the API and check the cache again.
-        if (cache.containsKey(userName)) {
-            return true;
-        } else {
-            lookupUserData(userName);
-
-            return cache.containsKey(userName);
-        }
+        return this.getOrLookup(userName) != null;
     }
 
     public void addUser(String userName, String displayName, int userID) {
-        if (!hasUser(userName) && displayName.length() > 0) {
-            cache.put(userName, new UserData(displayName.replaceAll("\\\\s", " "), userID));
+        if (this.getFresh(userName) == null && displayName.length() > 0) {
+            this.put(userName, new UserData(displayName.replaceAll("\\\\s", " "), userID));
         }
     }
 
     public void addUser(String userName, String displayName, String userID) {
-        if (!hasUser(userName) && displayName.length() > 0 && userID.length() > 0) {
-            cache.put(userName, new UserData(displayName.replaceAll("\\\\s", " "), userID));
+        if (this.getFresh(userName) == null && displayName.length() > 0 && userID.length() > 0) {
+            this.put(userName, new UserData(displayName.replaceAll("\\\\s", " "), userID));
         }
     }
 
@@ -151,31 +471,27 @@ public class UsernameCache {
     }
 
     public String get(String userName) {
-        return (hasUser(userName) ? cache.get(userName).getUserName() : userName);
+        UserData data = this.cache.get(userName);
+        return (data != null ? data.getUserName() : userName);
     }
 
     public String getID(String userName) {
-        String lusername = userName.toLowerCase();
-        if (hasUser(lusername)) {
-            return cache.get(lusername).getUserID();
-        } else {
-            if (new Date().before(timeoutExpire)) {
-                return "0";
-            }
-            lookupUserData(lusername);
-            if (hasUser(lusername)) {
-                return cache.get(lusername).getUserID();
-            }
-        }
-        return "0";
+        UserData data = this.getOrLookup(userName.toLowerCase());
+        return data != null ? data.getUserID() : "0";
     }
 
     public void removeUser(String userName) {
-        userName = userName.toLowerCase();
+        cache.remove(userName.toLowerCase());
+    }
 
-        if (hasUser(userName)) {
-            cache.remove(userName);
-        }
+    /**
+     * Returns the cache size and how lookups were served, for the console.
+     *
+     * @return
+     */
+    public String getStats() {
+        return "size=" + this.cache.size() + " hits=" + this.hits.get() + " misses=" + this.misses.get() + " coalesced=" + this.coalesced.get()
+                + " apiCalls=" + this.apiCalls.get() + " notFound=" + this.missing.size() + " inflight=" + this.inflight.size();
     }
 
     /*
@@ -185,26 +501,29 @@ public class UsernameCache {
      * int within Java is 4,294,967,295 which should serve as a large enough data type.
      */
     private class UserData {
-        private String userName;
-        private int userID;
+        private final String userName;
+        private final int userID;
+        private final long loaded;
+        private volatile long lastAccess;
 
         public UserData(String userName, int userID) {
             this.userName = userName;
             this.userID = userID;
+            this.loaded = System.currentTimeMillis();
+            this.lastAccess = this.loaded;
         }
         public UserData(String userName, String userID) {
+            this(userName, Integer.parseUnsignedInt(userID));
+        }
+        public UserData(String userName, String userID, long loaded) {
             this.userName = userName;
             this.userID = Integer.parseUnsignedInt(userID);
+            this.loaded = loaded;
+            this.lastAccess = loaded;
         }
 
-        public void putUserName(String userName) {
-            this.userName = userName;
-        }
-        public void putUserID(int userID) {
-            this.userID = userID;
-        }
-        public void putUserID(String userID) {
-            this.userID = Integer.parseUnsignedInt(userID);
+        public boolean isExpired() {
+            return System.currentTimeMillis() - this.loaded > PhantomBot.getUsernameCacheTTL();
         }
 
         public String getUserName() {
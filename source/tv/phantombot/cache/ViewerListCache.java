@@ -19,18 +19,38 @@ package tv.phantombot.cache;
 
 import com.gmt2001.TwitchAPIv5;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.engio.mbassy.listener.Handler;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import tv.phantombot.event.EventBus;
+import tv.phantombot.event.Listener;
+import tv.phantombot.event.irc.channel.IrcChannelJoinEvent;
+import tv.phantombot.event.irc.channel.IrcChannelLeaveEvent;
 import tv.phantombot.event.irc.channel.IrcChannelUsersUpdateEvent;
 
-public class ViewerListCache implements Runnable {
+/**
+ * Keeps the list of users in chat.
+ *
+ * The list is polled every 10 minutes and kept up to date in between with the IRC JOIN and PART events, so a poll only reports the users that
+ * IRC did not already report as joins and parts.
+ */
+public class ViewerListCache implements Runnable, Listener {
     private static ViewerListCache instance = null;
     private final String channelName;
     private final Thread thread;
-    private List<String> cache = new ArrayList<>();
+    private final Set<String> cache = ConcurrentHashMap.newKeySet();
+    /**
+     * IRC joins (true) and parts (false) seen while a poll is running, which are newer than the list it returns
+     */
+    private final Map<String, Boolean> pendingIrc = new HashMap<>();
+    private boolean isPolling = false;
     private boolean isKilled = false;
 
     /**
@@ -57,6 +77,8 @@ public class ViewerListCache implements Runnable {
 
         this.channelName = channelName;
 
+        EventBus.instance().register(this);
+
         this.thread = new Thread(this, "tv.phantombot.cache.ViewerListCache");
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
         this.thread.start();
@@ -92,58 +114,118 @@ public class ViewerListCache implements Runnable {
      */
     private void updateCache() throws Exception {
         String[] types = new String[] { "moderators", "staff", "admins", "vips", "viewers" };
-        List<String> cache = new ArrayList<>();
-        List<String> joins = new ArrayList<>();
-        List<String> parts = new ArrayList<>();
 
         com.gmt2001.Console.debug.println("ViewerListCache::updateCache");
+        synchronized (this) {
+            this.isPolling = true;
+            this.pendingIrc.clear();
+        }
+
         try {
             JSONObject object = TwitchAPIv5.instance().GetChatUsers(channelName);
             JSONObject chatters;
 
             if (object.getBoolean("_success") && object.getInt("_http") == 200) {
                 if (object.getInt("chatter_count") == 0) {
-                    this.cache = cache;
+                    synchronized (this) {
+                        this.cache.clear();
+                    }
                     return;
                 }
 
                 // Add the new chatters to a new cache.
+                Set<String> users = new HashSet<>(Math.max(16, (int) (object.getInt("chatter_count") / 0.75f) + 1));
                 chatters = object.getJSONObject("chatters");
                 for (String type : types) {
                     JSONArray array = chatters.getJSONArray(type);
                     for (int i = 0; i < array.length(); i++) {
-                        cache.add(array.getString(i));
+                        users.add(array.getString(i));
                     }
                 }
 
-                // Check for new users that joined.
-                for (int i = 0; i < cache.size(); i++) {
-                    if (!this.cache.contains(cache.get(i))) {
-                        joins.add(cache.get(i));
-                    }
-                }
+                String[][] delta = this.applyPoll(users);
 
-                // Check for old users that left.
-                for (int i = 0; i < this.cache.size(); i++) {
-                    if (!cache.contains(this.cache.get(i))) {
-                        parts.add(this.cache.get(i));
-                    }
+                if (delta[0].length > 0 || delta[1].length > 0) {
+                    EventBus.instance().post(new IrcChannelUsersUpdateEvent(delta[0], delta[1]));
                 }
-
-                EventBus.instance().post(new IrcChannelUsersUpdateEvent(joins.toArray(new String[joins.size()]), parts.toArray(new String[parts.size()])));
-                // Set the new cache.
-                this.cache = cache;
-                // Delete the temp caches.
-                cache = null;
-                parts = null;
-                joins = null;
-                // Run the GC to clear memory,
-                System.gc();
             } else {
                 com.gmt2001.Console.debug.println("Failed to update viewers cache: " + object);
             }
         } catch (JSONException ex) {
             com.gmt2001.Console.debug.println("ViewerListCache::updateCache: Failed to update: " + ex.getMessage());
+        } finally {
+            synchronized (this) {
+                this.isPolling = false;
+                this.pendingIrc.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the cache with a polled user list, keeping the IRC joins and parts that happened during the poll.
+     *
+     * @param  {Set} users The polled users, this set is modified
+     * @return {String[][]} the joins and the parts
+     */
+    private synchronized String[][] applyPoll(Set<String> users) {
+        List<String> joins = new ArrayList<>();
+        List<String> parts = new ArrayList<>();
+
+        this.pendingIrc.forEach((username, joined) -> {
+            if (joined) {
+                users.add(username);
+            } else {
+                users.remove(username);
+            }
+        });
+
+        for (String username : users) {
+            if (!this.cache.contains(username)) {
+                joins.add(username);
+            }
+        }
+
+        for (String username : this.cache) {
+            if (!users.contains(username)) {
+                parts.add(username);
+            }
+        }
+
+        this.cache.addAll(joins);
+        parts.forEach(this.cache::remove);
+
+        return new String[][] { joins.toArray(new String[joins.size()]), parts.toArray(new String[parts.size()]) };
+    }
+
+    /**
+     * Adds users that joined over IRC.
+     *
+     * @param {IrcChannelJoinEvent} event
+     */
+    @Handler
+    public synchronized void ircChannelJoinEvent(IrcChannelJoinEvent event) {
+        String username = event.getUser().toLowerCase();
+
+        this.cache.add(username);
+
+        if (this.isPolling) {
+            this.pendingIrc.put(username, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes users that left over IRC.
+     *
+     * @param {IrcChannelLeaveEvent} event
+     */
+    @Handler
+    public synchronized void ircChannelLeaveEvent(IrcChannelLeaveEvent event) {
+        String username = event.getUser().toLowerCase();
+
+        this.cache.remove(username);
+
+        if (this.isPolling) {
+            this.pendingIrc.put(username, Boolean.FALSE);
         }
     }
 
@@ -154,7 +236,7 @@ public class ViewerListCache implements Runnable {
      * @return {Boolean}
      */
     public boolean hasUser(String username) {
-        return (!this.cache.isEmpty() ? this.cache.contains(username) : true);
+        return (!this.cache.isEmpty() ? this.cache.contains(username.toLowerCase()) : true);
     }
 
     /**
@@ -163,7 +245,7 @@ public class ViewerListCache implements Runnable {
      * @param  {String} username
      */
     public void addUser(String username) {
-        this.cache.add(username);
+        this.cache.add(username.toLowerCase());
     }
 
     /**
@@ -16,12 +16,20 @@
  */
 package tv.phantombot.console;
 
+import com.gmt2001.AsyncHttpClient;
 import com.gmt2001.HttpRequest;
 import com.gmt2001.HttpResponse;
 import com.gmt2001.TwitchAPIv5;
+import com.gmt2001.datastore.CachedDataStore;
 import com.gmt2001.datastore.DataStore;
+import com.gmt2001.datastore.KeyValue;
+import com.gmt2001.datastore.RankedDataStore;
+import com.gmt2001.httpwsserver.HTTPWSServer;
+import com.gmt2001.httpwsserver.HttpStaticFileServer;
+import com.gmt2001.httpwsserver.WebSocketFrameHandler;
 import com.scaniatv.BotImporter;
 import com.scaniatv.GenerateLogs;
+import com.scaniatv.CustomAPI;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -38,7 +46,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import tv.phantombot.CaselessProperties;
 import tv.phantombot.PhantomBot;
+import tv.phantombot.cache.UsernameCache;
 import tv.phantombot.discord.DiscordAPI;
+import tv.phantombot.discord.util.DiscordIndex;
+import tv.phantombot.discord.util.DiscordOutboundQueue;
 import tv.phantombot.event.EventBus;
 import tv.phantombot.event.Listener;
 import tv.phantombot.event.console.ConsoleInputEvent;
@@ -59,6 +70,10 @@ import tv.phantombot.event.twitch.subscriber.TwitchSubscriberEvent;
 import tv.phantombot.event.twitch.subscriber.TwitchSubscriptionGiftEvent;
 import tv.phantombot.event.twitter.TwitterRetweetEvent;
 import tv.phantombot.script.Script;
+import tv.phantombot.script.ScriptTimers;
+import tv.phantombot.scripts.core.PayoutEngine;
+import tv.phantombot.twitch.api.Helix;
+import tv.phantombot.twitch.irc.TwitchWSIRCParser;
 
 public class ConsoleEventHandler implements Listener {
 
@@ -146,17 +161,25 @@ public class ConsoleEventHandler implements Listener {
 
             // Top headers of the CSV file.
             String[] headers = new String[]{"Username", "Seconds", "Points"};
-            // All points keys.
-            String[] keys = dataStore.GetKeyList("points", "");
+            // All points keys and values.
+            KeyValue[] points = dataStore.GetKeyValueList("points", "");
+            String[] keys = new String[points.length];
             // Array to store our values.
             List<String[]> values = new ArrayList<>();
 
-            // Loop that gets all points and time.
-            for (String key : keys) {
+            for (int i = 0; i < points.length; i++) {
+                keys[i] = points[i].getKey();
+            }
+
+            // Get the time of all users in one query.
+            String[] times = dataStore.GetStrings("time", "", keys);
+
+            // Loop that builds all points and time.
+            for (int i = 0; i < points.length; i++) {
                 String[] str = new String[3];
-                str[0] = key;
-                str[1] = (dataStore.exists("time", key) ? dataStore.get("time", key) : "0");
-                str[2] = dataStore.get("points", key);
+                str[0] = keys[i];
+                str[1] = (times[i] != null ? times[i] : "0");
+                str[2] = points[i].getValue();
                 values.add(str);
             }
 
@@ -525,6 +548,168 @@ public class ConsoleEventHandler implements Listener {
             return;
         }
 
+        /**
+         * @consolecommand dbcachestats - Prints the hit, miss and flush counters of the datastore cache.
+         */
+        if (message.equalsIgnoreCase("dbcachestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing dbcachestats");
+
+            if (dataStore instanceof CachedDataStore) {
+                com.gmt2001.Console.out.println(((CachedDataStore) dataStore).getStats());
+            } else {
+                com.gmt2001.Console.out.println("The datastore cache is disabled, set datastorecache=true in botlogin.txt to enable it");
+            }
+            return;
+        }
+
+        /**
+         * @consolecommand dbrankstats - Prints the size of the ranked indexes used by the leaderboards.
+         */
+        if (message.equalsIgnoreCase("dbrankstats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing dbrankstats");
+            DataStore rankedStore = dataStore instanceof CachedDataStore ? ((CachedDataStore) dataStore).getBackingStore() : dataStore;
+
+            if (rankedStore instanceof RankedDataStore) {
+                com.gmt2001.Console.out.println(((RankedDataStore) rankedStore).getStats());
+            } else {
+                com.gmt2001.Console.out.println("The ranked index is disabled, set datastorerankedtables=points,time in botlogin.txt to enable it");
+            }
+            return;
+        }
+
+        /**
+         * @consolecommand wsqueuestats - Prints the queue depth and latency of the web panel database executor.
+         */
+        if (message.equalsIgnoreCase("wsqueuestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing wsqueuestats");
+
+            if (PhantomBot.instance().getProperties().getProperty("webenable", "true").equalsIgnoreCase("true")) {
+                com.gmt2001.Console.out.println(HTTPWSServer.instance().getBlockingExecutor().getStats());
+            } else {
+                com.gmt2001.Console.out.println("The web server is disabled");
+            }
+            return;
+        }
+
+        /**
+         * @consolecommand msgqueuestats - Prints the queue length, throughput and latency of every chat message lane.
+         */
+        if (message.equalsIgnoreCase("msgqueuestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing msgqueuestats");
+
+            if (PhantomBot.instance().getSession() != null) {
+                com.gmt2001.Console.out.println(PhantomBot.instance().getSession().getStats());
+            }
+            return;
+        }
+
+        /**
+         * @consolecommand ircpipelinestats - Prints the queue depths, drops and stage latencies of the IRC event pipeline.
+         */
+        if (message.equalsIgnoreCase("ircpipelinestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing ircpipelinestats");
+
+            if (TwitchWSIRCParser.instance() != null) {
+                com.gmt2001.Console.out.println(TwitchWSIRCParser.instance().getPipelineStats());
+            }
+            return;
+        }
+
+        /**
+         * @consolecommand usernamecachestats - Prints the size, hits, misses and API calls of the username cache.
+         */
+        if (message.equalsIgnoreCase("usernamecachestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing usernamecachestats");
+            com.gmt2001.Console.out.println(UsernameCache.instance().getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand payoutstats - Prints the users, amount and duration of the last points and time payouts.
+         */
+        if (message.equalsIgnoreCase("payoutstats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing payoutstats");
+            com.gmt2001.Console.out.println(PayoutEngine.instance().getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand httpstats - Prints the request count, errors and latency of the busiest HTTP endpoints.
+         */
+        if (message.equalsIgnoreCase("httpstats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing httpstats");
+            com.gmt2001.Console.out.println(AsyncHttpClient.instance().getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand staticfilestats - Prints the static file cache size and how web server file requests were answered.
+         */
+        if (message.equalsIgnoreCase("staticfilestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing staticfilestats");
+            com.gmt2001.Console.out.println(HttpStaticFileServer.getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand wsstats - Prints the WebSocket sessions of each URI and how many broadcast frames were delivered or dropped.
+         */
+        if (message.equalsIgnoreCase("wsstats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing wsstats");
+            com.gmt2001.Console.out.println(WebSocketFrameHandler.getWsBroadcastStats());
+            return;
+        }
+
+        /**
+         * @consolecommand discordindexstats - Prints the number of Discord channels, members and roles in the name lookup index.
+         */
+        if (message.equalsIgnoreCase("discordindexstats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing discordindexstats");
+            com.gmt2001.Console.out.println(DiscordIndex.instance().getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand discordqueuestats - Prints the Discord outbound queue depth and how many requests Discord rate limited.
+         */
+        if (message.equalsIgnoreCase("discordqueuestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing discordqueuestats");
+            com.gmt2001.Console.out.println(DiscordOutboundQueue.instance().getStats());
+            return;
+        }
+
+        /**
+         * @consolecommand customapistats - Prints the size and hit rate of the (customapi) response cache.
+         */
+        if (message.equalsIgnoreCase("customapistats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing customapistats");
+            com.gmt2001.Console.out.println(CustomAPI.instance().getCacheStats());
+            return;
+        }
+
+        /**
+         * @consolecommand helixratestats - Prints the Helix rate limit budget and the number of queued requests.
+         */
+        if (message.equalsIgnoreCase("helixratestats")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing helixratestats");
+            com.gmt2001.Console.out.println(Helix.getInstance() == null ? "Helix is not set up" : Helix.getInstance().getRateLimitStats());
+            return;
+        }
+
+        /**
+         * @consolecommand timers - Lists the pending script timers.
+         */
+        if (message.equalsIgnoreCase("timers")) {
+            com.gmt2001.Console.out.println("[CONSOLE] Executing timers");
+
+            List<String> timers = ScriptTimers.instance().getPendingTimers();
+            timers.forEach((timer) -> {
+                com.gmt2001.Console.out.println(timer);
+            });
+            com.gmt2001.Console.out.println(timers.size() + " pending timers");
+            return;
+        }
+
         /**
          * @consolecommand exit - Shuts down the bot.
          */
@@ -16,14 +16,24 @@
  */
 package tv.phantombot.discord;
 
+import com.gmt2001.ExpiringLongSet;
+import discord4j.common.ReactorResources;
 import discord4j.common.close.CloseStatus;
 import discord4j.core.DiscordClient;
 import discord4j.core.DiscordClientBuilder;
 import discord4j.core.GatewayDiscordClient;
 import discord4j.core.event.domain.VoiceStateUpdateEvent;
+import discord4j.core.event.domain.channel.NewsChannelCreateEvent;
+import discord4j.core.event.domain.channel.NewsChannelDeleteEvent;
+import discord4j.core.event.domain.channel.NewsChannelUpdateEvent;
+import discord4j.core.event.domain.channel.TextChannelCreateEvent;
+import discord4j.core.event.domain.channel.TextChannelDeleteEvent;
+import discord4j.core.event.domain.channel.TextChannelUpdateEvent;
 import discord4j.core.event.domain.guild.GuildCreateEvent;
+import discord4j.core.event.domain.guild.MemberChunkEvent;
 import discord4j.core.event.domain.guild.MemberJoinEvent;
 import discord4j.core.event.domain.guild.MemberLeaveEvent;
+import discord4j.core.event.domain.guild.MemberUpdateEvent;
 import discord4j.core.event.domain.lifecycle.ReadyEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.event.domain.message.ReactionAddEvent;
@@ -45,14 +55,13 @@ import discord4j.rest.util.Snowflake;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import reactor.core.publisher.Mono;
 import tv.phantombot.PhantomBot;
+import tv.phantombot.discord.util.DiscordIndex;
+import tv.phantombot.discord.util.DiscordOutboundQueue;
 import tv.phantombot.discord.util.DiscordUtil;
 import tv.phantombot.event.EventBus;
 import tv.phantombot.event.discord.channel.DiscordChannelCommandEvent;
@@ -125,6 +134,7 @@ public class DiscordAPI extends DiscordUtil {
     public void connect(String token) {
         if (DiscordAPI.builder == null) {
             DiscordAPI.builder = DiscordClientBuilder.create(token);
+            DiscordAPI.builder.setReactorResources(DiscordOutboundQueue.instance().instrument(ReactorResources.create()));
             DiscordAPI.client = DiscordAPI.builder.build();
         }
 
@@ -190,6 +200,14 @@ public class DiscordAPI extends DiscordUtil {
         DiscordAPI.gateway.getEventDispatcher().on(ReactionAddEvent.class).subscribe(event -> DiscordEventListener.onDiscordMessageReactionAddEvent(event));
         DiscordAPI.gateway.getEventDispatcher().on(ReactionRemoveEvent.class).subscribe(event -> DiscordEventListener.onDiscordMessageReactionRemoveEvent(event));
         DiscordAPI.gateway.getEventDispatcher().on(VoiceStateUpdateEvent.class).subscribe(event -> DiscordEventListener.onDiscordVoiceStateUpdateEvent(event));
+        DiscordAPI.gateway.getEventDispatcher().on(MemberUpdateEvent.class).subscribe(event -> DiscordEventListener.onDiscordMemberUpdateEvent(event));
+        DiscordAPI.gateway.getEventDispatcher().on(MemberChunkEvent.class).subscribe(event -> event.getMembers().forEach(DiscordIndex.instance()::putMember));
+        DiscordAPI.gateway.getEventDispatcher().on(TextChannelCreateEvent.class).subscribe(event -> DiscordIndex.instance().putChannel(event.getChannel()));
+        DiscordAPI.gateway.getEventDispatcher().on(TextChannelUpdateEvent.class).subscribe(event -> DiscordIndex.instance().putChannel(event.getCurrent()));
+        DiscordAPI.gateway.getEventDispatcher().on(TextChannelDeleteEvent.class).subscribe(event -> DiscordIndex.instance().removeChannel(event.getChannel().getId()));
+        DiscordAPI.gateway.getEventDispatcher().on(NewsChannelCreateEvent.class).subscribe(event -> DiscordIndex.instance().putChannel(event.getChannel()));
+        DiscordAPI.gateway.getEventDispatcher().on(NewsChannelUpdateEvent.class).subscribe(event -> DiscordIndex.instance().putChannel(event.getCurrent()));
+        DiscordAPI.gateway.getEventDispatcher().on(NewsChannelDeleteEvent.class).subscribe(event -> DiscordIndex.instance().removeChannel(event.getChannel().getId()));
     }
 
     /**
@@ -308,8 +326,7 @@ public class DiscordAPI extends DiscordUtil {
      */
     private static class DiscordEventListener {
 
-        private static final List<Long> processedMessages = new CopyOnWriteArrayList<>();
-        private static final Timer listTimer = new Timer();
+        private static final ExpiringLongSet processedMessages = new ExpiringLongSet(5000, 5);
 
         private DiscordEventListener() {
         }
@@ -321,6 +338,10 @@ public class DiscordAPI extends DiscordUtil {
 
             DiscordAPI.instance().setGuildAndShard(events);
 
+            if (DiscordAPI.guild != null) {
+                DiscordIndex.instance().rebuild(DiscordAPI.guild);
+            }
+
             com.gmt2001.Console.debug.println(DiscordAPI.guild);
 
             // Set a timer that checks our connection status with Discord every 60 seconds
@@ -338,67 +359,85 @@ public class DiscordAPI extends DiscordUtil {
 
         public static void onDiscordMessageEvent(MessageCreateEvent event) {
             Message iMessage = event.getMessage();
-            if (iMessage.getContent() == null || processedMessages.contains(iMessage.getId().asLong())) {
+            if (iMessage.getContent() == null || !processedMessages.add(iMessage.getId().asLong())) {
                 return;
             }
 
-            iMessage.getChannel().timeout(Duration.ofMillis(500)).doOnSuccess(iChannel -> {
-                User iUser = event.getMember().isPresent() ? event.getMember().get() : ((PrivateChannel) iChannel).getRecipients().take(1).singleOrEmpty().block(Duration.ofMillis(500));
+            event.getMember().ifPresent(DiscordIndex.instance()::putMember);
 
-                if (iUser == null || (DiscordAPI.selfId.isPresent() && iUser.getId().equals(DiscordAPI.selfId.get()))) {
-                    return;
-                }
+            // Runs entirely on the gateway's threads, so nothing in here may block
+            iMessage.getChannel().timeout(Duration.ofMillis(500)).flatMap(iChannel -> {
+                Mono<User> user;
 
-                String username = iUser.getUsername().toLowerCase();
-                String message = iMessage.getContent();
-                String channel;
-                Mono<Boolean> isAdmin = DiscordAPI.instance().isAdministratorAsync(iUser);
-
-                processedMessages.add(iMessage.getId().asLong());
-                listTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        processedMessages.remove(iMessage.getId().asLong());
-                    }
-                }, 5000);
-
-                if (iChannel.getType() == Channel.Type.DM) {
-                    channel = "DM";
+                if (event.getMember().isPresent()) {
+                    user = Mono.just((User) event.getMember().get());
+                } else if (iChannel instanceof PrivateChannel) {
+                    user = ((PrivateChannel) iChannel).getRecipients().take(1).singleOrEmpty().timeout(Duration.ofMillis(500));
                 } else {
-                    channel = "#" + ((GuildMessageChannel) iChannel).getName();
+                    user = Mono.empty();
                 }
 
-                if (message == null || message.isEmpty()) {
-                    return;
-                }
+                return user.filter(iUser -> !(DiscordAPI.selfId.isPresent() && iUser.getId().equals(DiscordAPI.selfId.get())))
+                        .flatMap(iUser -> Mono.defer(() -> DiscordAPI.instance().isAdministratorAsync(iUser)).timeout(Duration.ofMillis(500))
+                        .onErrorReturn(false).defaultIfEmpty(false).doOnSuccess(isAdmin -> onDiscordMessage(iUser, iChannel, iMessage, isAdmin)));
+            }).doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+        }
 
-                com.gmt2001.Console.out.println("[DISCORD] [" + channel + "] " + username + ": " + message);
+        private static void onDiscordMessage(User iUser, Channel iChannel, Message iMessage, boolean isAdmin) {
+            String username = iUser.getUsername().toLowerCase();
+            String message = iMessage.getContent();
+            String channel;
 
-                if (message.charAt(0) == '!') {
-                    DiscordAPI.instance().parseCommand(iUser, iChannel, iMessage, isAdmin.block(Duration.ofMillis(500)));
-                }
+            if (iChannel.getType() == Channel.Type.DM) {
+                channel = "DM";
+            } else {
+                channel = "#" + ((GuildMessageChannel) iChannel).getName();
+            }
 
-                EventBus.instance().postAsync(new DiscordChannelMessageEvent(iUser, iChannel, iMessage, isAdmin.block(Duration.ofMillis(500))));
-            }).doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+            if (message == null || message.isEmpty()) {
+                return;
+            }
+
+            com.gmt2001.Console.out.println("[DISCORD] [" + channel + "] " + username + ": " + message);
+
+            if (message.charAt(0) == '!') {
+                DiscordAPI.instance().parseCommand(iUser, iChannel, iMessage, isAdmin);
+            }
+
+            EventBus.instance().postAsync(new DiscordChannelMessageEvent(iUser, iChannel, iMessage, isAdmin));
         }
 
         public static void onDiscordUserJoinEvent(MemberJoinEvent event) {
+            DiscordIndex.instance().putMember(event.getMember());
             EventBus.instance().postAsync(new DiscordChannelJoinEvent(event.getMember()));
         }
 
+        public static void onDiscordMemberUpdateEvent(MemberUpdateEvent event) {
+            event.getMember().doOnSuccess(member -> {
+                if (member != null) {
+                    DiscordIndex.instance().putMember(member);
+                }
+            }).doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+        }
+
         public static void onDiscordUserLeaveEvent(MemberLeaveEvent event) {
+            DiscordIndex.instance().removeMember(event.getUser().getId());
             EventBus.instance().postAsync(new DiscordChannelPartEvent(event.getUser()));
         }
 
         public static void onDiscordRoleCreateEvent(RoleCreateEvent event) {
+            DiscordIndex.instance().putRole(event.getRole());
             EventBus.instance().post(new DiscordRoleCreatedEvent(event.getRole()));
         }
 
         public static void onDiscordRoleUpdateEvent(RoleUpdateEvent event) {
+            DiscordIndex.instance().putRole(event.getCurrent());
             EventBus.instance().post(new DiscordRoleUpdatedEvent(event.getCurrent()));
         }
 
         public static void onDiscordRoleDeleteEvent(RoleDeleteEvent event) {
+            DiscordIndex.instance().removeRole(event.getRoleId());
+
             Role role = event.getRole().get();
 
             if (role == null) {
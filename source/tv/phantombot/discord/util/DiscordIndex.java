@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.discord.util;
+
+import discord4j.core.object.entity.Guild;
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.Role;
+import discord4j.core.object.entity.channel.GuildMessageChannel;
+import discord4j.core.retriever.EntityRetrievalStrategy;
+import discord4j.rest.util.Snowflake;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the names of the guild's channels, members and roles to their IDs, so that lookups by name do not have to scan the guild
+ *
+ * The index is kept current by the gateway events handled in {@link tv.phantombot.discord.DiscordAPI}. Members are only sent by the gateway
+ * when the privileged members intent is granted, so members are also added as they are seen in messages and lookups
+ */
+public final class DiscordIndex {
+
+    private static final DiscordIndex INSTANCE = new DiscordIndex();
+    private static final Pattern MENTION = Pattern.compile("^<(?:@!?|@&|#)(\\d+)>$");
+    private static final Pattern ID = Pattern.compile("^\\d{15,20}$");
+    private final NameIndex channels = new NameIndex();
+    private final NameIndex members = new NameIndex();
+    private final NameIndex roles = new NameIndex();
+
+    public static DiscordIndex instance() {
+        return INSTANCE;
+    }
+
+    private DiscordIndex() {
+    }
+
+    /**
+     * Method that drops everything and reloads the channels, roles and known members of the guild from the gateway cache.
+     *
+     * @param guild
+     */
+    public void rebuild(Guild guild) {
+        this.channels.clear();
+        this.members.clear();
+        this.roles.clear();
+
+        guild.getChannels(EntityRetrievalStrategy.STORE).ofType(GuildMessageChannel.class).doOnNext(this::putChannel)
+                .doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+        guild.getRoles(EntityRetrievalStrategy.STORE).doOnNext(this::putRole)
+                .doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+        guild.getMembers(EntityRetrievalStrategy.STORE).doOnNext(this::putMember)
+                .doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).subscribe();
+    }
+
+    public void putChannel(GuildMessageChannel channel) {
+        this.channels.put(channel.getId(), channel.getName());
+    }
+
+    public void removeChannel(Snowflake id) {
+        this.channels.remove(id);
+    }
+
+    public void putMember(Member member) {
+        this.members.put(member.getId(), member.getDisplayName(), member.getUsername());
+    }
+
+    public void removeMember(Snowflake id) {
+        this.members.remove(id);
+    }
+
+    public void putRole(Role role) {
+        this.roles.put(role.getId(), role.getName());
+    }
+
+    public void removeRole(Snowflake id) {
+        this.roles.remove(id);
+    }
+
+    /**
+     * Method that returns the ID of a channel by its name or ID, or {@code null} if it is not indexed.
+     *
+     * @param channelName - The name of the channel, without the #.
+     * @return {Snowflake}
+     */
+    public Snowflake getChannelId(String channelName) {
+        return lookup(this.channels, channelName);
+    }
+
+    /**
+     * Method that returns the ID of a member by their display name, username, mention or ID, or {@code null} if it is not indexed.
+     *
+     * @param userName
+     * @return {Snowflake}
+     */
+    public Snowflake getMemberId(String userName) {
+        return lookup(this.members, userName);
+    }
+
+    /**
+     * Method that returns the ID of a role by its name, mention or ID, or {@code null} if it is not indexed.
+     *
+     * @param roleName
+     * @return {Snowflake}
+     */
+    public Snowflake getRoleId(String roleName) {
+        return lookup(this.roles, roleName);
+    }
+
+    /**
+     * Method that returns the number of indexed channels, members and roles.
+     *
+     * @return {String}
+     */
+    public String getStats() {
+        return "Channels: " + this.channels.size() + ", Members: " + this.members.size() + ", Roles: " + this.roles.size();
+    }
+
+    private static Snowflake lookup(NameIndex index, String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+
+        Snowflake id = index.get(name);
+
+        if (id != null) {
+            return id;
+        }
+
+        Matcher m = MENTION.matcher(name.trim());
+
+        if (m.matches()) {
+            return Snowflake.of(m.group(1));
+        } else if (ID.matcher(name.trim()).matches()) {
+            return Snowflake.of(name.trim());
+        }
+
+        return null;
+    }
+
+    /**
+     * Lowercased names to ID, with the reverse mapping needed to drop the old names on an update or delete
+     */
+    private static final class NameIndex {
+
+        private final Map<String, Snowflake> byName = new ConcurrentHashMap<>();
+        private final Map<Snowflake, Set<String>> namesById = new ConcurrentHashMap<>();
+
+        private synchronized void put(Snowflake id, String... names) {
+            this.remove(id);
+            Set<String> keys = new HashSet<>();
+
+            for (String name : names) {
+                if (name != null && !name.isBlank()) {
+                    String key = name.toLowerCase(Locale.ROOT);
+                    this.byName.put(key, id);
+                    keys.add(key);
+                }
+            }
+
+            this.namesById.put(id, keys);
+        }
+
+        private synchronized void remove(Snowflake id) {
+            Set<String> keys = this.namesById.remove(id);
+
+            if (keys != null) {
+                keys.forEach(k -> this.byName.remove(k, id));
+            }
+        }
+
+        private synchronized void clear() {
+            this.byName.clear();
+            this.namesById.clear();
+        }
+
+        private Snowflake get(String name) {
+            return this.byName.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        private int size() {
+            return this.namesById.size();
+        }
+    }
+}
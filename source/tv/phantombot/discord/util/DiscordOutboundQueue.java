@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.discord.util;
+
+import discord4j.common.ReactorResources;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientResponse;
+
+/**
+ * Paces outbound Discord requests made by scripts, so that bursts wait here instead of piling up on Discord's rate limits
+ *
+ * Requests are queued per rate limit bucket (messages per channel, reactions per channel, member role edits) and drained by a single timer
+ * thread, which also enforces the global limit. The buckets start from Discord's documented limits and are corrected from the
+ * {@code X-RateLimit-*} headers of every REST response, including 429s
+ *
+ * Submitting never blocks. The returned {@link Mono} completes with the result of the request once it has been sent
+ */
+public final class DiscordOutboundQueue {
+
+    private static final DiscordOutboundQueue INSTANCE = new DiscordOutboundQueue();
+    private static final Pattern MESSAGES_ROUTE = Pattern.compile("channels/(\\d+)/messages/?$");
+    private static final Pattern REACTIONS_ROUTE = Pattern.compile("channels/(\\d+)/messages/\\d+/reactions/");
+    private static final Pattern MEMBERS_ROUTE = Pattern.compile("guilds/\\d+/members/\\d+");
+    private static final int GLOBAL_LIMIT = 50;
+    private static final long GLOBAL_WINDOW_MS = 1000L;
+    private static final int MAX_QUEUED = 1000;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "tv.phantombot.discord.util.DiscordOutboundQueue");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+    private int queued = 0;
+    private int globalRemaining = GLOBAL_LIMIT;
+    private long globalResetAt = 0L;
+    private ScheduledFuture<?> wakeup = null;
+    private long wakeupAt = Long.MAX_VALUE;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder globalRateLimited = new LongAdder();
+    private final AtomicLong maxWaitMs = new AtomicLong(0L);
+
+    public static DiscordOutboundQueue instance() {
+        return INSTANCE;
+    }
+
+    private DiscordOutboundQueue() {
+    }
+
+    /**
+     * Method that wraps the HTTP client used by Discord4J so that every REST response updates the buckets.
+     *
+     * @param resources - The default resources.
+     * @return {ReactorResources}
+     */
+    public ReactorResources instrument(ReactorResources resources) {
+        return new ReactorResources(resources.getHttpClient().doOnResponse((response, connection) -> this.onResponse(response)),
+                resources.getTimerTaskScheduler(), resources.getBlockingTaskScheduler());
+    }
+
+    /**
+     * Method that returns the bucket key for messages sent to a channel.
+     *
+     * @param channelId
+     * @return {String}
+     */
+    public static String messageBucket(String channelId) {
+        return "messages:" + channelId;
+    }
+
+    /**
+     * Method that returns the bucket key for reactions added in a channel.
+     *
+     * @param channelId
+     * @return {String}
+     */
+    public static String reactionBucket(String channelId) {
+        return "reactions:" + channelId;
+    }
+
+    /**
+     * Method that returns the bucket key for member edits.
+     *
+     * @return {String}
+     */
+    public static String memberBucket() {
+        return "members";
+    }
+
+    /**
+     * Method that queues a request.
+     *
+     * @param bucket - The bucket key of the request.
+     * @param request - Creates the request when it is its turn to be sent.
+     * @return {Mono} - Completes with the result of the request, or errors with a {@link RejectedExecutionException} if the queue is full.
+     */
+    public <T> Mono<T> submit(String bucket, Supplier<Mono<T>> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        synchronized (this) {
+            if (this.queued >= MAX_QUEUED) {
+                this.rejected.increment();
+                future.completeExceptionally(new RejectedExecutionException("Discord outbound queue is full"));
+                return Mono.fromFuture(future);
+            }
+
+            this.buckets.computeIfAbsent(bucket, Bucket::new).jobs.add(new Job<>(request, future));
+            this.queued++;
+        }
+
+        this.submitted.increment();
+        this.timer.execute(this::drain);
+        return Mono.fromFuture(future);
+    }
+
+    /**
+     * Method that returns the queue depth, the busiest buckets and the 429 counts.
+     *
+     * @return {String}
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+
+        synchronized (this) {
+            sb.append(String.format("Queued: %d (limit %d), Submitted: %d, Sent: %d, Failed: %d, Rejected (full): %d, 429s: %d (%d global), "
+                    + "Max wait: %dms", this.queued, MAX_QUEUED, this.submitted.sum(), this.sent.sum(), this.failed.sum(), this.rejected.sum(),
+                    this.rateLimited.sum(), this.globalRateLimited.sum(), this.maxWaitMs.get()));
+
+            this.buckets.values().stream().filter(b -> !b.jobs.isEmpty() || b.rateLimited > 0).forEach(b -> {
+                sb.append(String.format("%n  %s: Queued: %d, Remaining: %d/%d, 429s: %d", b.key, b.jobs.size(), b.remaining, b.limit, b.rateLimited));
+            });
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Sends every queued request whose bucket, and the global bucket, have room, then sleeps until the next one does
+     */
+    private void drain() {
+        List<Job<?>> ready = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+
+        synchronized (this) {
+            if (this.wakeupAt <= now) {
+                this.wakeupAt = Long.MAX_VALUE;
+                this.wakeup = null;
+            }
+
+            boolean progress = true;
+
+            while (progress && this.queued > 0) {
+                progress = false;
+
+                if (now >= this.globalResetAt) {
+                    this.globalRemaining = GLOBAL_LIMIT;
+                    this.globalResetAt = now + GLOBAL_WINDOW_MS;
+                }
+
+                if (this.globalRemaining <= 0) {
+                    next = this.globalResetAt;
+                    break;
+                }
+
+                for (Bucket b : this.buckets.values()) {
+                    if (b.jobs.isEmpty()) {
+                        continue;
+                    }
+
+                    if (now >= b.resetAt) {
+                        b.remaining = b.limit;
+                        b.resetAt = now + b.windowMs;
+                    }
+
+                    if (b.remaining <= 0) {
+                        next = Math.min(next, b.resetAt);
+                        continue;
+                    }
+
+                    if (this.globalRemaining <= 0) {
+                        next = Math.min(next, this.globalResetAt);
+                        break;
+                    }
+
+                    b.remaining--;
+                    this.globalRemaining--;
+                    this.queued--;
+                    ready.add(b.jobs.poll());
+                    progress = true;
+                }
+            }
+
+            if (this.queued > 0 && next != Long.MAX_VALUE && next < this.wakeupAt) {
+                if (this.wakeup != null) {
+                    this.wakeup.cancel(false);
+                }
+
+                this.wakeupAt = next;
+                this.wakeup = this.timer.schedule(this::drain, Math.max(1L, next - now), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        ready.forEach(j -> j.run(now));
+    }
+
+    /**
+     * Updates the bucket of a REST response from its rate limit headers
+     *
+     * @param response The response
+     */
+    private void onResponse(HttpClientResponse response) {
+        String path = response.path();
+        String key = null;
+        Matcher m;
+
+        if (response.method() == HttpMethod.POST && (m = MESSAGES_ROUTE.matcher(path)).find()) {
+            key = messageBucket(m.group(1));
+        } else if (response.method() == HttpMethod.PUT && (m = REACTIONS_ROUTE.matcher(path)).find()) {
+            key = reactionBucket(m.group(1));
+        } else if (MEMBERS_ROUTE.matcher(path).find()) {
+            key = memberBucket();
+        }
+
+        HttpHeaders headers = response.responseHeaders();
+        boolean is429 = response.status().code() == 429;
+
+        if (!is429 && key == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long resetAfterMs = parseSeconds(headers.get("X-RateLimit-Reset-After"), parseSeconds(headers.get("Retry-After"), -1L));
+
+        synchronized (this) {
+            if (is429) {
+                this.rateLimited.increment();
+
+                if ("true".equalsIgnoreCase(headers.get("X-RateLimit-Global"))) {
+                    this.globalRateLimited.increment();
+                    this.globalRemaining = 0;
+                    this.globalResetAt = now + Math.max(resetAfterMs, GLOBAL_WINDOW_MS);
+                    com.gmt2001.Console.debug.println("Discord global rate limit hit, pausing " + (this.globalResetAt - now) + "ms");
+                    return;
+                }
+            }
+
+            if (key == null) {
+                return;
+            }
+
+            Bucket b = this.buckets.computeIfAbsent(key, Bucket::new);
+
+            try {
+                String limit = headers.get("X-RateLimit-Limit");
+
+                if (limit != null) {
+                    b.limit = Math.max(1, Integer.parseInt(limit));
+                }
+
+                String remaining = headers.get("X-RateLimit-Remaining");
+
+                if (remaining != null) {
+                    b.remaining = Math.min(b.remaining, Integer.parseInt(remaining));
+                }
+            } catch (NumberFormatException ex) {
+                com.gmt2001.Console.debug.printStackTrace(ex);
+            }
+
+            if (is429) {
+                b.rateLimited++;
+                b.remaining = 0;
+            }
+
+            if (resetAfterMs >= 0) {
+                b.resetAt = now + resetAfterMs;
+            }
+        }
+    }
+
+    private static long parseSeconds(String value, long def) {
+        if (value == null || value.isBlank()) {
+            return def;
+        }
+
+        try {
+            return (long) Math.ceil(Double.parseDouble(value) * 1000.0);
+        } catch (NumberFormatException ex) {
+            return def;
+        }
+    }
+
+    /**
+     * A rate limit bucket and the requests waiting on it
+     */
+    private static final class Bucket {
+
+        private final String key;
+        private final Deque<Job<?>> jobs = new ArrayDeque<>();
+        private int limit;
+        private int remaining;
+        private final long windowMs;
+        private long resetAt = 0L;
+        private long rateLimited = 0L;
+
+        private Bucket(String key) {
+            this.key = key;
+
+            if (key.startsWith("reactions:")) {
+                this.limit = 1;
+                this.windowMs = 250L;
+            } else if (key.equals("members")) {
+                this.limit = 10;
+                this.windowMs = 10000L;
+            } else {
+                this.limit = 5;
+                this.windowMs = 5000L;
+            }
+
+            this.remaining = this.limit;
+        }
+    }
+
+    /**
+     * A queued request
+     */
+    private final class Job<T> {
+
+        private final Supplier<Mono<T>> request;
+        private final CompletableFuture<T> future;
+        private final long queuedAt = System.currentTimeMillis();
+
+        private Job(Supplier<Mono<T>> request, CompletableFuture<T> future) {
+            this.request = request;
+            this.future = future;
+        }
+
+        private void run(long now) {
+            maxWaitMs.accumulateAndGet(now - this.queuedAt, Math::max);
+
+            try {
+                Mono<T> mono = this.request.get();
+
+                if (mono == null) {
+                    sent.increment();
+                    this.future.complete(null);
+                    return;
+                }
+
+                mono.subscribe(this.future::complete, e -> {
+                    failed.increment();
+                    com.gmt2001.Console.debug.printStackTrace(e);
+                    this.future.completeExceptionally(e);
+                }, () -> {
+                    sent.increment();
+                    this.future.complete(null);
+                });
+            } catch (Exception ex) {
+                failed.increment();
+                com.gmt2001.Console.debug.printStackTrace(ex);
+                this.future.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import discord4j.core.object.entity.channel.PrivateChannel;
 import discord4j.core.object.presence.Activity;
 import discord4j.core.object.presence.Presence;
 import discord4j.core.object.reaction.ReactionEmoji;
+import discord4j.core.retriever.EntityRetrievalStrategy;
 import discord4j.core.spec.EmbedCreateSpec;
 import discord4j.rest.http.client.ClientException;
 import discord4j.rest.json.response.ErrorResponse;
@@ -40,11 +41,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import reactor.core.publisher.Flux;
@@ -61,6 +66,7 @@ import tv.phantombot.discord.DiscordAPI;
 public class DiscordUtil {
 
     private static final int MAX_ITERATION = 5;
+    private static final Duration ROLE_EDIT_DELAY = Duration.ofMillis(500);
     private static final String[] VALID_PATHS = new String[]{
         "./addons",
         "./config/audio-hooks",
@@ -69,6 +75,8 @@ public class DiscordUtil {
         "./scripts"
     };
 
+    private final Map<Snowflake, RoleEdit> pendingRoleEdits = new HashMap<>();
+
     public DiscordUtil() {
     }
 
@@ -106,7 +114,11 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendMessageAsync(MessageChannel channel, String message) {
-        return sendMessageAsync(channel, message, 0);
+        if (channel == null) {
+            return sendMessageAsync(channel, message, 0);
+        }
+
+        return DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.messageBucket(channel.getId().asString()), () -> sendMessageAsync(channel, message, 0));
     }
 
     /**
@@ -156,7 +168,7 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendMessageAsync(String channelName, String message) {
-        return getChannelAsync(channelName).flatMap(channel -> sendMessageAsync(channel, message));
+        return DiscordOutboundQueue.instance().submit(messageBucket(channelName), () -> getChannelAsync(channelName).flatMap(channel -> sendMessageAsync(channel, message, 0)));
     }
 
     /**
@@ -238,7 +250,11 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendMessageEmbedAsync(GuildMessageChannel channel, Consumer<? super EmbedCreateSpec> embed) {
-        return sendMessageEmbedAsync(channel, embed, 0);
+        if (channel == null) {
+            return sendMessageEmbedAsync(channel, embed, 0);
+        }
+
+        return DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.messageBucket(channel.getId().asString()), () -> sendMessageEmbedAsync(channel, embed, 0));
     }
 
     /**
@@ -285,7 +301,7 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendMessageEmbedAsync(String channelName, Consumer<? super EmbedCreateSpec> embed) {
-        return getChannelAsync(channelName).flatMap(channel -> sendMessageEmbedAsync(channel, embed));
+        return DiscordOutboundQueue.instance().submit(messageBucket(channelName), () -> getChannelAsync(channelName).flatMap(channel -> sendMessageEmbedAsync(channel, embed, 0)));
     }
 
     /**
@@ -317,9 +333,13 @@ public class DiscordUtil {
      */
     @Deprecated
     public Message sendMessageEmbed(String channelName, String color, String message) {
+        return sendMessageEmbedAsync(channelName, color, message).block();
+    }
+
+    public Mono<Message> sendMessageEmbedAsync(String channelName, String color, String message) {
         return sendMessageEmbedAsync(channelName, ebd
                 -> ebd.setColor(getColor(color)).setDescription(message)
-        ).block();
+        );
     }
 
     @Deprecated
@@ -328,7 +348,11 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendFileAsync(GuildMessageChannel channel, String message, String fileLocation) {
-        return sendFileAsync(channel, message, fileLocation, 0);
+        if (channel == null) {
+            return sendFileAsync(channel, message, fileLocation, 0);
+        }
+
+        return DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.messageBucket(channel.getId().asString()), () -> sendFileAsync(channel, message, fileLocation, 0));
     }
 
     /**
@@ -403,7 +427,19 @@ public class DiscordUtil {
     }
 
     public Mono<Message> sendFileAsync(String channelName, String message, String fileLocation) {
-        return getChannelAsync(channelName).flatMap(channel -> sendFileAsync(channel, message, fileLocation));
+        return DiscordOutboundQueue.instance().submit(messageBucket(channelName), () -> getChannelAsync(channelName).flatMap(channel -> sendFileAsync(channel, message, fileLocation, 0)));
+    }
+
+    /**
+     * Method that returns the outbound queue bucket of a channel, by its name.
+     *
+     * @param channelName
+     * @return {String}
+     */
+    private String messageBucket(String channelName) {
+        String schannelName = sanitizeChannelName(channelName);
+        Snowflake id = DiscordIndex.instance().getChannelId(schannelName);
+        return DiscordOutboundQueue.messageBucket(id != null ? id.asString() : "#" + schannelName.toLowerCase());
     }
 
     /**
@@ -437,9 +473,7 @@ public class DiscordUtil {
      */
     public void addReaction(Message message, ReactionEmoji emoji) {
         if (message != null && emoji != null) {
-            message.addReaction(emoji).doOnError(e -> {
-                com.gmt2001.Console.err.printStackTrace(e);
-            }).subscribe();
+            addReactions(message, new ReactionEmoji[]{emoji});
         } else if (DiscordAPI.instance().checkConnectionStatus() == DiscordAPI.ConnectionState.RECONNECTED) {
             addReaction(message, emoji);
         } else {
@@ -454,9 +488,15 @@ public class DiscordUtil {
      * @param emojis The reaction objects
      */
     public void addReactions(Message message, ReactionEmoji... emojis) {
-        for (ReactionEmoji emoji : emojis) {
-            addReaction(message, emoji);
+        if (message == null || emojis == null) {
+            throw new IllegalArgumentException("message or emoji object was null");
         }
+
+        // Queued as one job, so the reactions stay in order and only wait for the bucket once
+        DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.reactionBucket(message.getChannelId().asString()),
+                () -> Flux.fromArray(emojis).concatMap(emoji -> message.addReaction(emoji)).then()).doOnError(e -> {
+            com.gmt2001.Console.err.printStackTrace(e);
+        }).subscribe();
     }
 
     /**
@@ -493,8 +533,10 @@ public class DiscordUtil {
      */
     public void addReactions(Message message, String... emojis) {
         DiscordAPI.getGuild().getEmojis().collectList().doOnSuccess(gel -> {
+            ReactionEmoji[] res = new ReactionEmoji[emojis.length];
             ReactionEmoji re;
-            for (String emoji : emojis) {
+            for (int i = 0; i < emojis.length; i++) {
+                String emoji = emojis[i];
                 re = null;
 
                 if (gel != null) {
@@ -509,8 +551,10 @@ public class DiscordUtil {
                     re = ReactionEmoji.unicode(emoji);
                 }
 
-                addReaction(message, re);
+                res[i] = re;
             }
+
+            addReactions(message, res);
         }).subscribe();
     }
 
@@ -528,8 +572,12 @@ public class DiscordUtil {
     public Mono<GuildMessageChannel> getChannelAsync(String channelName) {
         String schannelName = sanitizeChannelName(channelName);
         try {
-            return DiscordAPI.getGuild().getChannels().filter(channel -> channel.getName().equalsIgnoreCase(schannelName)
-                    || channel.getId().asString().equals(schannelName)).take(1).single().map(c -> (GuildMessageChannel) c);
+            return lookup(DiscordIndex.instance().getChannelId(schannelName),
+                    id -> DiscordAPI.getGuild().getChannelById(id).ofType(GuildMessageChannel.class),
+                    channel -> channel.getName().equalsIgnoreCase(schannelName) || channel.getId().asString().equals(schannelName),
+                    DiscordAPI.getGuild().getChannels().filter(channel -> channel.getName().equalsIgnoreCase(schannelName)
+                    || channel.getId().asString().equals(schannelName)).take(1).single().map(c -> (GuildMessageChannel) c)
+                            .doOnSuccess(DiscordIndex.instance()::putChannel));
         } catch (NoSuchElementException ex) {
             com.gmt2001.Console.err.println("Unable to find channelName [" + channelName + "]");
             throw ex;
@@ -568,20 +616,18 @@ public class DiscordUtil {
      * @return {User}
      */
     public Mono<User> getUserAsync(String userName) {
-        Flux<Member> members = DiscordAPI.getGuild().getMembers();
+        Snowflake indexed = DiscordIndex.instance().getMemberId(userName);
 
         if (PhantomBot.getEnableDebugging()) {
-            com.gmt2001.Console.debug.println(userName);
-            com.gmt2001.Console.debug.println(members.count().block());
+            com.gmt2001.Console.debug.println(userName + " indexed: " + (indexed != null));
         }
 
-        Flux<Member> filteredMembers = members.filter(user -> user.getDisplayName().equalsIgnoreCase(userName) || user.getUsername().equalsIgnoreCase(userName) || user.getMention().equalsIgnoreCase(userName) || user.getNicknameMention().equalsIgnoreCase(userName));
+        Predicate<Member> matches = user -> user.getDisplayName().equalsIgnoreCase(userName) || user.getUsername().equalsIgnoreCase(userName) || user.getMention().equalsIgnoreCase(userName) || user.getNicknameMention().equalsIgnoreCase(userName);
 
-        if (PhantomBot.getEnableDebugging()) {
-            com.gmt2001.Console.debug.println(filteredMembers.count().block());
-        }
         try {
-            return filteredMembers.take(1).single().map(m -> (User) m);
+            return lookup(indexed, id -> DiscordAPI.getGuild().getMemberById(id), matches,
+                    DiscordAPI.getGuild().getMembers().filter(matches).take(1).single().doOnSuccess(DiscordIndex.instance()::putMember))
+                    .map(m -> (User) m);
         } catch (NoSuchElementException ex) {
             com.gmt2001.Console.err.println("Unable to find userName [" + userName + "]");
             throw ex;
@@ -642,21 +688,17 @@ public class DiscordUtil {
      * @return {Role}
      */
     public Mono<Role> getRoleAsync(String roleName) {
-        Flux<Role> roles = DiscordAPI.getGuild().getRoles();
+        Snowflake indexed = DiscordIndex.instance().getRoleId(roleName);
 
         if (PhantomBot.getEnableDebugging()) {
-            com.gmt2001.Console.debug.println(roleName);
-            com.gmt2001.Console.debug.println(roles.count().block());
+            com.gmt2001.Console.debug.println(roleName + " indexed: " + (indexed != null));
         }
 
-        Flux<Role> filteredRoles = roles.filter(role -> role.getName().equalsIgnoreCase(roleName) || role.getMention().equalsIgnoreCase(roleName));
-
-        if (PhantomBot.getEnableDebugging()) {
-            com.gmt2001.Console.debug.println(filteredRoles.count().block());
-        }
+        Predicate<Role> matches = role -> role.getName().equalsIgnoreCase(roleName) || role.getMention().equalsIgnoreCase(roleName);
 
         try {
-            return filteredRoles.take(1).single();
+            return lookup(indexed, id -> DiscordAPI.getGuild().getRoleById(id), matches,
+                    DiscordAPI.getGuild().getRoles().filter(matches).take(1).single().doOnSuccess(DiscordIndex.instance()::putRole));
         } catch (NoSuchElementException ex) {
             com.gmt2001.Console.err.println("Unable to find roleName [" + roleName + "]");
             throw ex;
@@ -695,9 +737,26 @@ public class DiscordUtil {
     }
 
     public Mono<Role[]> getRoleObjectsAsync(String... roles) {
-        return Mono.fromCallable(() -> {
-            return Flux.fromArray(roles).map(r -> getRoleAsync(r).block()).toStream().toArray(i -> new Role[i]);
-        });
+        return Flux.fromArray(roles).concatMap(r -> getRoleAsync(r)).collectList().map(l -> l.toArray(new Role[0]));
+    }
+
+    /**
+     * Method that resolves an entity through the name index, falling back to a scan of the guild on a miss.
+     *
+     * The indexed entity is only used if it still matches, so a rename that the index has not seen yet also falls back to the scan.
+     *
+     * @param id - The indexed ID, or null on a miss.
+     * @param byId - Fetches the entity by its ID.
+     * @param matches - Checks that the fetched entity is the one requested.
+     * @param scan - The scan of the guild.
+     * @return {Mono}
+     */
+    private static <T> Mono<T> lookup(Snowflake id, Function<Snowflake, Mono<T>> byId, Predicate<T> matches, Mono<T> scan) {
+        if (id == null) {
+            return scan;
+        }
+
+        return byId.apply(id).filter(matches).onErrorResume(e -> Mono.empty()).switchIfEmpty(scan);
     }
 
     /**
@@ -741,18 +800,22 @@ public class DiscordUtil {
             throw new IllegalArgumentException("user or roles object was null");
         }
 
-        user.asMember(DiscordAPI.getGuild().getId()).doOnSuccess(m -> {
-            Set<Snowflake> rolesSf = new HashSet<>();
+        Set<Snowflake> rolesSf = new HashSet<>();
 
-            for (Role role : roles) {
-                rolesSf.add(role.getId());
-            }
+        for (Role role : roles) {
+            rolesSf.add(role.getId());
+        }
 
-            m.edit(eds
-                    -> eds.setRoles(rolesSf)
-            ).doOnError(e -> {
-                com.gmt2001.Console.err.printStackTrace(e);
-            }).subscribe();
+        // Replacing the roles supersedes any single role changes that are still waiting
+        synchronized (pendingRoleEdits) {
+            pendingRoleEdits.remove(user.getId());
+        }
+
+        DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.memberBucket(), () -> user.asMember(DiscordAPI.getGuild().getId()).flatMap(m
+                -> m.edit(eds
+                        -> eds.setRoles(rolesSf)
+                ))).doOnError(e -> {
+            com.gmt2001.Console.err.printStackTrace(e);
         }).subscribe();
     }
 
@@ -777,11 +840,7 @@ public class DiscordUtil {
             throw new IllegalArgumentException("user or role object was null");
         }
 
-        user.asMember(DiscordAPI.getGuild().getId()).doOnSuccess(m -> {
-            m.addRole(role.getId()).doOnError(e -> {
-                com.gmt2001.Console.err.printStackTrace(e);
-            }).subscribe();
-        }).subscribe();
+        queueRoleEdit(user, role.getId(), true);
     }
 
     /**
@@ -822,11 +881,81 @@ public class DiscordUtil {
             throw new IllegalArgumentException("user or role object was null");
         }
 
-        user.asMember(DiscordAPI.getGuild().getId()).doOnSuccess(m -> {
-            m.removeRole(role.getId()).doOnError(e -> {
-                com.gmt2001.Console.err.printStackTrace(e);
-            }).subscribe();
-        });
+        queueRoleEdit(user, role.getId(), false);
+    }
+
+    /**
+     * Method that collects role changes for a user for a short time, so that a burst of them is sent as a single member edit.
+     *
+     * @param user
+     * @param roleId
+     * @param add - true to add the role, false to remove it.
+     */
+    private void queueRoleEdit(User user, Snowflake roleId, boolean add) {
+        boolean schedule;
+
+        synchronized (pendingRoleEdits) {
+            RoleEdit edit = pendingRoleEdits.get(user.getId());
+            schedule = edit == null;
+
+            if (schedule) {
+                edit = new RoleEdit();
+                pendingRoleEdits.put(user.getId(), edit);
+            }
+
+            if (add) {
+                edit.remove.remove(roleId);
+                edit.add.add(roleId);
+            } else {
+                edit.add.remove(roleId);
+                edit.remove.add(roleId);
+            }
+        }
+
+        if (schedule) {
+            Mono.delay(ROLE_EDIT_DELAY).subscribe(l -> flushRoleEdit(user));
+        }
+    }
+
+    /**
+     * Method that sends the collected role changes of a user.
+     *
+     * A couple of changes are sent as they are. More than that are applied to the member's current roles, read from Discord rather than the
+     * gateway cache, and sent as one edit.
+     *
+     * @param user
+     */
+    private void flushRoleEdit(User user) {
+        RoleEdit edit;
+
+        synchronized (pendingRoleEdits) {
+            edit = pendingRoleEdits.remove(user.getId());
+        }
+
+        if (edit == null || (edit.add.isEmpty() && edit.remove.isEmpty())) {
+            return;
+        }
+
+        DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.memberBucket(), () -> {
+            if (edit.add.size() + edit.remove.size() <= 2) {
+                return user.asMember(DiscordAPI.getGuild().getId()).flatMap(m -> Flux.concat(Flux.fromIterable(edit.add).concatMap(r -> m.addRole(r)),
+                        Flux.fromIterable(edit.remove).concatMap(r -> m.removeRole(r))).then());
+            }
+
+            return DiscordAPI.getGuild().getMemberById(user.getId(), EntityRetrievalStrategy.REST).flatMap(m -> {
+                Set<Snowflake> roles = new HashSet<>(m.getRoleIds());
+                roles.addAll(edit.add);
+                roles.removeAll(edit.remove);
+
+                if (roles.equals(m.getRoleIds())) {
+                    return Mono.empty();
+                }
+
+                return m.edit(eds -> eds.setRoles(roles));
+            });
+        }).doOnError(e -> {
+            com.gmt2001.Console.err.printStackTrace(e);
+        }).subscribe();
     }
 
     /**
@@ -927,23 +1056,17 @@ public class DiscordUtil {
      * @param amount
      */
     public void bulkDelete(GuildMessageChannel channel, int amount) {
-        // Discord4J says that getting messages can block the current thread if they need to be requested from Discord's API.
-        // So start this on a new thread to avoid that. Please note that you need to delete at least 2 messages.
-
+        // Please note that you need to delete at least 2 messages.
         if (channel == null || amount < 2) {
             throw new IllegalArgumentException("channel object was null or amount was less than 2");
         }
 
         com.gmt2001.Console.debug.println("Attempting to delete " + amount + " messages from " + channel.getName());
-        Thread thread;
-        thread = new Thread(() -> {
-            channel.getMessagesBefore(channel.getLastMessageId().orElseThrow()).take(amount).collectList().doOnSuccess(msgs -> {
-                com.gmt2001.Console.debug.println("Found " + msgs.size() + " messages to delete");
-                channel.bulkDelete(Flux.fromIterable(msgs).map(msg -> msg.getId())).doOnNext(s -> com.gmt2001.Console.err.println("Rejected message " + s.asString() + " from delete operation for being too old")).doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).doOnComplete(() -> com.gmt2001.Console.debug.println("Bulk delete complete")).subscribe();
-            }).subscribe();
-        }, "tv.phantombot.discord.util.DiscordUtil::bulkDelete");
-
-        thread.start();
+        DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.messageBucket(channel.getId().asString()), () -> Mono.justOrEmpty(channel.getLastMessageId())
+                .flatMapMany(id -> channel.getMessagesBefore(id)).take(amount).map(msg -> msg.getId()).collectList().flatMap(msgs -> {
+            com.gmt2001.Console.debug.println("Found " + msgs.size() + " messages to delete");
+            return channel.bulkDelete(Flux.fromIterable(msgs)).doOnNext(s -> com.gmt2001.Console.err.println("Rejected message " + s.asString() + " from delete operation for being too old")).then();
+        })).doOnError(e -> com.gmt2001.Console.debug.printStackTrace(e)).doOnSuccess(v -> com.gmt2001.Console.debug.println("Bulk delete complete")).subscribe();
     }
 
     /**
@@ -967,13 +1090,10 @@ public class DiscordUtil {
             throw new IllegalArgumentException("channel object was null, list object was null, or amount was less than 2");
         }
 
-        Flux<Snowflake> msgSfs = Flux.empty();
-
-        for (Message msg : list) {
-            Flux.concat(msgSfs, Flux.just(msg.getId()));
-        }
-
-        channel.bulkDelete(msgSfs);
+        DiscordOutboundQueue.instance().submit(DiscordOutboundQueue.messageBucket(channel.getId().asString()),
+                () -> channel.bulkDelete(Flux.fromArray(list).map(msg -> msg.getId())).then()).doOnError(e -> {
+            com.gmt2001.Console.err.printStackTrace(e);
+        }).subscribe();
     }
 
     /**
@@ -1158,4 +1278,12 @@ public class DiscordUtil {
         return channel.getLastMessage().block();
     }
 
+    /**
+     * Role changes for a user that have not been sent yet.
+     */
+    private static final class RoleEdit {
+
+        private final Set<Snowflake> add = new HashSet<>();
+        private final Set<Snowflake> remove = new HashSet<>();
+    }
 }
@@ -18,6 +18,7 @@ package tv.phantombot.httpserver;
 
 import com.gmt2001.httpwsserver.HttpRequestHandler;
 import com.gmt2001.httpwsserver.HttpServerPageHandler;
+import com.gmt2001.httpwsserver.HttpStaticFileServer;
 import com.gmt2001.httpwsserver.auth.HttpAuthenticationHandler;
 import com.gmt2001.httpwsserver.auth.HttpSharedTokenOrPasswordAuthenticationHandler;
 import com.scaniatv.LangFileUpdater;
@@ -95,29 +96,22 @@ public class HTTPAuthenticatedHandler implements HttpRequestHandler {
             return;
         }
 
-        try {
-            Path p = Paths.get(".", path);
+        Path p = Paths.get(".", path);
 
-            if (!p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./logs"))) {
-                com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
-                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
-                return;
-            }
+        if (!p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./logs"))) {
+            com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
+            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
+            return;
+        }
 
-            if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, true)) {
-                if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
-                    HttpServerPageHandler.listDirectory(ctx, req, p);
-                } else {
-                    com.gmt2001.Console.debug.println("200 " + req.method().asciiName() + ": " + p.toString() + " (" + p.getFileName().toString() + " = "
-                            + HttpServerPageHandler.detectContentType(p.getFileName().toString()) + ")");
-                    HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.OK,
-                            req.method().equals(HttpMethod.HEAD) ? null : Files.readAllBytes(p), p.getFileName().toString()));
-                }
+        if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, true)) {
+            if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                HttpServerPageHandler.listDirectory(ctx, req, p);
+            } else {
+                com.gmt2001.Console.debug.println("200 " + req.method().asciiName() + ": " + p.toString() + " (" + p.getFileName().toString() + " = "
+                        + HttpServerPageHandler.detectContentType(p.getFileName().toString()) + ")");
+                HttpStaticFileServer.sendFile(ctx, req, p);
             }
-        } catch (IOException ex) {
-            com.gmt2001.Console.debug.println("500");
-            com.gmt2001.Console.debug.printStackTrace(ex);
-            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, null));
         }
     }
 
@@ -19,6 +19,7 @@ package tv.phantombot.httpserver;
 import com.gmt2001.httpwsserver.HTTPWSServer;
 import com.gmt2001.httpwsserver.HttpRequestHandler;
 import com.gmt2001.httpwsserver.HttpServerPageHandler;
+import com.gmt2001.httpwsserver.HttpStaticFileServer;
 import com.gmt2001.httpwsserver.auth.HttpAuthenticationHandler;
 import com.gmt2001.httpwsserver.auth.HttpNoAuthenticationHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -46,6 +47,26 @@ import tv.phantombot.PhantomBot;
  */
 public class HTTPNoAuthHandler implements HttpRequestHandler {
 
+    /**
+     * The directories files may be served from, resolved once
+     */
+    private static final Path[] ALLOWED_ROOTS = {
+        Paths.get(PhantomBot.GetExecutionPath(), "web").toAbsolutePath().normalize(),
+        Paths.get(PhantomBot.GetExecutionPath(), "addons").toAbsolutePath().normalize(),
+        Paths.get(PhantomBot.GetExecutionPath(), "config", "audio-hooks").toAbsolutePath().normalize(),
+        Paths.get(PhantomBot.GetExecutionPath(), "config", "gif-alerts").toAbsolutePath().normalize()
+    };
+    private static final Path PANEL_ROOT = Paths.get(PhantomBot.GetExecutionPath(), "web", "panel").toAbsolutePath().normalize();
+    /**
+     * The parts of the panel that can be loaded without logging in
+     */
+    private static final Path[] PUBLIC_PANEL_ROOTS = {
+        PANEL_ROOT.resolve("vendors"),
+        PANEL_ROOT.resolve("css"),
+        PANEL_ROOT.resolve("login")
+    };
+    private static final Path YTPLAYER_ROOT = Paths.get(PhantomBot.GetExecutionPath(), "web", "ytplayer").toAbsolutePath().normalize();
+
     public HTTPNoAuthHandler() {
     }
 
@@ -145,50 +166,61 @@ public class HTTPNoAuthHandler implements HttpRequestHandler {
 
         QueryStringDecoder qsd = new QueryStringDecoder(req.uri());
 
-        try {
-            String start = "./web/";
-            String path = qsd.path();
+        String start = "./web/";
+        String path = qsd.path();
 
-            if (path.startsWith("/config/audio-hooks") || path.startsWith("/config/gif-alerts") || path.startsWith("/addons")) {
-                start = ".";
-            }
+        if (path.startsWith("/config/audio-hooks") || path.startsWith("/config/gif-alerts") || path.startsWith("/addons")) {
+            start = ".";
+        }
 
-            Path p = Paths.get(start, path);
+        Path p = Paths.get(start, path);
 
-            if (path.endsWith("/") || Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
-                path = path + "/index.html";
-                p = Paths.get(start, path);
-            }
+        if (path.endsWith("/") || Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+            path = path + "/index.html";
+            p = Paths.get(start, path);
+        }
 
-            if ((!p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./addons"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./config/audio-hooks"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./config/gif-alerts")))
-                    || (p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web/panel"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web/panel/vendors"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web/panel/css"))
-                    && !p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web/panel/login")))
-                    || p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web/ytplayer"))) {
-                com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
-                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
-                return;
-            }
+        Path ap = p.toAbsolutePath().normalize();
 
-            if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, false)) {
-                if (path.startsWith("/addons") && (qsd.parameters().containsKey("marquee") || qsd.parameters().containsKey("refresh"))) {
-                    handleAddons(ctx, req, p, qsd);
-                } else {
+        if (!isAllowed(ap)) {
+            com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
+            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
+            return;
+        }
+
+        if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, false)) {
+            if (path.startsWith("/addons") && (qsd.parameters().containsKey("marquee") || qsd.parameters().containsKey("refresh"))) {
+                handleAddons(ctx, req, p, qsd);
+            } else {
                 com.gmt2001.Console.debug.println("200 " + req.method().asciiName() + ": " + p.toString() + " (" + p.getFileName().toString() + " = "
                         + HttpServerPageHandler.detectContentType(p.getFileName().toString()) + ")");
-                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.OK,
-                        req.method().equals(HttpMethod.HEAD) ? null : Files.readAllBytes(p), p.getFileName().toString()));
+                HttpStaticFileServer.sendFile(ctx, req, ap);
+            }
+        }
+    }
+
+    private static boolean isAllowed(Path ap) {
+        if (ap.startsWith(YTPLAYER_ROOT)) {
+            return false;
+        }
+
+        if (ap.startsWith(PANEL_ROOT)) {
+            for (Path root : PUBLIC_PANEL_ROOTS) {
+                if (ap.startsWith(root)) {
+                    return true;
                 }
             }
-        } catch (IOException ex) {
-            com.gmt2001.Console.debug.println("500");
-            com.gmt2001.Console.debug.printStackTrace(ex);
-            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, null));
+
+            return false;
+        }
+
+        for (Path root : ALLOWED_ROOTS) {
+            if (ap.startsWith(root)) {
+                return true;
+            }
         }
+
+        return false;
     }
 
     private void handleAddons(ChannelHandlerContext ctx, FullHttpRequest req, Path p, QueryStringDecoder qsd) {
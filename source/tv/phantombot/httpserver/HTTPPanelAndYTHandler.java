@@ -18,6 +18,7 @@ package tv.phantombot.httpserver;
 
 import com.gmt2001.httpwsserver.HttpRequestHandler;
 import com.gmt2001.httpwsserver.HttpServerPageHandler;
+import com.gmt2001.httpwsserver.HttpStaticFileServer;
 import com.gmt2001.httpwsserver.auth.HttpAuthenticationHandler;
 import com.gmt2001.httpwsserver.auth.HttpBasicAuthenticationHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -27,7 +28,6 @@ import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -79,32 +79,25 @@ public class HTTPPanelAndYTHandler implements HttpRequestHandler {
 
         QueryStringDecoder qsd = new QueryStringDecoder(req.uri());
 
-        try {
-            String path = qsd.path();
-
-            Path p = Paths.get("./web/", path);
-
-            if (path.endsWith("/") || Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
-                path = path + "/index.html";
-                p = Paths.get("./web/", path);
-            }
-
-            if (!p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web"))) {
-                com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
-                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
-                return;
-            }
-
-            if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, false)) {
-                com.gmt2001.Console.debug.println("200 " + req.method().asciiName() + ": " + p.toString() + " (" + p.getFileName().toString() + " = "
-                        + HttpServerPageHandler.detectContentType(p.getFileName().toString()) + ")");
-                byte[] data = Files.readAllBytes(p);
-                HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.OK, data, p.getFileName().toString()));
-            }
-        } catch (IOException ex) {
-            com.gmt2001.Console.debug.println("500");
-            com.gmt2001.Console.debug.printStackTrace(ex);
-            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, null));
+        String path = qsd.path();
+
+        Path p = Paths.get("./web/", path);
+
+        if (path.endsWith("/") || Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+            path = path + "/index.html";
+            p = Paths.get("./web/", path);
+        }
+
+        if (!p.toAbsolutePath().startsWith(Paths.get(PhantomBot.GetExecutionPath(), "./web"))) {
+            com.gmt2001.Console.debug.println("403 " + req.method().asciiName() + ": " + p.toString());
+            HttpServerPageHandler.sendHttpResponse(ctx, req, HttpServerPageHandler.prepareHttpResponse(HttpResponseStatus.FORBIDDEN, null, null));
+            return;
+        }
+
+        if (HttpServerPageHandler.checkFilePermissions(ctx, req, p, false)) {
+            com.gmt2001.Console.debug.println("200 " + req.method().asciiName() + ": " + p.toString() + " (" + p.getFileName().toString() + " = "
+                    + HttpServerPageHandler.detectContentType(p.getFileName().toString()) + ")");
+            HttpStaticFileServer.sendFile(ctx, req, p);
         }
     }
 
@@ -16,6 +16,8 @@
  */
 package tv.phantombot.panel;
 
+import com.gmt2001.datastore.KeyValue;
+import com.gmt2001.httpwsserver.HTTPWSServer;
 import com.gmt2001.httpwsserver.WebSocketFrameHandler;
 import com.gmt2001.httpwsserver.WsFrameHandler;
 import com.gmt2001.httpwsserver.auth.WsAuthenticationHandler;
@@ -87,11 +89,36 @@ public class WsPanelHandler implements WsFrameHandler {
                 com.gmt2001.Console.debug.println(jso.toString());
             }
 
-            if (!ctx.channel().attr(WsSharedRWTokenAuthenticationHandler.ATTR_IS_READ_ONLY).get()) {
-                handleRestrictedCommands(ctx, frame, jso);
-            }
+            boolean isReadOnly = ctx.channel().attr(WsSharedRWTokenAuthenticationHandler.ATTR_IS_READ_ONLY).get();
+
+            /**
+             * Most commands hit the datastore, so they are run on the blocking executor to keep the event loop free for I/O. The frame is
+             * released by the pipeline once this method returns, so it is retained until the task is done with it
+             */
+            frame.retain();
+            boolean queued = HTTPWSServer.instance().getBlockingExecutor().submit(ctx.channel(), () -> {
+                try {
+                    if (!isReadOnly) {
+                        handleRestrictedCommands(ctx, frame, jso);
+                    }
+
+                    handleUnrestrictedCommands(ctx, frame, jso);
+                } finally {
+                    frame.release();
+                }
+            });
 
-            handleUnrestrictedCommands(ctx, frame, jso);
+            if (!queued) {
+                frame.release();
+                com.gmt2001.Console.debug.println("Rejected panel WS request, too many requests queued   Remote: [" + ctx.channel().remoteAddress().toString() + "]");
+                JSONStringer jsonObject = new JSONStringer();
+                jsonObject.object().key("errors").array().object()
+                        .key("status").value("503")
+                        .key("title").value("Service Unavailable")
+                        .key("detail").value("Too many requests are queued, try again later")
+                        .endObject().endArray().endObject();
+                WebSocketFrameHandler.sendWsFrame(ctx, frame, WebSocketFrameHandler.prepareTextWebSocketResponse(jsonObject.toString()));
+            }
         }
     }
 
@@ -364,10 +391,9 @@ public class WsPanelHandler implements WsFrameHandler {
 
         jsonObject.object().key("query_id").value(uniqueID).key("results").array();
 
-        String[] dbKeys = PhantomBot.instance().getDataStore().GetKeyList(table, "");
-        for (String dbKey : dbKeys) {
-            String value = PhantomBot.instance().getDataStore().GetString(table, "", dbKey);
-            jsonObject.object().key("table").value(table).key("key").value(dbKey).key("value").value(value).endObject();
+        KeyValue[] dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValueList(table, "");
+        for (KeyValue dbKeyValue : dbKeyValues) {
+            jsonObject.object().key("table").value(table).key("key").value(dbKeyValue.getKey()).key("value").value(dbKeyValue.getValue()).endObject();
         }
 
         jsonObject.endArray().endObject();
@@ -399,10 +425,9 @@ public class WsPanelHandler implements WsFrameHandler {
                     continue;
                 }
 
-                String[] dbKeys = PhantomBot.instance().getDataStore().GetKeyList(table, "");
-                for (String dbKey : dbKeys) {
-                    String value = PhantomBot.instance().getDataStore().GetString(table, "", dbKey);
-                    jsonObject.object().key("table").value(table).key("key").value(dbKey).key("value").value(value).endObject();
+                KeyValue[] dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValueList(table, "");
+                for (KeyValue dbKeyValue : dbKeyValues) {
+                    jsonObject.object().key("table").value(table).key("key").value(dbKeyValue.getKey()).key("value").value(dbKeyValue.getValue()).endObject();
                 }
             }
         }
@@ -426,10 +451,9 @@ public class WsPanelHandler implements WsFrameHandler {
 
         jsonObject.object().key("query_id").value(uniqueID).key("results").array();
 
-        String[] dbKeys = PhantomBot.instance().getDataStore().GetKeysByOrder(table, "", order, limit, offset);
-        for (String dbKey : dbKeys) {
-            String value = PhantomBot.instance().getDataStore().GetString(table, "", dbKey);
-            jsonObject.object().key("table").value(table).key("key").value(dbKey).key("value").value(value).endObject();
+        KeyValue[] dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValuesByOrder(table, "", order, limit, offset);
+        for (KeyValue dbKeyValue : dbKeyValues) {
+            jsonObject.object().key("table").value(table).key("key").value(dbKeyValue.getKey()).key("value").value(dbKeyValue.getValue()).endObject();
         }
 
         jsonObject.endArray().endObject();
@@ -452,15 +476,14 @@ public class WsPanelHandler implements WsFrameHandler {
 
         jsonObject.object().key("query_id").value(uniqueID).key("results").array();
 
-        String[] dbKeys;
+        KeyValue[] dbKeyValues;
         if (isNumber.equals("true")) {
-            dbKeys = PhantomBot.instance().getDataStore().GetKeysByNumberOrderValue(table, "", order, limit, offset);
+            dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValuesByNumberOrderValue(table, "", order, limit, offset);
         } else {
-            dbKeys = PhantomBot.instance().getDataStore().GetKeysByOrderValue(table, "", order, limit, offset);
+            dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValuesByOrderValue(table, "", order, limit, offset);
         }
-        for (String dbKey : dbKeys) {
-            String value = PhantomBot.instance().getDataStore().GetString(table, "", dbKey);
-            jsonObject.object().key("table").value(table).key("key").value(dbKey).key("value").value(value).endObject();
+        for (KeyValue dbKeyValue : dbKeyValues) {
+            jsonObject.object().key("table").value(table).key("key").value(dbKeyValue.getKey()).key("value").value(dbKeyValue.getValue()).endObject();
         }
 
         jsonObject.endArray().endObject();
@@ -483,10 +506,9 @@ public class WsPanelHandler implements WsFrameHandler {
 
         jsonObject.object().key("query_id").value(uniqueID).key("results").array();
 
-        String[] dbKeys = PhantomBot.instance().getDataStore().GetKeysByLikeKeysOrder(table, "", key, order, limit, offset);
-        for (String dbKey : dbKeys) {
-            String value = PhantomBot.instance().getDataStore().GetString(table, "", dbKey);
-            jsonObject.object().key("table").value(table).key("key").value(dbKey).key("value").value(value).endObject();
+        KeyValue[] dbKeyValues = PhantomBot.instance().getDataStore().GetKeyValuesByLikeKeysOrder(table, "", key, order, limit, offset);
+        for (KeyValue dbKeyValue : dbKeyValues) {
+            jsonObject.object().key("table").value(table).key("key").value(dbKeyValue.getKey()).key("value").value(dbKeyValue.getValue()).endObject();
         }
 
         jsonObject.endArray().endObject();
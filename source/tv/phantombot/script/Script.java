@@ -21,6 +21,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
@@ -36,7 +37,7 @@ public class Script {
 
     public static final NativeObject global = new NativeObject();
     @SuppressWarnings("rawtypes")
-    private final List<ScriptDestroyable> destroyables = new ArrayList<>();
+    private final List<ScriptDestroyable> destroyables = Collections.synchronizedList(new ArrayList<>());
     private static final NativeObject vars = new NativeObject();
     private final File file;
     private long lastModified;
@@ -191,7 +192,7 @@ public class Script {
         }
 
         try {
-            context.evaluateString(scope, Files.readString(file.toPath()), file.getName(), 1, null);
+            context.evaluateString(scope, Files.readString(file.toPath()), getSourceName(), 1, null);
         } catch (FileNotFoundException ex) {
             throw new IOException("File not found. This could be a caching issue, will retry.");
         } catch (EvaluatorException ex) {
@@ -208,11 +209,13 @@ public class Script {
 
     @SuppressWarnings("rawtypes")
     public void doDestroyables() {
-        destroyables.forEach((destroyable) -> {
-            destroyable.destroy();
-        });
+        synchronized (destroyables) {
+            destroyables.forEach((destroyable) -> {
+                destroyable.destroy();
+            });
 
-        destroyables.clear();
+            destroyables.clear();
+        }
     }
 
     public File getFile() {
@@ -231,6 +234,17 @@ public class Script {
         return file.toPath().toString();
     }
 
+    /**
+     * Returns the name the script is evaluated under, which is its path relative to the scripts directory.
+     *
+     * Unlike the file name this is unique, several scripts share a file name in different directories.
+     *
+     * @return {String}
+     */
+    public String getSourceName() {
+        return file.getPath().replace("\134", "/").replace("./scripts/./", "").replace("./scripts/", "");
+    }
+
     public Context getContext() {
         return context;
     }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.script;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.ScriptStackElement;
+import tv.phantombot.PhantomBot;
+
+/**
+ * Shared scheduler behind the setTimeout and setInterval functions of jsTimers.js
+ *
+ * All script timers run on one small thread pool instead of a dedicated {@link java.util.Timer} thread each. Every timer is owned by the script
+ * that scheduled it, and all timers of a script are cancelled when that script is reloaded or killed
+ *
+ * The pool has {@code scripttimerthreads} threads, 4 by default. A callback that blocks, for example on a slow API call, holds a thread for as
+ * long as it blocks, so a few of them at once delay every other timer. Raise {@code scripttimerthreads} if scripts do blocking work in timers
+ */
+public final class ScriptTimers {
+
+    private static final ScriptTimers instance = new ScriptTimers();
+    /**
+     * The source name of the script that wraps this class, it is skipped when looking for the owner of a timer
+     */
+    private static final String WRAPPER_SCRIPT = "core/jsTimers.js";
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicInteger counter = new AtomicInteger(0);
+    private final Map<Integer, ScriptTimer> timers = new ConcurrentHashMap<>();
+    private final Map<Script, Set<Integer>> owned = new ConcurrentHashMap<>();
+
+    /**
+     * Method to get this instance.
+     *
+     * @return {Object}
+     */
+    public static ScriptTimers instance() {
+        return instance;
+    }
+
+    /**
+     * Class constructor.
+     */
+    private ScriptTimers() {
+        AtomicInteger threadNum = new AtomicInteger(0);
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(1, PhantomBot.getScriptTimerThreads()), (r) -> {
+            Thread t = new Thread(r, "tv.phantombot.script.ScriptTimers::run-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs a function once after a delay.
+     *
+     * @param {Runnable} fn
+     * @param {long} delay In milliseconds
+     * @param {String} name Optional name shown in the timer list and used as the thread name while the function runs
+     * @return {int} The timer id
+     */
+    public int setTimeout(Runnable fn, long delay, String name) {
+        return this.schedule(fn, Math.max(0L, delay), 0L, name);
+    }
+
+    /**
+     * Runs a function repeatedly, waiting the interval between the end of one run and the start of the next.
+     *
+     * @param {Runnable} fn
+     * @param {long} interval In milliseconds
+     * @param {String} name Optional name shown in the timer list and used as the thread name while the function runs
+     * @return {int} The timer id
+     */
+    public int setInterval(Runnable fn, long interval, String name) {
+        return this.schedule(fn, Math.max(1L, interval), Math.max(1L, interval), name);
+    }
+
+    /**
+     * Cancels a timer. Unknown or finished timers are ignored.
+     *
+     * @param {int} id
+     */
+    public void clear(int id) {
+        ScriptTimer timer = this.timers.get(id);
+
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of pending timers.
+     *
+     * @return {int}
+     */
+    public int size() {
+        return this.timers.size();
+    }
+
+    /**
+     * Returns a description of every pending timer, ordered by the time until its next run.
+     *
+     * @return {List}
+     */
+    public List<String> getPendingTimers() {
+        List<ScriptTimer> pending = new ArrayList<>(this.timers.values());
+        pending.sort(Comparator.comparingLong((t) -> t.future == null ? 0L : t.future.getDelay(TimeUnit.MILLISECONDS)));
+
+        List<String> result = new ArrayList<>();
+        pending.forEach((t) -> {
+            result.add(String.format("#%d %s [%s] owner: %s, next run in %dms%s, runs: %d", t.id, t.interval > 0 ? "interval" : "timeout",
+                    t.name == null ? "unnamed" : t.name, t.owner == null ? "none" : t.owner.getSourceName(),
+                    t.future == null ? 0L : Math.max(0L, t.future.getDelay(TimeUnit.MILLISECONDS)),
+                    t.interval > 0 ? ", every " + t.interval + "ms" : "", t.runs));
+        });
+
+        return result;
+    }
+
+    /**
+     * Cancels all timers and stops the scheduler threads.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        this.timers.clear();
+        this.owned.clear();
+    }
+
+    private int schedule(Runnable fn, long delay, long interval, String name) {
+        ScriptTimer timer = new ScriptTimer(this.counter.incrementAndGet(), fn, interval, name, this.findOwner());
+        this.timers.put(timer.id, timer);
+
+        if (timer.owner != null) {
+            this.owned.computeIfAbsent(timer.owner, (script) -> {
+                Set<Integer> ids = ConcurrentHashMap.newKeySet();
+                script.destroyables().add(new ScriptDestroyable<Script>(script) {
+                    @Override
+                    public void destroy(Script script) {
+                        cancelAll(script);
+                    }
+                });
+                return ids;
+            }).add(timer.id);
+        }
+
+        synchronized (timer) {
+            if (interval > 0) {
+                timer.future = this.executor.scheduleWithFixedDelay(timer, delay, interval, TimeUnit.MILLISECONDS);
+            } else {
+                timer.future = this.executor.schedule(timer, delay, TimeUnit.MILLISECONDS);
+            }
+
+            if (!this.timers.containsKey(timer.id)) {
+                timer.future.cancel(false);
+            }
+        }
+
+        return timer.id;
+    }
+
+    private void cancelAll(Script script) {
+        Set<Integer> ids = this.owned.remove(script);
+
+        if (ids != null) {
+            ids.forEach((id) -> this.clear(id));
+        }
+    }
+
+    private void remove(ScriptTimer timer) {
+        this.timers.remove(timer.id);
+
+        if (timer.owner != null) {
+            Set<Integer> ids = this.owned.get(timer.owner);
+
+            if (ids != null) {
+                ids.remove(timer.id);
+            }
+        }
+    }
+
+    /**
+     * Finds the script that is calling into the scheduler from the current JavaScript stack
+     */
+    private Script findOwner() {
+        String sourceName = null;
+
+        for (ScriptStackElement element : new EvaluatorException("").getScriptStack()) {
+            if (element.fileName != null && !element.fileName.equals(WRAPPER_SCRIPT)) {
+                sourceName = element.fileName;
+                break;
+            }
+        }
+
+        if (sourceName == null) {
+            return null;
+        }
+
+        for (Script script : new ArrayList<>(ScriptManager.getScripts().values())) {
+            if (!script.isKilled() && script.getSourceName().equals(sourceName)) {
+                return script;
+            }
+        }
+
+        return null;
+    }
+
+    private final class ScriptTimer implements Runnable {
+
+        private final int id;
+        private final Runnable fn;
+        private final long interval;
+        private final String name;
+        private final Script owner;
+        private ScheduledFuture<?> future;
+        private volatile long runs = 0;
+
+        private ScriptTimer(int id, Runnable fn, long interval, String name, Script owner) {
+            this.id = id;
+            this.fn = fn;
+            this.interval = interval;
+            this.name = name;
+            this.owner = owner;
+        }
+
+        private void cancel() {
+            remove(this);
+
+            synchronized (this) {
+                if (this.future != null) {
+                    this.future.cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+
+            if (this.name != null) {
+                thread.setName(this.name);
+            }
+
+            try {
+                this.runs++;
+                this.fn.run();
+            } catch (Exception ex) {
+                com.gmt2001.Console.err.println("Timer " + (this.name == null ? "#" + this.id : this.name) + " failed: " + ex.getMessage());
+                com.gmt2001.Console.err.printStackTrace(ex);
+            } finally {
+                thread.setName(threadName);
+
+                if (this.interval <= 0) {
+                    remove(this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.scripts.core;
+
+import com.gmt2001.datastore.DataStore;
+import com.gmt2001.datastore.KeyValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import tv.phantombot.PhantomBot;
+
+/**
+ * Class that pays points and time to every user in the channel in one pass.
+ *
+ * Each run takes a snapshot of the present users from the {@link UserRegistry}, reads all of their groups with one batched query, works out
+ * what every user gets in memory and then writes all of the changes to the table in a single transaction. The time payout also does the
+ * automatic promotion to regular with the totals it just wrote, so no second pass over the users is needed.
+ */
+public final class PayoutEngine {
+
+    private static final PayoutEngine INSTANCE = new PayoutEngine();
+    private static final String[] EMPTY = new String[0];
+    private static final int DEFAULT_GROUP_ID = 7;
+    private static final int MOD_GROUP_ID = 2;
+    private Result lastPoints = null;
+    private Result lastTime = null;
+
+    /**
+     * Method that returns this instance.
+     *
+     * @return
+     */
+    public static PayoutEngine instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Class constructor.
+     */
+    private PayoutEngine() {
+    }
+
+    /**
+     * Method that pays points to every user in the channel.
+     *
+     * @param groupTable Table with the amount for each group, either grouppoints or grouppointsoffline.
+     * @param baseAmount Amount given to users that have no amount set for their group.
+     * @param activeUsers Users that chatted since the last payout.
+     * @param activeBonus Amount added for the users that chatted.
+     * @param extraBonus Amount added for everyone, such as the points bonus.
+     * @param excludedUsers Users that do not get paid, such as users with a penalty.
+     * @return
+     */
+    public Result payPoints(String groupTable, long baseAmount, String[] activeUsers, long activeBonus, long extraBonus, String[] excludedUsers) {
+        long start = System.nanoTime();
+        DataStore dataStore = PhantomBot.instance().getDataStore();
+        UserRegistry registry = UserRegistry.instance();
+        String[] users = registry.getUsers();
+        Set<String> active = toSet(activeUsers);
+        Set<String> excluded = toSet(excludedUsers);
+        int[] groups = getGroupIds(dataStore, users);
+        Map<String, String> groupNames = getTable(dataStore, "groups");
+        Map<String, String> groupAmounts = getTable(dataStore, groupTable);
+        long subAmount = parseLong(groupAmounts.get("Subscriber"), 0);
+        List<String> keys = new ArrayList<>(users.length);
+        List<Long> deltas = new ArrayList<>(users.length);
+        long total = 0;
+
+        for (int i = 0; i < users.length; i++) {
+            String username = users[i];
+            long amount = baseAmount;
+
+            if (excluded.contains(username)) {
+                continue;
+            }
+
+            if ((groups[i] <= MOD_GROUP_ID || isOwner(username)) && registry.hasRole(username, "subscriber")) {
+                if (subAmount > 0) {
+                    amount = subAmount;
+                }
+            } else {
+                String groupName = groupNames.getOrDefault(Integer.toString(groups[i]), groupNames.get(Integer.toString(DEFAULT_GROUP_ID)));
+
+                if (groupName != null && groupAmounts.containsKey(groupName)) {
+                    long groupAmount = parseLong(groupAmounts.get(groupName), -1);
+
+                    if (groupAmount >= 0) {
+                        amount = groupAmount;
+                    }
+                }
+            }
+
+            if (active.contains(username)) {
+                amount += activeBonus;
+            }
+
+            amount += extraBonus;
+
+            if (amount != 0) {
+                keys.add(username);
+                deltas.add(amount);
+                total += amount;
+            }
+        }
+
+        dataStore.incrementBatch("points", "", keys.toArray(EMPTY), toArray(deltas));
+
+        Result result = new Result(users.length, keys.size(), total, EMPTY, System.nanoTime() - start);
+        this.lastPoints = result;
+        com.gmt2001.Console.debug.println("Points payout: " + result);
+        return result;
+    }
+
+    /**
+     * Method that adds time to every user in the channel, and promotes the users that reached the hours needed for the regulars group.
+     *
+     * @param seconds Seconds to add to each user.
+     * @param promote If users should be promoted.
+     * @param hoursForLevelUp Hours a user needs to be promoted.
+     * @param regularsGroupId Id of the regulars group.
+     * @param vipGroupId Id of the VIP group.
+     * @return
+     */
+    public Result payTime(long seconds, boolean promote, long hoursForLevelUp, int regularsGroupId, int vipGroupId) {
+        long start = System.nanoTime();
+        DataStore dataStore = PhantomBot.instance().getDataStore();
+        UserRegistry registry = UserRegistry.instance();
+        String[] users = registry.getUsers();
+        long[] deltas = new long[users.length];
+
+        Arrays.fill(deltas, seconds);
+
+        long[] totals = dataStore.incrementBatch("time", "", users, deltas);
+        List<String> promoted = new ArrayList<>();
+
+        if (promote) {
+            int[] groups = getGroupIds(dataStore, users);
+
+            for (int i = 0; i < users.length; i++) {
+                String username = users[i];
+
+                if (groups[i] <= MOD_GROUP_ID || groups[i] == vipGroupId || groups[i] <= regularsGroupId || isOwner(username)
+                        || (totals[i] / 3600) < hoursForLevelUp || registry.hasRole(username, "subscriber")
+                        || registry.hasRole(username, "mod_list")) {
+                    continue;
+                }
+
+                promoted.add(username);
+            }
+
+            if (!promoted.isEmpty()) {
+                String[] values = new String[promoted.size()];
+
+                Arrays.fill(values, Integer.toString(regularsGroupId));
+                dataStore.SetBatchString("group", "", promoted.toArray(EMPTY), values);
+            }
+        }
+
+        Result result = new Result(users.length, users.length, seconds * users.length, promoted.toArray(EMPTY), System.nanoTime() - start);
+        this.lastTime = result;
+        com.gmt2001.Console.debug.println("Time payout: " + result);
+        return result;
+    }
+
+    /**
+     * Method that returns the last points payout, or null if there was none.
+     *
+     * @return
+     */
+    public Result getLastPoints() {
+        return this.lastPoints;
+    }
+
+    /**
+     * Method that returns the last time payout, or null if there was none.
+     *
+     * @return
+     */
+    public Result getLastTime() {
+        return this.lastTime;
+    }
+
+    /**
+     * Method that returns the stats of the last payouts.
+     *
+     * @return
+     */
+    public String getStats() {
+        return "points: " + (this.lastPoints == null ? "never" : this.lastPoints) + ", time: " + (this.lastTime == null ? "never" : this.lastTime);
+    }
+
+    private static boolean isOwner(String username) {
+        PhantomBot bot = PhantomBot.instance();
+        return username.equalsIgnoreCase(bot.getOwnerName()) || username.equalsIgnoreCase(bot.getBotName());
+    }
+
+    private static int[] getGroupIds(DataStore dataStore, String[] users) {
+        String[] values = dataStore.GetStrings("group", "", users);
+        int[] groups = new int[users.length];
+
+        for (int i = 0; i < users.length; i++) {
+            groups[i] = (int) parseLong(values[i], DEFAULT_GROUP_ID);
+        }
+
+        return groups;
+    }
+
+    private static Map<String, String> getTable(DataStore dataStore, String table) {
+        Map<String, String> map = new HashMap<>();
+
+        for (KeyValue kv : dataStore.GetKeyValueList(table, "")) {
+            map.put(kv.getKey(), kv.getValue());
+        }
+
+        return map;
+    }
+
+    private static Set<String> toSet(String[] usernames) {
+        Set<String> set = new HashSet<>();
+
+        if (usernames != null) {
+            for (String username : usernames) {
+                set.add(username.toLowerCase());
+            }
+        }
+
+        return set;
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] out = new long[list.size()];
+
+        for (int i = 0; i < out.length; i++) {
+            out[i] = list.get(i);
+        }
+
+        return out;
+    }
+
+    private static long parseLong(String value, long def) {
+        if (value == null) {
+            return def;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return def;
+        }
+    }
+
+    /**
+     * The outcome of one payout.
+     */
+    public static final class Result {
+
+        private final int users;
+        private final int paid;
+        private final long total;
+        private final String[] promoted;
+        private final long durationNanos;
+
+        private Result(int users, int paid, long total, String[] promoted, long durationNanos) {
+            this.users = users;
+            this.paid = paid;
+            this.total = total;
+            this.promoted = promoted;
+            this.durationNanos = durationNanos;
+        }
+
+        public int getUsers() {
+            return this.users;
+        }
+
+        public int getPaid() {
+            return this.paid;
+        }
+
+        public long getTotal() {
+            return this.total;
+        }
+
+        public String[] getPromoted() {
+            return this.promoted;
+        }
+
+        public long getDurationMillis() {
+            return this.durationNanos / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            return "users=" + this.users + " paid=" + this.paid + " total=" + this.total + " promoted=" + this.promoted.length
+                    + " duration=" + String.format("%.2f", this.durationNanos / 1e6) + "ms";
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.scripts.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a message against a list of phrases in one pass.
+ *
+ * Literal phrases are compiled into Aho-Corasick automatons, so the cost of a match depends on the length of the message rather than on the
+ * amount of phrases. Regex phrases are combined into a single alternation that is used to skip messages that cannot match any of them, and only
+ * tested one by one when it does.
+ *
+ * Phrases are kept in the order they were first added, and hits are always returned in that order. Changes are applied lazily: the literal
+ * automatons and the combined regex are only rebuilt on the next match after the phrases of their kind changed.
+ */
+public final class PhraseMatcher {
+
+    /**
+     * Where a literal phrase may match.
+     */
+    public enum Mode {
+        /**
+         * Anywhere in the message.
+         */
+        SUBSTRING,
+        /**
+         * Only as a whole space separated part of the message.
+         */
+        TOKEN,
+        /**
+         * Only between word boundaries, like {@code \b} in a regex.
+         */
+        WORD
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int nextOrder = 0;
+    /**
+     * Set under the lock by the threads that change the phrases, and checked without it by the matching threads before they take the lock.
+     */
+    private volatile boolean literalsDirty = false;
+    private volatile boolean regexesDirty = false;
+    private volatile Compiled compiled = new Compiled(null, null, new Entry[0], null);
+
+    /**
+     * Class constructor.
+     */
+    public PhraseMatcher() {
+    }
+
+    /**
+     * Adds or replaces a phrase.
+     *
+     * @param {String} id The id returned by {@link #match(String)} when the phrase is found
+     * @param {String} phrase The literal phrase, or the regex
+     * @param {boolean} isRegex
+     * @param {boolean} caseSensitive
+     * @param {String} mode One of substring, token or word; ignored for regexes
+     * @return {boolean} false if the regex is invalid or the literal phrase is empty, in which case the phrase was not added
+     */
+    public synchronized boolean add(String id, String phrase, boolean isRegex, boolean caseSensitive, String mode) {
+        Pattern pattern = null;
+
+        if (isRegex) {
+            try {
+                pattern = Pattern.compile(phrase, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } catch (PatternSyntaxException ex) {
+                com.gmt2001.Console.debug.println("Invalid regex [" + phrase + "]: " + ex.getMessage());
+                return false;
+            }
+        } else if (phrase.isEmpty()) {
+            return false;
+        }
+
+        Entry old = this.entries.get(id);
+        Entry entry = new Entry(id, old == null ? this.nextOrder++ : old.order, caseSensitive ? phrase : lower(phrase), pattern, caseSensitive,
+                mode == null ? Mode.SUBSTRING : Mode.valueOf(mode.toUpperCase()));
+        this.entries.put(id, entry);
+        this.markDirty(old);
+        this.markDirty(entry);
+        return true;
+    }
+
+    /**
+     * Removes a phrase.
+     *
+     * @param {String} id
+     * @return {boolean} true if the phrase existed
+     */
+    public synchronized boolean remove(String id) {
+        Entry old = this.entries.remove(id);
+        this.markDirty(old);
+        return old != null;
+    }
+
+    /**
+     * Removes all phrases.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.nextOrder = 0;
+        this.literalsDirty = true;
+        this.regexesDirty = true;
+    }
+
+    /**
+     * Returns the amount of phrases.
+     *
+     * @return {int}
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the ids of all phrases found in the message, in the order the phrases were added.
+     *
+     * @param {String} message
+     * @return {String[]}
+     */
+    public String[] match(String message) {
+        Compiled c = this.compiled();
+        boolean[] hit = new boolean[c.byOrder.length];
+        int hits = c.scan(message, hit, false);
+
+        String[] result = new String[hits];
+        int n = 0;
+
+        for (int i = 0; i < hit.length && n < hits; i++) {
+            if (hit[i]) {
+                result[n++] = c.byOrder[i].id;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the id of the first phrase, in the order they were added, found in the message.
+     *
+     * @param {String} message
+     * @return {String} the id, or null if nothing was found
+     */
+    public String first(String message) {
+        Compiled c = this.compiled();
+        boolean[] hit = new boolean[c.byOrder.length];
+
+        if (c.scan(message, hit, true) == 0) {
+            return null;
+        }
+
+        for (int i = 0; i < hit.length; i++) {
+            if (hit[i]) {
+                return c.byOrder[i].id;
+            }
+        }
+
+        return null;
+    }
+
+    private void markDirty(Entry entry) {
+        if (entry != null) {
+            if (entry.pattern != null) {
+                this.regexesDirty = true;
+            } else {
+                this.literalsDirty = true;
+            }
+        }
+    }
+
+    private Compiled compiled() {
+        if (this.literalsDirty || this.regexesDirty) {
+            synchronized (this) {
+                if (this.literalsDirty || this.regexesDirty) {
+                    this.compiled = this.rebuild(this.compiled);
+                    this.literalsDirty = false;
+                    this.regexesDirty = false;
+                }
+            }
+        }
+
+        return this.compiled;
+    }
+
+    private Compiled rebuild(Compiled previous) {
+        List<Entry> sorted = new ArrayList<>(this.entries.values());
+        sorted.sort((a, b) -> Integer.compare(a.order, b.order));
+        Entry[] byOrder = sorted.toArray(new Entry[0]);
+
+        List<Entry> cs = new ArrayList<>();
+        List<Entry> ci = new ArrayList<>();
+        List<Entry> rx = new ArrayList<>();
+
+        for (Entry entry : byOrder) {
+            if (entry.pattern != null) {
+                rx.add(entry);
+            } else {
+                (entry.caseSensitive ? cs : ci).add(entry);
+            }
+        }
+
+        int[] csSlots = slots(byOrder, cs);
+        int[] ciSlots = slots(byOrder, ci);
+        int[] rxSlots = slots(byOrder, rx);
+
+        // A part is only rebuilt if its phrases changed, or if changes to the other parts moved its phrases to other slots.
+        Automaton sensitive = previous.sensitive;
+        Automaton insensitive = previous.insensitive;
+        Regexes regexes = previous.regexes;
+
+        if (this.literalsDirty || sensitive == null || !Arrays.equals(sensitive.slots, csSlots)) {
+            sensitive = cs.isEmpty() ? null : new Automaton(cs, csSlots);
+        }
+
+        if (this.literalsDirty || insensitive == null || !Arrays.equals(insensitive.slots, ciSlots)) {
+            insensitive = ci.isEmpty() ? null : new Automaton(ci, ciSlots);
+        }
+
+        if (this.regexesDirty || regexes == null || !Arrays.equals(regexes.slots, rxSlots)) {
+            regexes = rx.isEmpty() ? null : new Regexes(rx, rxSlots);
+        }
+
+        return new Compiled(sensitive, insensitive, byOrder, regexes);
+    }
+
+    private static int[] slots(Entry[] byOrder, List<Entry> part) {
+        int[] slots = new int[part.size()];
+        int n = 0;
+
+        for (int i = 0; i < byOrder.length && n < slots.length; i++) {
+            if (byOrder[i] == part.get(n)) {
+                slots[n++] = i;
+            }
+        }
+
+        return slots;
+    }
+
+    private static String lower(String s) {
+        char[] chars = s.toCharArray();
+
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+
+        return new String(chars);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static final class Entry {
+
+        private final String id;
+        private final int order;
+        private final String phrase;
+        private final Pattern pattern;
+        private final boolean caseSensitive;
+        private final Mode mode;
+
+        private Entry(String id, int order, String phrase, Pattern pattern, boolean caseSensitive, Mode mode) {
+            this.id = id;
+            this.order = order;
+            this.phrase = phrase;
+            this.pattern = pattern;
+            this.caseSensitive = caseSensitive;
+            this.mode = mode;
+        }
+
+        private boolean boundariesMatch(String text, int start, int end) {
+            switch (this.mode) {
+                case TOKEN:
+                    return (start == 0 || text.charAt(start - 1) == ' ') && (end == text.length() || text.charAt(end) == ' ');
+                case WORD:
+                    return (start == 0 || isWordChar(text.charAt(start - 1)) != isWordChar(text.charAt(start)))
+                            && (end == text.length() || isWordChar(text.charAt(end - 1)) != isWordChar(text.charAt(end)));
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the compiled phrases.
+     */
+    private static final class Compiled {
+
+        private final Automaton sensitive;
+        private final Automaton insensitive;
+        private final Entry[] byOrder;
+        private final Regexes regexes;
+
+        private Compiled(Automaton sensitive, Automaton insensitive, Entry[] byOrder, Regexes regexes) {
+            this.sensitive = sensitive;
+            this.insensitive = insensitive;
+            this.byOrder = byOrder;
+            this.regexes = regexes;
+        }
+
+        /**
+         * Marks the slot of every phrase found in {@code hit} and returns the amount of hits. When {@code firstOnly} is set, regexes ordered
+         * after an already found literal are not tested.
+         */
+        private int scan(String message, boolean[] hit, boolean firstOnly) {
+            int hits = 0;
+
+            if (this.sensitive != null) {
+                hits += this.sensitive.scan(message, message, hit);
+            }
+
+            if (this.insensitive != null) {
+                hits += this.insensitive.scan(lower(message), message, hit);
+            }
+
+            if (this.regexes != null) {
+                int limit = hit.length;
+
+                if (firstOnly) {
+                    for (int i = 0; i < hit.length; i++) {
+                        if (hit[i]) {
+                            limit = i;
+                            break;
+                        }
+                    }
+                }
+
+                hits += this.regexes.scan(message, hit, limit, firstOnly);
+            }
+
+            return hits;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over the literal phrases of one case mode.
+     */
+    private static final class Automaton {
+
+        /**
+         * The slot in {@link Compiled#byOrder} of each phrase, in the order they were given
+         */
+        private final int[] slots;
+        private final char[][] keys;
+        private final int[][] next;
+        private final int[] fail;
+        /**
+         * The phrases ending at each state, including those reached through the failure links, as indexes into {@link #entries}
+         */
+        private final int[][] output;
+        private final Entry[] entries;
+
+        private Automaton(List<Entry> entries, int[] slots) {
+            this.slots = slots;
+            this.entries = entries.toArray(new Entry[0]);
+            List<Map<Character, Integer>> trie = new ArrayList<>();
+            List<List<Integer>> out = new ArrayList<>();
+            trie.add(new HashMap<>());
+            out.add(new ArrayList<>());
+
+            for (int e = 0; e < this.entries.length; e++) {
+                Entry entry = this.entries[e];
+                int state = 0;
+
+                for (int i = 0; i < entry.phrase.length(); i++) {
+                    char c = entry.phrase.charAt(i);
+                    Integer to = trie.get(state).get(c);
+
+                    if (to == null) {
+                        to = trie.size();
+                        trie.get(state).put(c, to);
+                        trie.add(new HashMap<>());
+                        out.add(new ArrayList<>());
+                    }
+
+                    state = to;
+                }
+
+                out.get(state).add(e);
+            }
+
+            int size = trie.size();
+            this.keys = new char[size][];
+            this.next = new int[size][];
+            this.fail = new int[size];
+
+            for (int s = 0; s < size; s++) {
+                Character[] sortedKeys = trie.get(s).keySet().toArray(new Character[0]);
+                Arrays.sort(sortedKeys);
+                this.keys[s] = new char[sortedKeys.length];
+                this.next[s] = new int[sortedKeys.length];
+
+                for (int i = 0; i < sortedKeys.length; i++) {
+                    this.keys[s][i] = sortedKeys[i];
+                    this.next[s][i] = trie.get(s).get(sortedKeys[i]);
+                }
+            }
+
+            // Breadth first, so the failure target of a state is always complete before the state itself.
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+
+            for (int child : this.next[0]) {
+                this.fail[child] = 0;
+                queue[tail++] = child;
+            }
+
+            while (head < tail) {
+                int s = queue[head++];
+
+                for (int i = 0; i < this.keys[s].length; i++) {
+                    char c = this.keys[s][i];
+                    int child = this.next[s][i];
+                    int f = this.fail[s];
+
+                    while (f != 0 && this.step(f, c) < 0) {
+                        f = this.fail[f];
+                    }
+
+                    int target = this.step(f, c);
+                    this.fail[child] = target < 0 || target == child ? 0 : target;
+                    out.get(child).addAll(out.get(this.fail[child]));
+                    queue[tail++] = child;
+                }
+            }
+
+            this.output = new int[size][];
+
+            for (int s = 0; s < size; s++) {
+                this.output[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        private int step(int state, char c) {
+            int i = Arrays.binarySearch(this.keys[state], c);
+            return i < 0 ? -1 : this.next[state][i];
+        }
+
+        /**
+         * Scans {@code text} and marks every phrase found. Boundaries are checked against {@code original}, which has the same length.
+         */
+        private int scan(String text, String original, boolean[] hit) {
+            int hits = 0;
+            int state = 0;
+
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                int to;
+
+                while ((to = this.step(state, c)) < 0 && state != 0) {
+                    state = this.fail[state];
+                }
+
+                state = to < 0 ? 0 : to;
+
+                for (int e : this.output[state]) {
+                    Entry entry = this.entries[e];
+
+                    if (!hit[this.slots[e]] && entry.boundariesMatch(original, i + 1 - entry.phrase.length(), i + 1)) {
+                        hit[this.slots[e]] = true;
+                        hits++;
+                    }
+                }
+            }
+
+            return hits;
+        }
+    }
+
+    /**
+     * The regex phrases, with a combined alternation used to rule out messages that match none of them.
+     */
+    private static final class Regexes {
+
+        private final int[] slots;
+        private final Entry[] entries;
+        private final Pattern combined;
+
+        private Regexes(List<Entry> entries, int[] slots) {
+            this.slots = slots;
+            this.entries = entries.toArray(new Entry[0]);
+
+            StringBuilder sb = new StringBuilder();
+
+            for (Entry entry : this.entries) {
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+
+                sb.append(entry.caseSensitive ? "(?:" : "(?iu:").append(entry.pattern.pattern()).append(')');
+            }
+
+            Pattern p = null;
+
+            // Back references and some inline flags do not survive being combined, those sets are tested one by one instead.
+            if (!sb.toString().matches("(?s).*\\\\[1-9k].*")) {
+                try {
+                    p = Pattern.compile(sb.toString());
+                } catch (PatternSyntaxException ex) {
+                    p = null;
+                }
+            }
+
+            this.combined = p;
+        }
+
+        private int scan(String message, boolean[] hit, int limit, boolean firstOnly) {
+            if (this.combined != null && !this.combined.matcher(message).find()) {
+                return 0;
+            }
+
+            int hits = 0;
+
+            for (int i = 0; i < this.entries.length; i++) {
+                int slot = this.slots[i];
+
+                if (slot >= limit) {
+                    break;
+                }
+
+                if (!hit[slot] && this.entries[i].pattern.matcher(message).find()) {
+                    hit[slot] = true;
+                    hits++;
+
+                    if (firstOnly) {
+                        break;
+                    }
+                }
+            }
+
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.scripts.core;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that keeps track of which users are in the channel and which roles they have.
+ *
+ * Lookups are case-insensitive and never lock. Changes are serialized, and {@link #getUsers()} returns an array that is rebuilt only after the
+ * users changed, so scripts can iterate over it while users join and leave.
+ */
+public final class UserRegistry {
+
+    private static final UserRegistry INSTANCE = new UserRegistry();
+    private static final String[] EMPTY = new String[0];
+    private final Set<String> users = ConcurrentHashMap.newKeySet();
+    private final Map<Role, Set<String>> roles = new EnumMap<>(Role.class);
+    private volatile String[] snapshot = EMPTY;
+    private volatile boolean isStale = false;
+
+    /**
+     * The roles that are tracked.
+     */
+    public enum Role {
+        /**
+         * Users known to be moderators from the groups table or the panel.
+         */
+        MODERATOR,
+        /**
+         * Users that received mode +o in chat.
+         */
+        MODE_O,
+        /**
+         * Users on the last moderator list from Twitch.
+         */
+        MOD_LIST,
+        /**
+         * Users on the last VIP list from Twitch.
+         */
+        VIP,
+        /**
+         * Users known to be subscribed.
+         */
+        SUBSCRIBER
+    }
+
+    /**
+     * Method that returns this instance.
+     *
+     * @return
+     */
+    public static UserRegistry instance() {
+        return INSTANCE;
+    }
+
+    private UserRegistry() {
+        for (Role role : Role.values()) {
+            this.roles.put(role, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase();
+    }
+
+    /**
+     * Method that adds a user to the channel.
+     *
+     * @param username
+     * @return true if the user was not in the channel yet
+     */
+    public synchronized boolean join(String username) {
+        boolean added = this.users.add(key(username));
+        this.isStale |= added;
+        return added;
+    }
+
+    /**
+     * Method that removes a user from the channel.
+     *
+     * @param username
+     * @return true if the user was in the channel
+     */
+    public synchronized boolean part(String username) {
+        boolean removed = this.users.remove(key(username));
+        this.isStale |= removed;
+        return removed;
+    }
+
+    /**
+     * Method that applies a batch of joins and parts.
+     *
+     * @param joins
+     * @param parts
+     */
+    public synchronized void update(String[] joins, String[] parts) {
+        for (String username : parts) {
+            this.isStale |= this.users.remove(key(username));
+        }
+
+        for (String username : joins) {
+            this.isStale |= this.users.add(key(username));
+        }
+    }
+
+    /**
+     * Method that replaces the users in the channel with a new list.
+     *
+     * @param usernames
+     */
+    public synchronized void replace(String[] usernames) {
+        Set<String> next = new HashSet<>(Math.max(16, (int) (usernames.length / 0.75f) + 1));
+
+        for (String username : usernames) {
+            next.add(key(username));
+        }
+
+        this.isStale |= this.users.retainAll(next);
+        this.isStale |= this.users.addAll(next);
+    }
+
+    /**
+     * Method that checks if a user is in the channel.
+     *
+     * @param username
+     * @return
+     */
+    public boolean isPresent(String username) {
+        return this.users.contains(key(username));
+    }
+
+    /**
+     * Method that returns the amount of users in the channel.
+     *
+     * @return
+     */
+    public int size() {
+        return this.users.size();
+    }
+
+    /**
+     * Method that returns the users in the channel. The array is shared until the users change, and must not be modified.
+     *
+     * @return
+     */
+    public String[] getUsers() {
+        if (this.isStale) {
+            synchronized (this) {
+                if (this.isStale) {
+                    this.snapshot = this.users.toArray(EMPTY);
+                    this.isStale = false;
+                }
+            }
+        }
+
+        return this.snapshot;
+    }
+
+    /**
+     * Method that checks if a user has a role.
+     *
+     * @param username
+     * @param role The name of a {@link Role}
+     * @return
+     */
+    public boolean hasRole(String username, String role) {
+        return this.roles.get(Role.valueOf(role.toUpperCase())).contains(key(username));
+    }
+
+    /**
+     * Method that gives a user a role.
+     *
+     * @param username
+     * @param role The name of a {@link Role}
+     * @return true if the user did not have the role yet
+     */
+    public boolean addRole(String username, String role) {
+        return this.roles.get(Role.valueOf(role.toUpperCase())).add(key(username));
+    }
+
+    /**
+     * Method that takes a role from a user.
+     *
+     * @param username
+     * @param role The name of a {@link Role}
+     * @return true if the user had the role
+     */
+    public boolean removeRole(String username, String role) {
+        return this.roles.get(Role.valueOf(role.toUpperCase())).remove(key(username));
+    }
+
+    /**
+     * Method that replaces all users that have a role.
+     *
+     * @param role The name of a {@link Role}
+     * @param usernames
+     */
+    public synchronized void setRoleUsers(String role, String[] usernames) {
+        Set<String> set = this.roles.get(Role.valueOf(role.toUpperCase()));
+        List<String> next = new ArrayList<>(usernames.length);
+
+        for (String username : usernames) {
+            next.add(key(username));
+        }
+
+        set.retainAll(new HashSet<>(next));
+        set.addAll(next);
+    }
+
+    /**
+     * Method that returns the users that have a role.
+     *
+     * @param role The name of a {@link Role}
+     * @return
+     */
+    public String[] getRoleUsers(String role) {
+        return this.roles.get(Role.valueOf(role.toUpperCase())).toArray(EMPTY);
+    }
+}
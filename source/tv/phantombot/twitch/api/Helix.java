@@ -17,15 +17,10 @@
 
 package tv.phantombot.twitch.api;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.net.SocketTimeoutException;
-import java.net.URL;
-import javax.net.ssl.HttpsURLConnection;
+import com.gmt2001.AsyncHttpClient;
+import com.gmt2001.AsyncHttpClient.Priority;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -43,12 +38,8 @@ public class Helix {
     private static final String USER_AGENT = "PhantomBot/2018";
     // Our content type, should always be JSON.
     private static final String CONTENT_TYPE = "application/json";
-    // Timeout which to wait for a response before killing it (5 seconds).
-    private static final int TIMEOUT_TIME = 5000;
-    // Time when our limit will reset.
-    private long rateLimitResetEpoch = System.currentTimeMillis();
-    // Our current rate limit before making any requests.
-    private int currentRateLimit = 120;
+    // The token bucket that all of our requests go through.
+    private final HelixRateLimiter rateLimiter = new HelixRateLimiter();
     // The user's oauth token -- this is required.
     private final String oAuthToken;
     private final String clientid;
@@ -62,6 +53,9 @@ public class Helix {
         this.oAuthToken = oAuthToken.replace("oauth:", "");
         this.clientid = TwitchValidate.instance().getAPIClientID();
         
+        // Every request to Helix, from here or anywhere else, goes through our bucket.
+        AsyncHttpClient.instance().setRateLimiter("api.twitch.tv/helix", rateLimiter);
+        
         // Set the default exception handler thread.
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
     }
@@ -95,80 +89,30 @@ public class Helix {
     };
     
     /**
-     * Method that update the rate limits in sync.
-     * 
-     * @param limit The number of requests left.
-     * @param reset The time when our limits will reset.
-     */
-    private synchronized void updateRateLimits(int limit, long reset) {
-        currentRateLimit = limit;
-        rateLimitResetEpoch = reset;
-    }
-    
-    /**
-     * Method that gets the reset time for the rate limit.
+     * Method that gets the current budget and queue depth of the rate limit.
      * 
      * @return 
      */
-    private synchronized long getLimitResetTime() {
-        return rateLimitResetEpoch;
+    public String getRateLimitStats() {
+        return rateLimiter.getStats();
     }
     
     /**
-     * Method that gets the current rate limits.
+     * Method that gets the number of requests we can still send right now.
      * 
      * @return 
      */
-    private synchronized int getCurrentRateLimit() {
-        return currentRateLimit;
+    public int getRateLimitBudget() {
+        return rateLimiter.getBudget();
     }
     
     /**
-     * Method that checks if we hit the limit.
-     */
-    private void checkRateLimit() {
-        if (getCurrentRateLimit() <= 0) {
-            try {
-                // Sleep for the time remaining for the limit to reset.
-                Thread.sleep(System.currentTimeMillis() - getLimitResetTime());
-            } catch (InterruptedException ex) {
-                com.gmt2001.Console.err.printStackTrace(ex);
-            }
-        }
-    }
-    
-    /**
-     * Method that handles our rate limits.
+     * Method that gets the number of requests waiting on the rate limit.
      * 
-     * @param limitReturned The limit returned from Helix.
-     * @param limitResetTimeReturned The reset time for our limit returned from Helix.
-     */
-    private void handleUpdateRateLimits(String limitReturned, String limitResetTimeReturned) {
-        try {
-            // Parse the rate limit returned.
-            updateRateLimits(Integer.parseInt(limitReturned), 
-                    Long.parseLong(limitResetTimeReturned));
-        } catch (NumberFormatException ex) {
-            com.gmt2001.Console.err.printStackTrace(ex);
-        }
-    }
-    
-    /**
-     * Method that gets data from an InputStream.
-     * 
-     * @param stream
      * @return 
      */
-    private String getStringFromInputStream(InputStream stream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-        StringBuilder returnString = new StringBuilder();
-        String line;
-        
-        while ((line = reader.readLine()) != null) {
-            returnString.append(line);
-        }
-        
-        return returnString.toString();
+    public int getRateLimitQueueDepth() {
+        return rateLimiter.getQueueDepth();
     }
     
     /**
@@ -202,108 +146,84 @@ public class Helix {
      * @param type
      * @param url
      * @param data
+     * @param priority
      * @return 
      */
-    private JSONObject handleRequest(RequestType type, String endPoint, String data) throws JSONException {
-        JSONObject returnObject = new JSONObject();
-        InputStream inStream = null;
-        int responseCode = 0;
+    private JSONObject handleRequest(RequestType type, String endPoint, String data, Priority priority) throws JSONException {
+        return handleRequestAsync(type, endPoint, data, priority).join();
+    }
+    
+    /**
+     * Method that sends a request to Helix without waiting for the response.
+     * 
+     * @param type
+     * @param endPoint
+     * @param data
+     * @param priority The order in which the request is sent when we're out of rate limit
+     * @return A future that completes with the same object {@link #handleRequest(RequestType, String, String, Priority)} returns
+     */
+    private CompletableFuture<JSONObject> handleRequestAsync(RequestType type, String endPoint, String data, Priority priority) {
+        // Update the end point URL, if it is an endpoint and not full URL.
+        String url = endPoint.startsWith("/") ? BASE_URL + endPoint : endPoint;
+        HashMap<String, String> headers = new HashMap<>();
         
-        // Check our rate limit.
-        checkRateLimit();
+        // Add our headers.
+        headers.put("Content-Type", CONTENT_TYPE);
         
-        // Update the end point URL, if it is an endpoint and not full URL.
-        if (endPoint.startsWith("/")) {
-            endPoint = BASE_URL + endPoint;
+        // The token may still be validating when this instance is created.
+        String clientid = this.clientid.isEmpty() ? TwitchValidate.instance().getAPIClientID() : this.clientid;
+        if (!clientid.isEmpty()) {
+            headers.put("Client-ID", clientid);
         }
         
-        try {
-            // Generate a new URL.
-            URL url = new URL(endPoint);
-            // Open the connection over HTTPS.
-            HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-            // Add our headers.
-            connection.addRequestProperty("Content-Type", CONTENT_TYPE);
-
-            if (!clientid.isEmpty()) {
-                connection.addRequestProperty("Client-ID", clientid);
-            }
-
-            if (!oAuthToken.isEmpty()) {
-                connection.addRequestProperty("Authorization", "Bearer " + oAuthToken);
-            }
-
-            connection.addRequestProperty("User-Agent", USER_AGENT);
-            // Add our request method.
-            connection.setRequestMethod(type.name());
-            // Set out timeout.
-            connection.setConnectTimeout(TIMEOUT_TIME);
-            // Set if we're doing output.
-            connection.setDoOutput(!data.isEmpty());
-            
-            // Connect!
-            connection.connect();
+        if (!oAuthToken.isEmpty()) {
+            headers.put("Authorization", "Bearer " + oAuthToken);
+        }
+        
+        headers.put("User-Agent", USER_AGENT);
+        
+        return sendRequest(type, url, data, headers, priority, true);
+    }
+    
+    /**
+     * Method that sends a request, retrying once if Twitch still says we're over the limit.
+     * 
+     * @param type
+     * @param url
+     * @param data
+     * @param headers
+     * @param priority
+     * @param retry
+     * @return 
+     */
+    private CompletableFuture<JSONObject> sendRequest(RequestType type, String url, String data, HashMap<String, String> headers, 
+            Priority priority, boolean retry) {
+        return AsyncHttpClient.instance().request(com.gmt2001.HttpRequest.RequestType.valueOf(type.name()), url, data, headers, priority)
+                .thenCompose(response -> {
+            JSONObject returnObject = new JSONObject();
             
-            // If we're outputting.
-            if (connection.getDoOutput()) {
-                // Get the output stream
-                try (OutputStream outStream = connection.getOutputStream()) {
-                    // Write to it and flush.
-                    outStream.write(data.getBytes("UTF-8"));
-                    outStream.flush();
-                }
+            if (response.httpCode == 0) {
+                // Generate the return object.
+                generateJSONObject(returnObject, false, type.name(), data, url, 0, response.exceptionType, response.exception);
+                return CompletableFuture.completedFuture(returnObject);
             }
             
-            // Get our response code.
-            responseCode = connection.getResponseCode();
-            
-            // Get the current rate limits.
-            String limit = connection.getHeaderField("Ratelimit-Remaining");
-            String reset = connection.getHeaderField("Ratelimit-Reset");
-            // Handle the current limits.
-            handleUpdateRateLimits(limit, reset);
-                
-            // Get our response stream.
-            if (responseCode == 200) {
-                inStream = connection.getInputStream();
-            } else {
-                inStream = connection.getErrorStream();
+            if (response.httpCode == 429 && retry) {
+                return sendRequest(type, url, data, headers, priority, false);
             }
-
-            // Parse the data.
-            returnObject = new JSONObject(getStringFromInputStream(inStream));
-            // Generate the return object,
-            generateJSONObject(returnObject, true, type.name(), data, endPoint, responseCode, "", "");
-        } catch (JSONException ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "JSONException", ex.getMessage());
-        } catch (NullPointerException ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "NullPointerException", ex.getMessage());
-        } catch (MalformedURLException ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "MalformedURLException", ex.getMessage());
-        } catch (SocketTimeoutException ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "SocketTimeoutException", ex.getMessage());
-        } catch (IOException ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "IOException", ex.getMessage());
-        } catch (Exception ex) {
-            // Generate the return object.
-            generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "Exception", ex.getMessage());
-        } finally {
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException ex) {
-                    // Generate the return object.
-                    generateJSONObject(returnObject, false, type.name(), data, endPoint, responseCode, "IOException", ex.getMessage());
-                }
+            
+            try {
+                // Parse the data.
+                returnObject = new JSONObject(response.content);
+                // Generate the return object,
+                generateJSONObject(returnObject, true, type.name(), data, url, response.httpCode, "", "");
+            } catch (JSONException ex) {
+                // Generate the return object.
+                generateJSONObject(returnObject, false, type.name(), data, url, response.httpCode, "JSONException", ex.getMessage());
             }
-        }
-        
-        return returnObject;
+            
+            return CompletableFuture.completedFuture(returnObject);
+        });
     }
     
     /**
@@ -311,10 +231,11 @@ public class Helix {
      * 
      * @param type
      * @param endPoint
+     * @param priority
      * @return 
      */
-    private JSONObject handleRequest(RequestType type, String endPoint) throws JSONException {
-        return handleRequest(type, endPoint, "");
+    private JSONObject handleRequest(RequestType type, String endPoint, Priority priority) throws JSONException {
+        return handleRequest(type, endPoint, "", priority);
     }
     
     /**
@@ -325,7 +246,7 @@ public class Helix {
      * @return 
      */
     public JSONObject getUsersByType(String type, String[] usernames) throws JSONException {
-        return handleRequest(RequestType.GET, "/users?" + type + "=" + String.join("&" + type + "=", usernames));
+        return handleRequest(RequestType.GET, "/users?" + type + "=" + String.join("&" + type + "=", usernames), Priority.HIGH);
     }
     
     /**
@@ -381,7 +302,7 @@ public class Helix {
      * @return 
      */
     private JSONObject getStreamsByType(String type, String[] streams, String[] parameters) throws JSONException {
-        return handleRequest(RequestType.GET, "/streams?" + type + "=" + String.join("&" + type + "=", streams) + (parameters.length > 0 ? "&" + String.join("&", parameters) : "")); 
+        return handleRequest(RequestType.GET, "/streams?" + type + "=" + String.join("&" + type + "=", streams) + (parameters.length > 0 ? "&" + String.join("&", parameters) : ""), Priority.NORMAL);
     }
     
     /**
@@ -474,7 +395,7 @@ public class Helix {
      * @return 
      */
     private JSONObject getGamesByType(String type, String games[]) throws JSONException {
-        return handleRequest(RequestType.GET, "/games?" + type + "=" + String.join("&" + type + "=", games));
+        return handleRequest(RequestType.GET, "/games?" + type + "=" + String.join("&" + type + "=", games), Priority.LOW);
     }
     
     /**
@@ -530,7 +451,7 @@ public class Helix {
      * @return 
      */
     private JSONObject getClipsByType(String type, String clipIds[], String[] parameters) throws JSONException {
-        return handleRequest(RequestType.GET, "/clips?" + type + "=" + String.join("&" + type + "=", clipIds) + (parameters.length > 0 ? "&" + String.join("&", parameters) : ""));
+        return handleRequest(RequestType.GET, "/clips?" + type + "=" + String.join("&" + type + "=", clipIds) + (parameters.length > 0 ? "&" + String.join("&", parameters) : ""), Priority.LOW);
     }
     
     /**
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.twitch.api;
+
+import com.gmt2001.AsyncHttpClient;
+import com.gmt2001.AsyncHttpClient.Priority;
+import com.gmt2001.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket for the Helix rate limit.
+ *
+ * The bucket follows the Ratelimit-Limit, Ratelimit-Remaining and Ratelimit-Reset headers Twitch sends back, Reset being the time the bucket
+ * is full again. Requests that find the bucket empty wait in a queue ordered by priority, then by arrival, and give up after a while
+ * instead of blocking forever.
+ */
+final class HelixRateLimiter implements AsyncHttpClient.RateLimiter {
+
+    // Twitch refills the whole bucket over one minute.
+    private static final long WINDOW_MILLIS = 60000L;
+    // How long a request may wait in the queue before it fails.
+    private static final long MAX_WAIT_MILLIS = 30000L;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "HelixRateLimiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>();
+    private long sequence = 0;
+    // Values until Twitch tells us otherwise.
+    private int limit = 120;
+    private double tokens = 120;
+    private double refillPerMilli = 120.0 / WINDOW_MILLIS;
+    private long lastRefill = System.currentTimeMillis();
+    private long throttled = 0;
+    private ScheduledFuture<?> drain = null;
+
+    /**
+     * Method that takes a token from the bucket, or queues until one is available.
+     *
+     * @param priority
+     * @return A future that completes when the request may be sent, or completes with a TimeoutException if it waited too long
+     */
+    @Override
+    public CompletableFuture<Void> acquire(Priority priority) {
+        Waiter waiter;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            this.refill(now);
+
+            if (this.queue.isEmpty() && this.tokens >= 1) {
+                this.tokens -= 1;
+                return CompletableFuture.completedFuture(null);
+            }
+
+            waiter = new Waiter(priority, this.sequence++);
+            this.queue.add(waiter);
+            this.scheduleDrain();
+        }
+
+        waiter.future.orTimeout(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS).whenComplete((v, ex) -> {
+            if (ex != null) {
+                synchronized (this) {
+                    this.queue.remove(waiter);
+                }
+            }
+        });
+
+        return waiter.future;
+    }
+
+    /**
+     * Method that follows the limits Twitch reports in a response.
+     *
+     * @param response
+     */
+    @Override
+    public void update(HttpResponse response) {
+        if (response.responseHeaders == null) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            this.refill(now);
+
+            try {
+                String limitHeader = response.responseHeaders.get("Ratelimit-Limit");
+                String remainingHeader = response.responseHeaders.get("Ratelimit-Remaining");
+                String resetHeader = response.responseHeaders.get("Ratelimit-Reset");
+
+                if (limitHeader != null) {
+                    this.limit = Math.max(1, Integer.parseInt(limitHeader));
+                }
+
+                int remaining = remainingHeader == null ? (int) this.tokens : Integer.parseInt(remainingHeader);
+
+                if (response.httpCode == 429) {
+                    this.throttled++;
+                    remaining = 0;
+                }
+
+                // Requests still in flight are not counted by Twitch yet, so never trust a higher number than our own.
+                this.tokens = Math.min(this.tokens, remaining);
+
+                if (resetHeader != null) {
+                    long untilFull = Long.parseLong(resetHeader) * 1000L - now;
+                    this.refillPerMilli = untilFull > 0 ? Math.max(1, this.limit - remaining) / (double) untilFull : (double) this.limit / WINDOW_MILLIS;
+                } else {
+                    this.refillPerMilli = (double) this.limit / WINDOW_MILLIS;
+                }
+            } catch (NumberFormatException ex) {
+                com.gmt2001.Console.err.printStackTrace(ex);
+            }
+        }
+    }
+
+    /**
+     * Method that returns the whole tokens left in the bucket.
+     *
+     * @return
+     */
+    synchronized int getBudget() {
+        this.refill(System.currentTimeMillis());
+        return (int) this.tokens;
+    }
+
+    /**
+     * Method that returns the number of requests waiting for a token.
+     *
+     * @return
+     */
+    synchronized int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Method that returns the state of the bucket for the console.
+     *
+     * @return
+     */
+    synchronized String getStats() {
+        int[] depth = new int[Priority.values().length];
+        this.queue.forEach(w -> depth[w.priority.ordinal()]++);
+        this.refill(System.currentTimeMillis());
+
+        return String.format("Helix rate limit: budget=%d/%d refill=%.1f/min queued=%d (high=%d normal=%d low=%d) throttled=%d",
+                (int) this.tokens, this.limit, this.refillPerMilli * WINDOW_MILLIS, this.queue.size(),
+                depth[Priority.HIGH.ordinal()], depth[Priority.NORMAL.ordinal()], depth[Priority.LOW.ordinal()], this.throttled);
+    }
+
+    private void refill(long now) {
+        if (now > this.lastRefill) {
+            this.tokens = Math.min(this.limit, this.tokens + (now - this.lastRefill) * this.refillPerMilli);
+            this.lastRefill = now;
+        }
+    }
+
+    private void scheduleDrain() {
+        if (this.drain == null) {
+            long delay = (long) Math.ceil(Math.max(0, 1 - this.tokens) / this.refillPerMilli);
+            this.drain = SCHEDULER.schedule(this::drain, Math.max(1, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            this.drain = null;
+            this.refill(now);
+
+            while (this.tokens >= 1 && !this.queue.isEmpty()) {
+                Waiter waiter = this.queue.poll();
+
+                // Skip requests that already gave up.
+                if (!waiter.future.isDone()) {
+                    this.tokens -= 1;
+                    ready.add(waiter.future);
+                }
+            }
+
+            if (!this.queue.isEmpty()) {
+                this.scheduleDrain();
+            }
+        }
+
+        ready.forEach(f -> f.complete(null));
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        final Priority priority;
+        final long sequence;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int c = this.priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(this.sequence, o.sequence);
+        }
+    }
+}
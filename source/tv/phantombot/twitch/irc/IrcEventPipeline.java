@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.twitch.irc;
+
+import com.gmt2001.LatencyHistogram;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import tv.phantombot.PhantomBot;
+
+/**
+ * Hands parsed IRC lines from the socket thread to a fixed set of dispatch workers
+ *
+ * Every worker owns a bounded queue. Lines are assigned to a worker by a key, normally the sending user, so the lines of one user are always
+ * handled in the order they arrived while different users are handled in parallel. What happens when a worker queue is full is decided by the
+ * {@link OverflowPolicy}.
+ */
+public final class IrcEventPipeline {
+
+    /**
+     * What to do with a line when the queue of its worker is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room. This pushes back on the socket, so Twitch buffers the lines instead of us
+         */
+        BLOCK,
+        /**
+         * Drop the line that could not be queued
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest queued line of the worker to make room
+         */
+        DROP_OLDEST
+    }
+
+    private final Worker[] workers;
+    private final OverflowPolicy overflowPolicy;
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+
+    /**
+     * Class constructor.
+     *
+     * @param {int} workers The amount of dispatch workers
+     * @param {int} queueSize The capacity of the queue of each worker
+     * @param {OverflowPolicy} overflowPolicy
+     */
+    public IrcEventPipeline(int workers, int queueSize, OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        this.workers = new Worker[Math.max(1, workers)];
+
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(Math.max(16, queueSize), i);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Creates a pipeline configured from the {@code ircworkers}, {@code ircqueuesize} and {@code ircoverflow} properties.
+     *
+     * @return {IrcEventPipeline}
+     */
+    static IrcEventPipeline fromProperties() {
+        OverflowPolicy policy;
+
+        try {
+            policy = OverflowPolicy.valueOf(PhantomBot.getIrcOverflowPolicy().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            com.gmt2001.Console.err.println("Unknown ircoverflow policy [" + PhantomBot.getIrcOverflowPolicy() + "], using BLOCK");
+            policy = OverflowPolicy.BLOCK;
+        }
+
+        return new IrcEventPipeline(PhantomBot.getIrcWorkers(), PhantomBot.getIrcQueueSize(), policy);
+    }
+
+    /**
+     * Records how long the socket thread spent parsing a frame.
+     *
+     * @param {long} startNanos The {@link System#nanoTime()} when parsing started
+     */
+    void recordParse(long startNanos) {
+        this.parseLatency.recordSince(startNanos);
+    }
+
+    /**
+     * Queues a task on the worker responsible for a key.
+     *
+     * @param {String} key The ordering key, tasks with equal keys run in submission order
+     * @param {Runnable} task
+     */
+    void submit(String key, Runnable task) {
+        Worker worker = this.workers[Math.floorMod(key.hashCode(), this.workers.length)];
+        Task t = new Task(task);
+
+        switch (this.overflowPolicy) {
+            case DROP_NEWEST:
+                if (!worker.queue.offer(t)) {
+                    this.drop();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!worker.queue.offer(t)) {
+                    if (worker.queue.poll() != null) {
+                        this.drop();
+                    }
+                }
+                break;
+            default:
+                if (!worker.queue.offer(t)) {
+                    this.blocked.increment();
+
+                    try {
+                        worker.queue.put(t);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        this.drop();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void drop() {
+        this.dropped.increment();
+
+        if (this.dropped.sum() % 100 == 1) {
+            com.gmt2001.Console.warn.println("The IRC event queue is full, " + this.dropped.sum() + " messages have been dropped so far (ircoverflow=" + this.overflowPolicy.name() + ")");
+        }
+    }
+
+    /**
+     * Returns the queue depths, drop counts and the latency of every stage.
+     *
+     * @return {String}
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Workers: ").append(this.workers.length).append(", Overflow policy: ").append(this.overflowPolicy.name())
+                .append(", Dropped: ").append(this.dropped.sum()).append(", Blocked: ").append(this.blocked.sum()).append(", Queued:");
+
+        for (Worker worker : this.workers) {
+            sb.append(' ').append(worker.queue.size());
+        }
+
+        sb.append(String.format("%nParse:    %s%nQueue:    %s%nDispatch: %s", this.parseLatency, this.queueLatency, this.dispatchLatency));
+
+        return sb.toString();
+    }
+
+    private static final class Task {
+
+        private final Runnable runnable;
+        private final long queuedAt = System.nanoTime();
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private final BlockingQueue<Task> queue;
+
+        private Worker(int queueSize, int id) {
+            super("tv.phantombot.twitch.irc.IrcEventPipeline::dispatch-" + id);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.setDaemon(true);
+            this.setUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
+        }
+
+        @Override
+        public void run() {
+            while (!PhantomBot.isInExitState()) {
+                try {
+                    Task task = this.queue.take();
+                    long start = System.nanoTime();
+                    queueLatency.record(start - task.queuedAt);
+
+                    try {
+                        task.runnable.run();
+                    } catch (Exception ex) {
+                        com.gmt2001.Console.err.printStackTrace(ex);
+                    } finally {
+                        dispatchLatency.recordSince(start);
+                    }
+                } catch (InterruptedException ex) {
+                    com.gmt2001.Console.err.printStackTrace(ex);
+                }
+            }
+        }
+    }
+}
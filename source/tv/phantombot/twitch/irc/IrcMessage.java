@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2016-2021 phantombot.github.io/PhantomBot
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tv.phantombot.twitch.irc;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view over a single raw IRCv3 line
+ *
+ * The line is scanned once and only the boundaries of its parts are recorded. The prefix, trailing parameter and tags are only turned into
+ * strings when they are requested, and the tags are only decoded into a map on first access.
+ */
+public final class IrcMessage {
+
+    /**
+     * The IRC commands that we handle, with {@link #OTHER} for everything else
+     */
+    public enum Command {
+        RPL_WELCOME("001"), PRIVMSG("PRIVMSG"), CLEARCHAT("CLEARCHAT"), WHISPER("WHISPER"), JOIN("JOIN"), PART("PART"), NOTICE("NOTICE"),
+        USERSTATE("USERSTATE"), USERNOTICE("USERNOTICE"), PING("PING"), PONG("PONG"), OTHER("");
+
+        private static final Command[] VALUES = values();
+        private final String raw;
+
+        Command(String raw) {
+            this.raw = raw;
+        }
+
+        /**
+         * Returns the command as it appears on the wire.
+         *
+         * @return {String}
+         */
+        public String raw() {
+            return this.raw;
+        }
+
+        private static Command of(String line, int start, int end) {
+            int length = end - start;
+
+            for (Command command : VALUES) {
+                if (command.raw.length() == length && length > 0 && line.regionMatches(start, command.raw, 0, length)) {
+                    return command;
+                }
+            }
+
+            return OTHER;
+        }
+    }
+
+    private final String line;
+    private final int end;
+    private final int tagsStart;
+    private final int tagsEnd;
+    private final int prefixStart;
+    private final int prefixEnd;
+    private final int commandStart;
+    private final int commandEnd;
+    private final int trailingStart;
+    private final Command command;
+    private Tags tags;
+
+    /**
+     * Scans a raw line.
+     *
+     * @param {String} line A single line, with or without the trailing CR
+     */
+    public IrcMessage(String line) {
+        this.line = line;
+
+        int len = line.length();
+
+        while (len > 0 && (line.charAt(len - 1) == '\r' || line.charAt(len - 1) == '\n')) {
+            len--;
+        }
+
+        this.end = len;
+
+        int pos = 0;
+
+        if (pos < len && line.charAt(pos) == '@') {
+            int space = indexOf(line, ' ', pos, len);
+            this.tagsStart = pos + 1;
+            this.tagsEnd = space;
+            pos = skipSpaces(line, space, len);
+        } else {
+            this.tagsStart = -1;
+            this.tagsEnd = -1;
+        }
+
+        if (pos < len && line.charAt(pos) == ':') {
+            int space = indexOf(line, ' ', pos, len);
+            this.prefixStart = pos + 1;
+            this.prefixEnd = space;
+            pos = skipSpaces(line, space, len);
+        } else {
+            this.prefixStart = -1;
+            this.prefixEnd = -1;
+        }
+
+        this.commandStart = pos;
+        this.commandEnd = indexOf(line, ' ', pos, len);
+        this.command = Command.of(line, this.commandStart, this.commandEnd);
+
+        int trailing = -1;
+        pos = this.commandEnd;
+
+        while (pos < len) {
+            pos = skipSpaces(line, pos, len);
+
+            if (pos < len && line.charAt(pos) == ':') {
+                trailing = pos + 1;
+                break;
+            }
+
+            pos = indexOf(line, ' ', pos, len);
+        }
+
+        this.trailingStart = trailing;
+    }
+
+    /**
+     * Returns the command of the line.
+     *
+     * @return {Command}
+     */
+    public Command command() {
+        return this.command;
+    }
+
+    /**
+     * Returns the command exactly as it was sent, useful when {@link #command()} is {@link Command#OTHER}.
+     *
+     * @return {String}
+     */
+    public String rawCommand() {
+        return this.command == Command.OTHER ? this.line.substring(this.commandStart, this.commandEnd) : this.command.raw();
+    }
+
+    /**
+     * Returns the user part of the prefix, or an empty string if the prefix has none.
+     *
+     * @return {String}
+     */
+    public String username() {
+        if (this.prefixStart < 0) {
+            return "";
+        }
+
+        int bang = indexOf(this.line, '!', this.prefixStart, this.prefixEnd);
+
+        if (bang >= this.prefixEnd) {
+            return "";
+        }
+
+        return this.line.substring(bang + 1, indexOf(this.line, '@', bang + 1, this.prefixEnd));
+    }
+
+    /**
+     * Returns the trailing parameter, or an empty string if the line has none.
+     *
+     * @return {String}
+     */
+    public String trailing() {
+        return this.trailingStart < 0 ? "" : this.line.substring(this.trailingStart, this.end);
+    }
+
+    /**
+     * Indicates if the line has IRCv3 tags.
+     *
+     * @return {boolean}
+     */
+    public boolean hasTags() {
+        return this.tagsStart >= 0;
+    }
+
+    /**
+     * Returns the tags of the line. They are decoded on first access.
+     *
+     * @return {Map}
+     */
+    public Map<String, String> tags() {
+        if (this.tags == null) {
+            this.tags = new Tags(this.line, this.tagsStart, this.tagsEnd);
+        }
+
+        return this.tags;
+    }
+
+    @Override
+    public String toString() {
+        return this.line.substring(0, this.end);
+    }
+
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+
+        return to;
+    }
+
+    private static int skipSpaces(String s, int from, int to) {
+        while (from < to && s.charAt(from) == ' ') {
+            from++;
+        }
+
+        return from;
+    }
+
+    /**
+     * Decodes an IRCv3 tag value.
+     *
+     * @param {String} s The line
+     * @param {int} start The start of the value
+     * @param {int} end The end of the value
+     * @return {String}
+     */
+    static String unescape(String s, int start, int end) {
+        int slash = indexOf(s, '\\', start, end);
+
+        if (slash == end) {
+            return s.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, slash);
+
+        for (int i = slash; i < end; i++) {
+            char c = s.charAt(i);
+
+            if (c != '\\') {
+                sb.append(c);
+            } else if (i + 1 < end) {
+                char n = s.charAt(++i);
+
+                switch (n) {
+                    case ':':
+                        sb.append(';');
+                        break;
+                    case 's':
+                        sb.append(' ');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    default:
+                        sb.append(n);
+                        break;
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * The tags of a line, decoded on first access
+     *
+     * The {@code badges} tag is not stored itself, it is turned into the {@code user-type}, {@code subscriber}, {@code turbo}, {@code premium} and
+     * {@code vip} keys, which take precedence over tags of the same name
+     */
+    private static final class Tags extends AbstractMap<String, String> {
+
+        private final String line;
+        private final int start;
+        private final int end;
+        private volatile Map<String, String> decoded;
+
+        private Tags(String line, int start, int end) {
+            this.line = line;
+            this.start = start;
+            this.end = end;
+        }
+
+        private Map<String, String> decoded() {
+            Map<String, String> map = this.decoded;
+
+            if (map == null) {
+                map = this.decode();
+                this.decoded = map;
+            }
+
+            return map;
+        }
+
+        private Map<String, String> decode() {
+            if (this.start < 0) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, String> map = new HashMap<>(64);
+            int pos = this.start;
+
+            while (pos < this.end) {
+                int semi = indexOf(this.line, ';', pos, this.end);
+                int eq = indexOf(this.line, '=', pos, semi);
+
+                if (eq > pos) {
+                    String key = this.line.substring(pos, eq);
+
+                    if (key.equals("badges")) {
+                        parseBadges(map, eq + 1, semi);
+                    } else {
+                        map.putIfAbsent(key, eq < semi ? unescape(this.line, eq + 1, semi) : "");
+                    }
+                }
+
+                pos = semi + 1;
+            }
+
+            return map;
+        }
+
+        private void parseBadges(Map<String, String> map, int from, int to) {
+            // Add default values.
+            map.put("user-type", "");
+            map.put("subscriber", "0");
+            map.put("turbo", "0");
+            map.put("premium", "0");
+            map.put("vip", "0");
+
+            int pos = from;
+
+            while (pos < to) {
+                int comma = indexOf(this.line, ',', pos, to);
+                // Remove the `/1` from the badge. For bits it can be `/1000`.
+                int slash = indexOf(this.line, '/', pos, comma);
+                int length = slash - pos;
+
+                if (this.badgeIs("staff", pos, length) || this.badgeIs("global_mod", pos, length) || this.badgeIs("admin", pos, length)
+                        || this.badgeIs("broadcaster", pos, length) || this.badgeIs("moderator", pos, length)) {
+                    map.put("user-type", this.line.substring(pos, slash));
+                } else if (this.badgeIs("subscriber", pos, length) || this.badgeIs("founder", pos, length)) {
+                    map.put("subscriber", "1");
+                } else if (this.badgeIs("turbo", pos, length)) {
+                    map.put("turbo", "1");
+                } else if (this.badgeIs("premium", pos, length)) {
+                    map.put("premium", "1");
+                } else if (this.badgeIs("vip", pos, length)) {
+                    map.put("vip", "1");
+                }
+
+                pos = comma + 1;
+            }
+        }
+
+        private boolean badgeIs(String badge, int pos, int length) {
+            return badge.length() == length && this.line.regionMatches(pos, badge, 0, length);
+        }
+
+        @Override
+        public String get(Object key) {
+            return this.decoded().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.decoded().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return this.decoded().size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(this.decoded()).entrySet();
+        }
+    }
+}
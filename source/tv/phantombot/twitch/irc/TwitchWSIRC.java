@@ -192,12 +192,7 @@ public class TwitchWSIRC extends WebSocketClient {
             send("PONG");
         }
 
-        try {
-            new Thread(() -> {
-                twitchWSIRCParser.parseData(message, this);
-            }).start();
-        } catch (Exception ex) {
-            twitchWSIRCParser.parseData(message, this);
-        }
+        // Parsing is cheap, the handlers run on the dispatch workers of the parser.
+        twitchWSIRCParser.parseData(message, this);
     }
 }
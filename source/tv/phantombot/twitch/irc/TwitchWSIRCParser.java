@@ -16,7 +16,7 @@
  */
 package tv.phantombot.twitch.irc;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingDeque;
@@ -59,7 +59,7 @@ public class TwitchWSIRCParser implements Runnable {
     // See: https://discuss.dev.twitch.tv/t/anonymous-sub-gifting-to-launch-11-15-launch-details/18683
     private static final String ANONYMOUS_GIFTER_TWITCH_USER = "ananonymousgifter";
     private static TwitchWSIRCParser instance;
-    private final ConcurrentMap<String, TwitchWSIRCCommand> parserMap = new ConcurrentHashMap<>(8);
+    private final Map<IrcMessage.Command, TwitchWSIRCCommand> parserMap = new EnumMap<>(IrcMessage.Command.class);
     private final List<String> moderators = new CopyOnWriteArrayList<>();
     private final ScriptEventManager scriptEventManager = ScriptEventManager.instance();
     private final UsernameCache usernameCache = UsernameCache.instance();
@@ -70,6 +70,16 @@ public class TwitchWSIRCParser implements Runnable {
     private final TwitchSession session;
     private final String channelName;
     private final Thread runThread;
+    private final IrcEventPipeline pipeline = IrcEventPipeline.fromProperties();
+
+    /**
+     * Method that returns the current instance, or null if we never connected.
+     *
+     * @return {TwitchWSIRCParser}
+     */
+    public static synchronized TwitchWSIRCParser instance() {
+        return instance;
+    }
 
     public static synchronized TwitchWSIRCParser instance(WebSocket webSocket, String channelName, TwitchSession session) {
         if (instance == null) {
@@ -95,31 +105,31 @@ public class TwitchWSIRCParser implements Runnable {
         this.session = session;
 
         // 001 event from Twitch.
-        parserMap.put("001", (TwitchWSIRCCommand) this::onChannelJoined);
+        parserMap.put(IrcMessage.Command.RPL_WELCOME, (TwitchWSIRCCommand) this::onChannelJoined);
 
         // PRIVMSG event from Twitch.
-        parserMap.put("PRIVMSG", (TwitchWSIRCCommand) this::onPrivMsg);
+        parserMap.put(IrcMessage.Command.PRIVMSG, (TwitchWSIRCCommand) this::onPrivMsg);
 
         // CLEARCHAT event from Twitch.
-        parserMap.put("CLEARCHAT", (TwitchWSIRCCommand) this::onClearChat);
+        parserMap.put(IrcMessage.Command.CLEARCHAT, (TwitchWSIRCCommand) this::onClearChat);
 
         // WHISPER event from Twitch.
-        parserMap.put("WHISPER", (TwitchWSIRCCommand) this::onWhisper);
+        parserMap.put(IrcMessage.Command.WHISPER, (TwitchWSIRCCommand) this::onWhisper);
 
         // JOIN event from Twitch.
-        parserMap.put("JOIN", (TwitchWSIRCCommand) this::onJoin);
+        parserMap.put(IrcMessage.Command.JOIN, (TwitchWSIRCCommand) this::onJoin);
 
         // PART event from Twitch.
-        parserMap.put("PART", (TwitchWSIRCCommand) this::onPart);
+        parserMap.put(IrcMessage.Command.PART, (TwitchWSIRCCommand) this::onPart);
 
         // NOTICE event from Twitch.
-        parserMap.put("NOTICE", (TwitchWSIRCCommand) this::onNotice);
+        parserMap.put(IrcMessage.Command.NOTICE, (TwitchWSIRCCommand) this::onNotice);
 
         // USERSTATE event from Twitch.
-        parserMap.put("USERSTATE", (TwitchWSIRCCommand) this::onUserState);
+        parserMap.put(IrcMessage.Command.USERSTATE, (TwitchWSIRCCommand) this::onUserState);
 
         // USERNOTICE event from Twitch.
-        parserMap.put("USERNOTICE", (TwitchWSIRCCommand) this::onUserNotice);
+        parserMap.put(IrcMessage.Command.USERNOTICE, (TwitchWSIRCCommand) this::onUserNotice);
 
         // Start a new thread for events.
         this.runThread = new Thread(this);
@@ -160,156 +170,88 @@ public class TwitchWSIRCParser implements Runnable {
     }
 
     /**
-     * Method that splits messages with new lines then parses them.
+     * Method that splits messages with new lines, parses them and queues them for dispatch.
      *
      * @param {String} rawMessage
      */
     public void parseData(String rawMessage, TwitchWSIRC client) {
-        try {
-            if (rawMessage.contains("\n")) {
-                String[] messageList = rawMessage.split("\n");
+        long start = System.nanoTime();
+        int pos = 0;
 
-                for (String message : messageList) {
-                    parseLine(message, client);
-                }
-            } else {
-                parseLine(rawMessage, client);
+        while (pos < rawMessage.length()) {
+            int end = rawMessage.indexOf('\n', pos);
+
+            if (end < 0) {
+                end = rawMessage.length();
             }
-        } catch (Exception ex) {
-            com.gmt2001.Console.err.println("Failed to parse Twitch message: [" + ex.getMessage() + "] \n\n {" + rawMessage + "}");
-            com.gmt2001.Console.err.printStackTrace(ex);
-        }
-    }
 
-    /**
-     * Method that parses raw badges.
-     *
-     * @param rawBadges
-     * @return
-     */
-    private Map<String, String> parseBadges(String rawBadges) {
-        // A user cannot have more than 4 badges, acording to Twitch.
-        Map<String, String> badges = new HashMap<>(4);
-
-        // Add default values.
-        badges.put("user-type", "");
-        badges.put("subscriber", "0");
-        badges.put("turbo", "0");
-        badges.put("premium", "0");
-        badges.put("vip", "0");
-
-        if (rawBadges.length() > 0) {
-            String badgeParts[] = rawBadges.split(",", 4);
-
-            for (String badge : badgeParts) {
-                // Remove the `/1` from the badge.
-                // For bits it can be `/1000`, so we need to use indexOf.
-                badge = badge.substring(0, badge.indexOf("/"));
-
-                switch (badge) {
-                    case "staff":
-                    case "global_mod":
-                    case "admin":
-                    case "broadcaster":
-                    case "moderator":
-                        badges.put("user-type", badge);
-                        break;
-                    case "subscriber":
-                    case "founder":
-                        badges.put("subscriber", "1");
-                        break;
-                    case "turbo":
-                        badges.put("turbo", "1");
-                        break;
-                    case "premium":
-                        badges.put("premium", "1");
-                        break;
-                    case "vip":
-                        badges.put("vip", "1");
-                        break;
-                }
+            String line = rawMessage.substring(pos, end);
+            pos = end + 1;
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                parseLine(line, client);
+            } catch (Exception ex) {
+                com.gmt2001.Console.err.println("Failed to parse Twitch message: [" + ex.getMessage() + "] \n\n {" + line + "}");
+                com.gmt2001.Console.err.printStackTrace(ex);
             }
         }
 
-        return badges;
+        pipeline.recordParse(start);
     }
 
     /**
-     * Method that parses a single line message.
+     * Method that parses a single line message and queues it for dispatch.
      *
      * @param {String} rawMessage
      */
     private void parseLine(String rawMessage, TwitchWSIRC client) {
-        Map<String, String> tags = new HashMap<>();
-        String messageParts[] = rawMessage.split(" :", 3);
-        String username = "";
-        String message = "";
-        String event;
+        IrcMessage ircMessage = new IrcMessage(rawMessage);
 
-        if (rawMessage.startsWith("PONG")) {
+        if (ircMessage.command() == IrcMessage.Command.PONG) {
             client.gotPong();
             return;
         }
 
-        if (rawMessage.startsWith("PING")) {
+        if (ircMessage.command() == IrcMessage.Command.PING) {
             return;
         }
 
-        if (PhantomBot.instance().getProperties().getProperty("ircdebug", "false").equalsIgnoreCase("true")) {
+        if (PhantomBot.getIrcDebug()) {
             com.gmt2001.Console.debug.println(rawMessage);
         }
 
-        // Get tags from the messages.
-        if (messageParts[0].startsWith("@")) {
-            String[] tagParts = messageParts[0].substring(1).split(";");
+        TwitchWSIRCCommand parser = parserMap.get(ircMessage.command());
 
-            // We want to skip the first element which are badges, since they are parsed already.
-            for (String tagPart : tagParts) {
-                String[] keyValues = tagPart.split("=");
-                if (keyValues.length > 0) {
-                    if (keyValues[0].equals("badges")) {
-                        tags.putAll(parseBadges((keyValues.length == 1 ? "" : keyValues[1])));
-                    } else {
-                        tags.putIfAbsent(keyValues[0], (keyValues.length == 1 ? "" : keyValues[1]));
-                    }
-                }
-            }
-
-            messageParts[0] = messageParts[1];
+        if (parser != null) {
+            // Lines of the same user are dispatched in order; CLEARCHAT is ordered with the messages of the user it targets.
+            String key = ircMessage.username();
 
-            if (messageParts.length > 2) {
-                messageParts[1] = messageParts[2];
+            if (key.isEmpty() && ircMessage.command() == IrcMessage.Command.CLEARCHAT) {
+                key = ircMessage.trailing();
             }
-        }
-
-        // Cut leading space.
-        if (messageParts[0].startsWith(" ")) {
-            messageParts[0] = messageParts[0].substring(1);
-        }
 
-        // Cut leading space, trailing junk character, and assign message.
-        if (messageParts.length > 1) {
-            if (messageParts[1].startsWith(" ")) {
-                messageParts[1] = messageParts[1].substring(1);
-            }
-            message = messageParts[1];
-            if (message.length() > 1) {
-                message = message.substring(0, message.length() - 1);
-            }
-        }
-
-        // Get username if present.
-        if (messageParts[0].contains("!")) {
-            username = messageParts[0].substring(messageParts[0].indexOf("!") + 1, messageParts[0].indexOf("@"));
+            pipeline.submit(key, () -> {
+                try {
+                    parser.exec(ircMessage.trailing(), ircMessage.username(), ircMessage.tags());
+                } catch (Exception ex) {
+                    com.gmt2001.Console.err.println("Failed to handle Twitch message: [" + ex.getMessage() + "] \n\n {" + rawMessage + "}");
+                    com.gmt2001.Console.err.printStackTrace(ex);
+                }
+            });
         }
+    }
 
-        // Get the event code.
-        event = messageParts[0].split(" ")[1];
-
-        // Execute the event parser if a parser exists.
-        if (parserMap.containsKey(event)) {
-            parserMap.get(event).exec(message, username, tags);
-        }
+    /**
+     * Method that returns the stats of the IRC event pipeline.
+     *
+     * @return {String}
+     */
+    public String getPipelineStats() {
+        return pipeline.getStats();
     }
 
     /**
@@ -444,7 +386,7 @@ public class TwitchWSIRCParser implements Runnable {
 
         // Get the ban reason if any.
         if (tags.containsKey("ban-reason")) {
-            reason = tags.get("ban-reason").replaceAll("\\\\s", " ");
+            reason = tags.get("ban-reason");
         }
 
         // Post the event.
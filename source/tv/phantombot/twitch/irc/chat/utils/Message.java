@@ -19,6 +19,8 @@ package tv.phantombot.twitch.irc.chat.utils;
 public class Message {
     private final String message;
     private final boolean hasPriority;
+    private final long queuedAt = System.currentTimeMillis();
+    private int duplicates = 0;
 
     /**
      * Class constructor.
@@ -58,4 +60,29 @@ public class Message {
     public boolean hasPriority() {
         return this.hasPriority;
     }
+
+    /**
+     * Method that returns when the message was queued.
+     *
+     * @return {long} queuedAt
+     */
+    public long getQueuedAt() {
+        return this.queuedAt;
+    }
+
+    /**
+     * Method that returns how many identical messages were merged into this one while it was queued.
+     *
+     * @return {int} duplicates
+     */
+    public int getDuplicates() {
+        return this.duplicates;
+    }
+
+    /**
+     * Method that records an identical message being merged into this one.
+     */
+    public void addDuplicate() {
+        this.duplicates++;
+    }
 }
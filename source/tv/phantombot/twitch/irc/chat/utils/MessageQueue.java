@@ -16,20 +16,55 @@
  */
 package tv.phantombot.twitch.irc.chat.utils;
 
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import tv.phantombot.PhantomBot;
 import tv.phantombot.twitch.irc.TwitchSession;
 
 public class MessageQueue implements Runnable {
-    private final BlockingDeque<Message> queue = new LinkedBlockingDeque<>();
+    /**
+     * The window Twitch uses for the chat message limits, with a small safety margin.
+     */
+    private static final long WINDOW_MS = 30200L;
+    /**
+     * The most messages a moderator may send in one window.
+     */
+    private static final int MODERATOR_LIMIT = 99;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Lane, LaneQueue> lanes = new HashMap<>();
+    private final Deque<Long> sendTimes = new ArrayDeque<>();
     private final String channelName;
     private final Thread thread;
+    private TokenBucket chatBucket;
+    private TokenBucket whisperBucket;
+    private double limit;
+    private long maxAge;
+    private boolean dedupe;
     private TwitchSession session;
-    private boolean isAllowedToSend = false;
-    private boolean isKilled = false;
-    private int writes = 0;
+    /**
+     * The lane of the message last returned by take. Guarded by the lock.
+     */
+    private Lane lastLane = null;
+    private volatile boolean isAllowedToSend = false;
+    private volatile boolean isKilled = false;
+
+    /**
+     * The lanes messages are queued in.
+     *
+     * PRIORITY holds messages from sayNow and is always served first, NORMAL holds chat messages from say and WHISPER holds whispers sent through
+     * chat. NORMAL and WHISPER are served oldest message first, whenever their rate limits allow it.
+     */
+    public enum Lane {
+        PRIORITY, NORMAL, WHISPER
+    }
 
     /**
      * Class constructor.
@@ -39,6 +74,10 @@ public class MessageQueue implements Runnable {
     public MessageQueue(String channelName) {
         this.channelName = channelName;
 
+        for (Lane lane : Lane.values()) {
+            this.lanes.put(lane, new LaneQueue());
+        }
+
         // Set the default thread uncaught exception handler.
         Thread.setDefaultUncaughtExceptionHandler(com.gmt2001.UncaughtExceptionHandler.instance());
 
@@ -57,6 +96,14 @@ public class MessageQueue implements Runnable {
     public void start(TwitchSession session) {
         // Set the session.
         this.session = session;
+
+        // Load the limits.
+        this.limit = PhantomBot.getMessageLimit();
+        this.chatBucket = new TokenBucket(Math.max(1.0, Math.ceil(this.limit / 4.0)), this.limit / WINDOW_MS);
+        this.whisperBucket = new TokenBucket(3.0, 1.0 / PhantomBot.getWhisperInterval());
+        this.maxAge = PhantomBot.getMessageQueueMaxAge();
+        this.dedupe = PhantomBot.getMessageQueueDedupe();
+
         // Start the write thread.
         this.thread.start();
     }
@@ -66,8 +113,14 @@ public class MessageQueue implements Runnable {
      *
      * @param {boolean} isAllowedToSend
      */
-    public synchronized void setAllowSendMessages(boolean isAllowedToSend) {
-        this.isAllowedToSend = isAllowedToSend;
+    public void setAllowSendMessages(boolean isAllowedToSend) {
+        lock.lock();
+        try {
+            this.isAllowedToSend = isAllowedToSend;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -85,7 +138,26 @@ public class MessageQueue implements Runnable {
      * @return {int} writes
      */
     public int getWrites() {
-        return this.writes;
+        lock.lock();
+        try {
+            return this.pruneWindow(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that returns the amount of messages waiting to be sent.
+     *
+     * @return {int} queued
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return this.lanes.values().stream().mapToInt((lane) -> lane.messages.size()).sum();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -97,64 +169,91 @@ public class MessageQueue implements Runnable {
         message = message.replace('\r', ' ');
         String[] spl = message.split("\n");
         for (String str : spl) {
-            queue.add(new Message(str));
+            this.enqueue(isWhisper(str) ? Lane.WHISPER : Lane.NORMAL, new Message(str));
         }
     }
 
     /**
-     * Method that adds a message to the top of the queue.
+     * Method that adds a message to the priority lane of the queue.
      *
      * @param {String} message
      */
     public void sayNow(String message) {
         message = message.replace('\r', ' ');
         String[] spl = message.split("\n");
-        for (int i = spl.length; i > 0; i--) {
-            queue.addFirst(new Message(spl[i - 1], spl[i - 1].startsWith(".")));
+        for (String str : spl) {
+            this.enqueue(Lane.PRIORITY, new Message(str, str.startsWith(".")));
         }
     }
 
+    /**
+     * Method that returns the throughput, latency and drop counters of every lane.
+     *
+     * @return {String} stats
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+
+        lock.lock();
+        try {
+            sb.append("Allowed to send: ").append(this.isAllowedToSend).append(", Writes in the last 30s: ").append(this.pruneWindow(System.currentTimeMillis()))
+                    .append("/").append((int) this.limit);
+
+            for (Lane lane : Lane.values()) {
+                LaneQueue lq = this.lanes.get(lane);
+                long sent = lq.sent.sum();
+                Message head = lq.messages.peekFirst();
+
+                sb.append(String.format("%n%s: queued %d (oldest %dms), sent %d, merged %d, dropped %d, latency avg %dms max %dms", lane.name(),
+                        lq.messages.size(), head == null ? 0L : System.currentTimeMillis() - head.getQueuedAt(), sent, lq.merged.sum(),
+                        lq.dropped.sum(), sent == 0 ? 0L : lq.totalLatency.sum() / sent, lq.maxLatency));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Method that handles sending messages to Twitch from our queue.
      */
     @Override
     public void run() {
-        long lastWrite = System.currentTimeMillis();
-        long nextWrite = System.currentTimeMillis();
-        double limit = PhantomBot.getMessageLimit();
-
         while (!isKilled) {
+            Message message = null;
+            Lane lane = null;
+
+            lock.lock();
             try {
-                // Get the next message in the queue.
-                Message message = queue.take();
-
-                // Set the time we got the message.
-                long time = System.currentTimeMillis();
-
-                // Make sure we're allowed to send messages and that this one can be sent.
-                if (isAllowedToSend && (nextWrite < time || (message.hasPriority() && writes <= 99))) {
-                    if (lastWrite > time) {
-                        if (writes >= limit && !message.hasPriority()) {
-                            nextWrite = (time + (lastWrite - time));
-                            com.gmt2001.Console.warn.println("Message limit of (" + limit + ") has been reached. Messages will be sent again in " + (nextWrite - time) + "ms");
-                            continue;
-                        }
-                        writes++;
-                    } else {
-                        writes = 1;
-                        lastWrite = (time + 30200);
-                    }
+                long now = System.currentTimeMillis();
+                this.dropExpired(now);
+
+                if (this.isAllowedToSend) {
+                    message = this.next(now);
+                    lane = this.lastLane;
+                }
 
+                if (message == null) {
+                    changed.await(this.nextWake(now), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                com.gmt2001.Console.err.printStackTrace(ex);
+            } finally {
+                lock.unlock();
+            }
+
+            if (message != null) {
+                try {
                     // Send the message.
                     session.sendRaw("PRIVMSG #" + this.channelName + " :" + message.getMessage());
                     com.gmt2001.Console.out.println("[CHAT] " + message.getMessage());
+                } catch (WebsocketNotConnectedException ex) {
+                    com.gmt2001.Console.err.println("Failed to send message due to being disconnected from Twitch IRC.");
+                    this.requeue(lane, message);
+                    this.setAllowSendMessages(false);
+                    session.reconnect();
                 }
-            } catch (WebsocketNotConnectedException ex) {
-                com.gmt2001.Console.err.println("Failed to send message due to being disconnected from Twitch IRC.");
-                this.setAllowSendMessages(false);
-                session.reconnect();
-            } catch (InterruptedException ex) {
-                com.gmt2001.Console.err.printStackTrace(ex);
             }
         }
     }
@@ -163,6 +262,238 @@ public class MessageQueue implements Runnable {
      * Method that kills this instance.
      */
     public void kill() {
-        this.isKilled = true;
+        lock.lock();
+        try {
+            this.isKilled = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isWhisper(String message) {
+        return message.startsWith("/w ") || message.startsWith(".w ");
+    }
+
+    private void enqueue(Lane lane, Message message) {
+        lock.lock();
+        try {
+            LaneQueue lq = this.lanes.get(lane);
+
+            if (this.dedupe) {
+                Message queued = lq.pending.get(message.getMessage());
+
+                if (queued != null) {
+                    queued.addDuplicate();
+                    lq.merged.increment();
+                    return;
+                }
+
+                lq.pending.put(message.getMessage(), message);
+            }
+
+            lq.messages.addLast(message);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message that the rate limits allow to be sent right now, if any. Must be called while holding the lock.
+     */
+    private Message next(long now) {
+        int writes = this.pruneWindow(now);
+        LaneQueue priority = this.lanes.get(Lane.PRIORITY);
+        Message head = priority.messages.peekFirst();
+
+        if (head != null) {
+            if (head.hasPriority()) {
+                // Moderation commands are only bound by the moderator limit, but still use up the chat tokens.
+                if (writes < MODERATOR_LIMIT) {
+                    this.chatBucket.take(now, true);
+                    return this.take(Lane.PRIORITY, now);
+                }
+            } else if (writes < this.limit && this.chatBucket.take(now, false)) {
+                return this.take(Lane.PRIORITY, now);
+            }
+
+            return null;
+        }
+
+        if (writes >= this.limit) {
+            return null;
+        }
+
+        Message normal = this.lanes.get(Lane.NORMAL).messages.peekFirst();
+        Message whisper = this.lanes.get(Lane.WHISPER).messages.peekFirst();
+
+        if (whisper != null && (normal == null || whisper.getQueuedAt() < normal.getQueuedAt()) && this.whisperBucket.available(now)) {
+            if (this.chatBucket.take(now, false)) {
+                this.whisperBucket.take(now, false);
+                return this.take(Lane.WHISPER, now);
+            }
+        } else if (normal != null && this.chatBucket.take(now, false)) {
+            return this.take(Lane.NORMAL, now);
+        } else if (whisper != null && this.whisperBucket.available(now) && this.chatBucket.take(now, false)) {
+            this.whisperBucket.take(now, false);
+            return this.take(Lane.WHISPER, now);
+        }
+
+        return null;
+    }
+
+    private Message take(Lane lane, long now) {
+        LaneQueue lq = this.lanes.get(lane);
+        Message message = lq.messages.pollFirst();
+        this.lastLane = lane;
+        lq.pending.remove(message.getMessage(), message);
+
+        long latency = now - message.getQueuedAt();
+        lq.sent.increment();
+        lq.totalLatency.add(latency);
+        lq.maxLatency = Math.max(lq.maxLatency, latency);
+        this.sendTimes.addLast(now);
+
+        return message;
+    }
+
+    /**
+     * Puts a message that could not be sent back at the head of its lane, so it goes out first once we are connected again.
+     */
+    private void requeue(Lane lane, Message message) {
+        lock.lock();
+        try {
+            LaneQueue lq = this.lanes.get(lane);
+            lq.messages.addFirst(message);
+
+            if (this.dedupe) {
+                lq.pending.putIfAbsent(message.getMessage(), message);
+            }
+
+            // Undo what take counted, the message was never written.
+            Long sentAt = this.sendTimes.pollLast();
+            lq.sent.decrement();
+            lq.totalLatency.add(-((sentAt == null ? System.currentTimeMillis() : sentAt) - message.getQueuedAt()));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the messages that have been waiting longer than the maximum age. Must be called while holding the lock.
+     */
+    private void dropExpired(long now) {
+        if (this.maxAge <= 0) {
+            return;
+        }
+
+        this.lanes.forEach((lane, lq) -> {
+            Message head;
+
+            while ((head = lq.messages.peekFirst()) != null && now - head.getQueuedAt() > this.maxAge) {
+                lq.messages.pollFirst();
+                lq.pending.remove(head.getMessage(), head);
+                lq.dropped.increment();
+                com.gmt2001.Console.warn.println("Dropped " + lane.name().toLowerCase() + " message after waiting " + ((now - head.getQueuedAt()) / 1000)
+                        + " seconds" + (head.getDuplicates() > 0 ? " (merged " + head.getDuplicates() + " duplicates)" : "") + ": " + head.getMessage(),
+                        !this.isAllowedToSend);
+            }
+        });
+    }
+
+    /**
+     * Returns how long the write thread can sleep before something may be sendable. Must be called while holding the lock.
+     */
+    private long nextWake(long now) {
+        long wake = 1000L;
+
+        if (this.isAllowedToSend && !this.sendTimes.isEmpty() && this.sendTimes.size() >= this.limit) {
+            wake = Math.min(wake, this.sendTimes.peekFirst() + WINDOW_MS - now);
+        }
+
+        if (this.isAllowedToSend) {
+            if (!this.lanes.get(Lane.NORMAL).messages.isEmpty() || !this.lanes.get(Lane.PRIORITY).messages.isEmpty()) {
+                wake = Math.min(wake, this.chatBucket.millisUntilAvailable(now));
+            } else if (!this.lanes.get(Lane.WHISPER).messages.isEmpty()) {
+                wake = Math.min(wake, Math.max(this.chatBucket.millisUntilAvailable(now), this.whisperBucket.millisUntilAvailable(now)));
+            }
+        }
+
+        return Math.max(1L, wake);
+    }
+
+    /**
+     * Forgets the writes that are older than the window and returns the amount left. Must be called while holding the lock.
+     */
+    private int pruneWindow(long now) {
+        while (!this.sendTimes.isEmpty() && this.sendTimes.peekFirst() + WINDOW_MS <= now) {
+            this.sendTimes.pollFirst();
+        }
+
+        return this.sendTimes.size();
+    }
+
+    /**
+     * The messages and counters of a single lane. Guarded by the queue lock, except for the counters.
+     */
+    private static final class LaneQueue {
+
+        private final Deque<Message> messages = new ArrayDeque<>();
+        private final Map<String, Message> pending = new HashMap<>();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder merged = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder totalLatency = new LongAdder();
+        private long maxLatency = 0L;
+    }
+
+    /**
+     * A token bucket that refills continuously. Guarded by the queue lock.
+     */
+    private static final class TokenBucket {
+
+        private final double capacity;
+        private final double perMs;
+        private double tokens;
+        private long lastRefill = System.currentTimeMillis();
+
+        private TokenBucket(double capacity, double perMs) {
+            this.capacity = capacity;
+            this.perMs = perMs;
+            this.tokens = capacity;
+        }
+
+        private void refill(long now) {
+            if (now > this.lastRefill) {
+                this.tokens = Math.min(this.capacity, this.tokens + ((now - this.lastRefill) * this.perMs));
+                this.lastRefill = now;
+            }
+        }
+
+        private boolean available(long now) {
+            this.refill(now);
+            return this.tokens >= 1.0;
+        }
+
+        /**
+         * Takes a token. If {@code force} is {@code true} the token is taken even if the bucket is empty, which delays the next messages instead
+         */
+        private boolean take(long now, boolean force) {
+            this.refill(now);
+
+            if (this.tokens >= 1.0 || force) {
+                this.tokens = Math.max(-this.capacity, this.tokens - 1.0);
+                return true;
+            }
+
+            return false;
+        }
+
+        private long millisUntilAvailable(long now) {
+            this.refill(now);
+            return this.tokens >= 1.0 ? 0L : (long) Math.ceil((1.0 - this.tokens) / this.perMs);
+        }
     }
 }